@@ -0,0 +1,48 @@
+package xqed;
+
+import java.io.IOException;
+
+import xqed.xiangqi.History;
+import xqed.xiangqi.Position;
+
+/**
+ * A source of analysis for the current position: either an external UCCI
+ * engine ({@link Engine}) or the built-in search ({@link Search}). Both report
+ * what they find to the controller as {@link Engine.EngineInfo}.
+ */
+public interface Analyzer {
+
+	/**
+	 * Set the position to analyze. If analysis is running it restarts on the
+	 * new position.
+	 * @param pos The new board position.
+	 * @param redToMove Whether it is Red's turn to move.
+	 * @param move The move number.
+	 * @param history The positions of the game up to and including this one
+	 * (see {@link xqed.xiangqi.GameTree#getHistory()}), so that repetitions
+	 * which began earlier in the game can be judged, or null if unknown.
+	 * @throws IOException If the analyzer can't be communicated with.
+	 */
+	void setPosition(Position pos, boolean redToMove, int move, History history)
+			throws IOException;
+
+	/**
+	 * Start analyzing the current position until stopped.
+	 * @throws IOException If the analyzer can't be communicated with.
+	 */
+	void startEngine() throws IOException;
+
+	/**
+	 * Stop analyzing.
+	 * @return The move to ponder on in UCCI format, or an empty string.
+	 * @throws IOException If the analyzer can't be communicated with.
+	 */
+	String stopEngine() throws IOException;
+
+	/**
+	 * Determine whether analysis is running.
+	 * @return True between {@link #startEngine()} and {@link #stopEngine()}.
+	 */
+	boolean isRunning();
+
+}
@@ -104,9 +104,20 @@ public class Controller {
 	/** The filename of the current game if it exists. */
 	private Optional<File> gameFile;
 	
-	/** The engine to use for analysis. */
-	private Engine engine;
+	/**
+	 * The source of analysis: the built-in search until an external engine is
+	 * loaded.
+	 */
+	private Analyzer engine;
+	/** The external UCCI engine, which is used once it has been loaded. */
+	private Engine externalEngine;
 	private SimpleObjectProperty<Engine.EngineInfo> engineInfo;
+	/**
+	 * True from starting analysis until it is stopped. The built-in search
+	 * can end by itself, e.g., in a mated position, so this is kept apart
+	 * from whether the engine is running.
+	 */
+	private boolean analyzing;
 	
 	/**
 	 * Construct a new controller with a fresh game.
@@ -120,7 +131,11 @@ public class Controller {
 		format = Move.MoveFormat.RELATIVE;
 		gameChanged = false;
 		gameFile = Optional.empty();
-		engine = new Engine(this);
+		externalEngine = new Engine(this);
+		Search search = new Search(this);
+		search.setThreads(Runtime.getRuntime().availableProcessors());
+		engine = search;
+		analyzing = false;
 		engineInfo = new SimpleObjectProperty<>();
 		engineInfo.addListener(new ChangeListener<Engine.EngineInfo>() {
 			@Override
@@ -140,6 +155,8 @@ public class Controller {
 		movePane.setController(this);
 		analysisPane.setController(this);
 		graphPane.setController(this);
+		analysisPane.setEngineName(Search.NAME);
+		analysisPane.enableAnalysisButtons();
 		moveFormatGroup.selectToggle(wxfToggle);
 		topLevelWindow = topLevel;
 
@@ -156,9 +173,7 @@ public class Controller {
 	private StringTree traverseGameTree(GameTree root, Optional<StringTree> parent) {
 		StringTree cur = new StringTree();
 		if (root.hasMove()) {
-			String move = root.getMove().write(root.getParent().getPosition(),
-					format);
-			cur.setCurrent(Optional.of(move));
+			cur.setCurrent(Optional.of(root.getMoveText(format)));
 		}
 		ArrayList<StringTree> children = new ArrayList<>();
 		cur.setParent(parent);
@@ -231,11 +246,11 @@ public class Controller {
 			navForward.setDisable(false);
 			navEnd.setDisable(false);
 		}
-		if (engine.isRunning()) {
+		if (analyzing) {
 			try {
-				engine.setPosition(current.getPosition().toString(),
+				engine.setPosition(current.getPosition(),
 						current.getPlayerToMove() == Piece.Color.RED,
-						current.getMoveNum());
+						current.getMoveNum(), current.getHistory());
 			} catch (IOException e) {}
 		}
 	}
@@ -430,9 +445,7 @@ public class Controller {
 	 */
 	private void makeMove(Move m) {
 		gameChanged = true;
-		Position newPos = current.getPosition().clone();
-		newPos.clearPiece(m.getFromSquare().getKey(), m.getFromSquare().getValue());
-		newPos.setPiece(m.getToSquare().getKey(), m.getToSquare().getValue(), m.getPiece());
+		Position newPos = current.getPosition().makeMove(m);
 		int moveNum = current.getMoveNum();
 		if (current.getPlayerToMove() == Piece.Color.BLACK) {
 			moveNum++;
@@ -486,8 +499,7 @@ public class Controller {
 		// Otherwise, this click should start a move.
 		if (pos.hasPieceAt(file, rank) &&
 				pos.pieceAt(file, rank).getColor() == current.getPlayerToMove()) {
-			ArrayList<Pair<Integer, Integer>> moves =
-					current.getPosition().getMovesFrom(file, rank);
+			ArrayList<Pair<Integer, Integer>> moves = current.getMovesFrom(file, rank);
 			movingList = moves;
 			boardPane.markSquares(moves);
 			startFile = file;
@@ -508,8 +520,7 @@ public class Controller {
 		Position pos = current.getPosition();
 		if (pos.hasPieceAt(file, rank) &&
 				pos.pieceAt(file, rank).getColor() == current.getPlayerToMove()) {
-			ArrayList<Pair<Integer, Integer>> moves =
-					current.getPosition().getMovesFrom(file, rank);
+			ArrayList<Pair<Integer, Integer>> moves = current.getMovesFrom(file, rank);
 			boardPane.setMovingPiece(pos.pieceAt(file, rank));
 			boardPane.setMovingX(e.getX());
 			boardPane.setMovingY(e.getY());
@@ -553,8 +564,7 @@ public class Controller {
 		int file = square.getKey();
 		int rank = square.getValue();
 		Position pos = current.getPosition();
-		ArrayList<Pair<Integer, Integer>> moves =
-				current.getPosition().getMovesFrom(startFile, startRank);
+		ArrayList<Pair<Integer, Integer>> moves = current.getMovesFrom(startFile, startRank);
 		for (Pair<Integer, Integer> move : moves) {
 			if (file == move.getKey() && rank == move.getValue()) {
 				Piece p = pos.pieceAt(startFile, startRank);
@@ -566,7 +576,7 @@ public class Controller {
 		movingPiece = false;
 		startFile = -1;
 		startRank = -1;
-		boardPane.setMovingPiece(new Piece());
+		boardPane.setMovingPiece(Piece.EMPTY);
 		boardPane.setMovingX(-1);
 		boardPane.setMovingY(-1);
 		boardPane.drawBoard(current.getPosition());
@@ -736,7 +746,10 @@ public class Controller {
 		boolean loaded = false;
 		String name = "";
 		try {
-			name = engine.loadEngine(chosen);
+			engine.stopEngine();
+			analyzing = false;
+			name = externalEngine.loadEngine(chosen);
+			engine = externalEngine;
 			loaded = true;
 		} catch (IOException e) {
 			Alert a = new Alert(Alert.AlertType.ERROR,
@@ -758,9 +771,11 @@ public class Controller {
 	 */
 	public void startEngine() {
 		try {
-			engine.setPosition(current.getPosition().toString(),
-					current.getPlayerToMove() == Piece.Color.RED, 1);
+			engine.setPosition(current.getPosition(),
+					current.getPlayerToMove() == Piece.Color.RED, 1,
+					current.getHistory());
 			engine.startEngine();
+			analyzing = true;
 		} catch (IOException e) {
 			Alert a = new Alert(Alert.AlertType.ERROR,
 					"Unable to start engine");
@@ -772,6 +787,7 @@ public class Controller {
 	 * Stop a running engine.
 	 */
 	public void stopEngine() {
+		analyzing = false;
 		try {
 			engine.stopEngine();
 		} catch (IOException e) {
@@ -820,6 +836,7 @@ public class Controller {
 			Position cur = current.getPosition().clone();
 			StringBuilder text = new StringBuilder();
 			int moveNum = current.getMoveNum();
+			boolean first = true;
 			for (String move : moves) {
 				if (move.isBlank()) {
 					continue;
@@ -832,13 +849,16 @@ public class Controller {
 				}
 				Move m = null;
 				try {
-					m = cur.interpretMove(move, toMove);
+					// The first move can use the legal moves cached at the node.
+					m = first ? current.interpretMove(move)
+							: cur.interpretMove(move, toMove);
 				} catch (ParseException e) {
 					break;
 				}
 				text.append(" ");
 				text.append(m.write(cur, format));
-				cur.makeMove(m);
+				cur.doMove(m);
+				first = false;
 				// Scores are returned from the engine's point of view.
 				toMove = Piece.switchColor(toMove);
 			}
@@ -12,17 +12,22 @@ import java.util.concurrent.TimeUnit;
 
 import javafx.application.Platform;
 import javafx.concurrent.Task;
+import xqed.xiangqi.Fen;
+import xqed.xiangqi.History;
+import xqed.xiangqi.Piece;
+import xqed.xiangqi.Position;
 
 /**
  * Connects a Xiangqi engine and passes user commands into it and analysis
  * results back out.
  */
-public class Engine {
+public class Engine implements Analyzer {
 	
 	/**
-	 * The information from the engine to be displayed to the user.
+	 * The information from the engine to be displayed to the user. The built-in
+	 * {@link Search} reports the same information.
 	 */
-	public class EngineInfo {
+	public static class EngineInfo {
 		/** The search depth. */
 		private int depth;
 		/** The total number of nodes visited. */
@@ -194,9 +199,13 @@ public class Engine {
 	private Thread listenerThread;
 	private Controller controller;
 	private boolean isRunning;
-	private String currentPos;
-	private boolean currentRedToMove;
+	/** Whether a position has been sent to the engine yet. */
+	private boolean hasPosition;
+	/** The hash (including side to move) of the last position sent. */
+	private long currentHash;
 	private int currentMove;
+	/** The buffer the position command is built in, reused between moves. */
+	private StringBuilder command;
 
 	public Engine(Controller ctrl) {
 		exe = null;
@@ -205,9 +214,10 @@ public class Engine {
 		numPV = 0;
 		controller = ctrl;
 		isRunning = false;
-		currentPos = "";
-		currentRedToMove = true;
+		hasPosition = false;
+		currentHash = 0;
 		currentMove = 0;
+		command = new StringBuilder();
 	}
 	
 	/**
@@ -293,7 +303,8 @@ public class Engine {
 			engineIn.flush();
 		}
 		if (options.containsKey("Threads")) {
-			int value = Integer.min(4, parseMax(options.get("Threads")));
+			int value = Integer.min(Runtime.getRuntime().availableProcessors(),
+					parseMax(options.get("Threads")));
 			engineIn.write(String.format("setoption Threads %d", value));
 			engineIn.newLine();
 			engineIn.flush();
@@ -328,29 +339,36 @@ public class Engine {
 	}
 	
 	/**
-	 * Send a new position to the engine.
-	 * @param fen The new board position.
+	 * Send a new position to the engine. Nothing is sent if the engine already
+	 * has the same position.
+	 * @param pos The new board position.
 	 * @param redToMove Whether it is Red's turn to move.
 	 * @param move The move number.
+	 * @param history Not used, since the position is sent without the moves
+	 * leading to it.
 	 * @throws IOException If the engine can't be communicated with.
 	 */
-	public void setPosition(String fen, boolean redToMove, int move) throws IOException {
-		if (fen.equals(currentPos) && redToMove == currentRedToMove && move == currentMove) {
+	@Override
+	public void setPosition(Position pos, boolean redToMove, int move, History history)
+			throws IOException {
+		long hash = pos.getHash(redToMove ? Piece.Color.RED : Piece.Color.BLACK);
+		if (hasPosition && hash == currentHash && move == currentMove) {
 			return;
 		}
-		currentPos = fen;
-		currentRedToMove = redToMove;
+		hasPosition = true;
+		currentHash = hash;
 		currentMove = move;
 		boolean startAgain = false;
 		if (isRunning) {
 			startAgain = true;
 			stopEngine();
 		}
-		String toWrite = fen.replace('h', 'n').replace('e', 'b')
-				.replace('H', 'N').replace('E', 'B');
-		toWrite += redToMove ? " w" : " b";
-		toWrite += " - - 0 " + Integer.toString(move);
-		engineIn.write("position fen " + toWrite);
+		command.setLength(0);
+		command.append("position fen ");
+		Fen.write(pos, Fen.Letters.UCCI, command);
+		command.append(redToMove ? " w" : " b");
+		command.append(" - - 0 ").append(move);
+		engineIn.append(command);
 		engineIn.newLine();
 		engineIn.flush();
 		if (startAgain) {
@@ -367,8 +385,8 @@ public class Engine {
 		engineIn.write("position startpos");
 		engineIn.newLine();
 		engineIn.flush();
-		currentPos = "rheakaehr/9/1c5c1/p1p1p1p1p/9/9/P1P1P1P1P/1C5C1/9/RHAEKAEHR";
-		currentRedToMove = true;
+		hasPosition = true;
+		currentHash = new Position().getHash(Piece.Color.RED);
 		currentMove = 1;
 	}
 	
@@ -376,6 +394,7 @@ public class Engine {
 	 * Start the engine searching on the current position.
 	 * @throws IOException If the engine can't be communicated with.
 	 */
+	@Override
 	public void startEngine() throws IOException {
 		engineListener = new EngineListener(numPV, controller);
 		listenerThread = new Thread(engineListener);
@@ -392,6 +411,7 @@ public class Engine {
 	 * @return The move the engine wants to ponder on, if one is given.
 	 * @throws IOException If the engine can't be communicated with.
 	 */
+	@Override
 	public String stopEngine() throws IOException {
 		if (!isRunning) {
 			return "";
@@ -416,6 +436,7 @@ public class Engine {
 		return "";
 	}
 	
+	@Override
 	public boolean isRunning() {
 		return isRunning;
 	}
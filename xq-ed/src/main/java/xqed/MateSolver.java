@@ -0,0 +1,520 @@
+package xqed;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import xqed.xiangqi.Fen;
+import xqed.xiangqi.MoveList;
+import xqed.xiangqi.PackedMove;
+import xqed.xiangqi.Piece;
+import xqed.xiangqi.Position;
+
+/**
+ * Proves or refutes mate in a given number of moves, for annotating
+ * collections of endgame and composed problems. Unlike {@link Search} this
+ * does not score positions: the attacker needs one move after which every
+ * defence leads to mate in one move fewer, and the proof stops as soon as that
+ * is settled either way. Results for positions with the attacker to move are
+ * kept in a {@link TranspositionTable}, which can be shared by solvers running
+ * on several threads.
+ *
+ * By default only checking moves are tried for the attacker, as in the usual
+ * problems where every attacking move must check. A refutation then only
+ * means there is no mate by continuous checks; {@link #setChecksOnly(boolean)}
+ * allows every move, which is much slower. As in {@link Search}, a side left
+ * without a legal move has lost, whether or not it is in check. Repetitions
+ * are not considered, since the move limit already ends every line.
+ */
+public class MateSolver {
+
+	/** The most moves a mate can be looked for in. */
+	public static final int MAX_MOVES = Search.MAX_PLY / 2;
+
+	/** The number of nodes between looks at the clock. */
+	private static final int CHECK_INTERVAL = 1024;
+
+	/** The table score of a proven mate. */
+	private static final int PROVEN = 1;
+	/** The table score of a refuted mate. */
+	private static final int REFUTED = 0;
+
+	/**
+	 * The outcome of solving one problem.
+	 */
+	public static class Result {
+
+		/** Whether a mate was found. */
+		public enum Status {
+			/** There is a mate within the limit. */
+			MATE,
+			/** There is no mate within the limit. */
+			NO_MATE,
+			/** Time ran out before the question was settled. */
+			TIMEOUT
+		}
+
+		private final Status status;
+		/** The number of attacking moves in the shortest mate, or 0. */
+		private final int moves;
+		/** The main line of the mate in UCCI format, or empty. */
+		private final String line;
+		private final long nodes;
+		/** The time spent in milliseconds. */
+		private final double time;
+
+		/**
+		 * Create a result.
+		 * @param status Whether a mate was found.
+		 * @param moves The length of the mate in moves, or 0.
+		 * @param line The main line, or an empty string.
+		 * @param nodes The number of positions visited.
+		 * @param time The time spent in milliseconds.
+		 */
+		public Result(Status status, int moves, String line, long nodes, double time) {
+			this.status = status;
+			this.moves = moves;
+			this.line = line;
+			this.nodes = nodes;
+			this.time = time;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		public int getMoves() {
+			return moves;
+		}
+
+		public String getLine() {
+			return line;
+		}
+
+		public long getNodes() {
+			return nodes;
+		}
+
+		public double getTime() {
+			return time;
+		}
+
+		@Override
+		public String toString() {
+			switch (status) {
+			case MATE:
+				return "mate " + moves + ":" + line;
+			case NO_MATE:
+				return "no mate";
+			default:
+				return "timeout";
+			}
+		}
+	}
+
+	/** The results shared between searches. */
+	private final TranspositionTable table;
+	/** Whether attacking moves must give check. */
+	private boolean checksOnly;
+	/** The board being searched, with moves made and unmade in place. */
+	private Position board;
+	/** The side trying to mate. */
+	private Piece.Color attacker;
+	/** The side being mated. */
+	private Piece.Color defender;
+	/** A move list for each ply. */
+	private MoveList[] moveLists;
+	/** The nodes visited so far. */
+	private long nodes;
+	/** The value of System.nanoTime() at which to stop. */
+	private long deadline;
+	/** Set when time runs out. */
+	private boolean stopped;
+
+	/**
+	 * Create a solver with its own transposition table.
+	 * @param megabytes The size of the table.
+	 */
+	public MateSolver(int megabytes) {
+		this(new TranspositionTable(megabytes));
+	}
+
+	/**
+	 * Create a solver sharing a transposition table. A table must only be
+	 * shared by solvers with the same checksOnly setting.
+	 * @param table The table to keep results in.
+	 */
+	public MateSolver(TranspositionTable table) {
+		this.table = table;
+		checksOnly = true;
+		moveLists = new MoveList[2 * MAX_MOVES];
+		for (int i = 0; i < moveLists.length; i++) {
+			moveLists[i] = new MoveList();
+		}
+	}
+
+	/**
+	 * Choose whether the attacker may only play checks. Results stored under
+	 * one setting are wrong for the other, so the table should be cleared
+	 * after changing it.
+	 * @param checks True to try only checking moves for the attacker.
+	 */
+	public void setChecksOnly(boolean checks) {
+		checksOnly = checks;
+	}
+
+	public boolean isChecksOnly() {
+		return checksOnly;
+	}
+
+	/**
+	 * Look for the shortest mate in at most n moves. Shorter mates are tried
+	 * first, so the first proof found is the shortest.
+	 * @param pos The position, which is not changed.
+	 * @param toMove The side to move, which is the side trying to mate.
+	 * @param n The most moves to mate in, capped at MAX_MOVES.
+	 * @param millis The time to give up after, or 0 for no limit.
+	 * @return Whether there is a mate, and its main line if so.
+	 */
+	public Result solve(Position pos, Piece.Color toMove, int n, long millis) {
+		long start = System.nanoTime();
+		deadline = millis > 0 ? start + millis * 1000000 : Long.MAX_VALUE;
+		board = pos.clone();
+		attacker = toMove;
+		defender = Piece.switchColor(toMove);
+		nodes = 0;
+		stopped = false;
+		n = Integer.min(n, MAX_MOVES);
+		for (int k = 1; k <= n; k++) {
+			boolean mate = attack(0, k);
+			if (stopped) {
+				return new Result(Result.Status.TIMEOUT, 0, "", nodes,
+						(System.nanoTime() - start) / 1e6);
+			}
+			if (mate) {
+				String line = mainLine(k);
+				return new Result(Result.Status.MATE, k, line, nodes,
+						(System.nanoTime() - start) / 1e6);
+			}
+		}
+		return new Result(Result.Status.NO_MATE, 0, "", nodes,
+				(System.nanoTime() - start) / 1e6);
+	}
+
+	/**
+	 * Determine whether the attacker, to move, can mate within a number of
+	 * moves.
+	 * @param ply The distance from the root.
+	 * @param depth The number of attacking moves left.
+	 * @return True if there is a mate. The result is meaningless if the
+	 * search was stopped.
+	 */
+	private boolean attack(int ply, int depth) {
+		nodes++;
+		if ((nodes & (CHECK_INTERVAL - 1)) == 0 && System.nanoTime() > deadline) {
+			stopped = true;
+		}
+		if (stopped) {
+			return false;
+		}
+		long key = board.getHash(attacker);
+		long entry = table.probe(key);
+		if (entry != 0) {
+			int known = TranspositionTable.depth(entry);
+			if (TranspositionTable.score(entry) == PROVEN ? known <= depth : known >= depth) {
+				return TranspositionTable.score(entry) == PROVEN;
+			}
+		}
+
+		MoveList moves = moveLists[ply];
+		moves.clear();
+		board.generateLegalMoves(attacker, moves);
+		int mateMove = PackedMove.NONE;
+		for (int i = 0; i < moves.size() && mateMove == PackedMove.NONE; i++) {
+			int move = moves.get(i);
+			board.doMove(move);
+			boolean check = board.inCheck(defender);
+			if (!checksOnly || check) {
+				boolean mate = depth == 1 ? !board.hasAnyLegalMove(defender)
+						: defend(ply + 1, depth);
+				if (mate) {
+					mateMove = move;
+				}
+			}
+			board.undoMove();
+			if (stopped) {
+				return false;
+			}
+		}
+		boolean mate = mateMove != PackedMove.NONE;
+		table.store(key, mateMove, mate ? PROVEN : REFUTED, depth, TranspositionTable.EXACT);
+		return mate;
+	}
+
+	/**
+	 * Determine whether every defence loses, after an attacking move with
+	 * more moves to follow.
+	 * @param ply The distance from the root.
+	 * @param depth The number of attacking moves left, including the one just
+	 * made; at least 2.
+	 * @return True if the defender has no move, which loses whether or not
+	 * it is in check, or every defence allows mate in
+	 * depth - 1. The result is meaningless if the search was stopped.
+	 */
+	private boolean defend(int ply, int depth) {
+		nodes++;
+		MoveList moves = moveLists[ply];
+		moves.clear();
+		board.generateLegalMoves(defender, moves);
+		for (int i = 0; i < moves.size(); i++) {
+			board.doMove(moves.get(i));
+			boolean mate = attack(ply + 1, depth - 1);
+			board.undoMove();
+			if (!mate || stopped) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Find the main line of a proven mate: an attacking move which mates in
+	 * the given number of moves, then the defence which holds out longest,
+	 * and so on. The proofs are mostly in the table already, so this is
+	 * usually quick, but if time runs out the line found so far is returned.
+	 * @param n The length of the mate.
+	 * @return The moves in UCCI format, each preceded by a space.
+	 */
+	private String mainLine(int n) {
+		StringBuilder sb = new StringBuilder();
+		MoveList attacks = new MoveList();
+		MoveList defences = new MoveList();
+		int made = 0;
+		int k = n;
+		while (k >= 1) {
+			attacks.clear();
+			board.generateLegalMoves(attacker, attacks);
+			int mateMove = PackedMove.NONE;
+			for (int i = 0; i < attacks.size() && mateMove == PackedMove.NONE && !stopped;
+					i++) {
+				int move = attacks.get(i);
+				board.doMove(move);
+				boolean check = board.inCheck(defender);
+				if ((!checksOnly || check) && (k == 1 ? !board.hasAnyLegalMove(defender)
+						: defend(1, k))) {
+					mateMove = move;
+				}
+				board.undoMove();
+			}
+			if (stopped || mateMove == PackedMove.NONE) {
+				break;
+			}
+			sb.append(' ').append(PackedMove.toString(mateMove));
+			board.doMove(mateMove);
+			made++;
+			if (k == 1) {
+				break;
+			}
+			// The defence which puts the mate off longest.
+			defences.clear();
+			board.generateLegalMoves(defender, defences);
+			int longest = PackedMove.NONE;
+			int longestLength = 0;
+			for (int i = 0; i < defences.size() && !stopped; i++) {
+				int move = defences.get(i);
+				board.doMove(move);
+				int length = 1;
+				while (length < k - 1 && !attack(1, length)) {
+					length++;
+				}
+				board.undoMove();
+				if (length > longestLength) {
+					longest = move;
+					longestLength = length;
+				}
+			}
+			// The defender may have been left without a move, which loses.
+			if (stopped || longest == PackedMove.NONE) {
+				break;
+			}
+			sb.append(' ').append(PackedMove.toString(longest));
+			board.doMove(longest);
+			made++;
+			k = longestLength;
+		}
+		for (int i = 0; i < made; i++) {
+			board.undoMove();
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Find the side to move in a problem: a FEN board optionally followed by
+	 * "w" or "b". Red moves if no side is given.
+	 * @param fen The problem.
+	 * @return The side to move, which is the attacker.
+	 */
+	private static Piece.Color sideToMove(String fen) {
+		String[] fields = fen.strip().split("\\s+");
+		return fields.length > 1 && fields[1].equals("b") ? Piece.Color.BLACK : Piece.Color.RED;
+	}
+
+	/**
+	 * Solve many problems in parallel. Each thread has its own solver, and
+	 * all of them share one transposition table.
+	 * @param problems The problems, each a FEN board optionally followed by
+	 * the side to move (see {@link #main}).
+	 * @param n The most moves to mate in.
+	 * @param millis The time limit for each problem, or 0 for no limit.
+	 * @param threads The number of threads to use.
+	 * @param table The table to share.
+	 * @param checksOnly Whether the attacker may only play checks.
+	 * @return The result for each problem, in order.
+	 * @throws ParseException If any problem cannot be parsed. The error offset
+	 * is the index of the problem.
+	 * @throws IllegalStateException If a solver fails, with the failure as its
+	 * cause, or the calling thread is interrupted, in which case its interrupt
+	 * flag is set again.
+	 */
+	public static List<Result> solveAll(List<String> problems, int n, long millis,
+			int threads, TranspositionTable table, boolean checksOnly)
+			throws ParseException {
+		Position[] positions = new Position[problems.size()];
+		Piece.Color[] sides = new Piece.Color[problems.size()];
+		for (int i = 0; i < problems.size(); i++) {
+			try {
+				positions[i] = Fen.parse(problems.get(i).strip());
+			} catch (ParseException e) {
+				throw new ParseException("Problem " + (i + 1) + ": " + e.getMessage(), i);
+			}
+			sides[i] = sideToMove(problems.get(i));
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Integer.max(1, threads), r -> {
+			Thread t = new Thread(r, "Mate solver");
+			t.setDaemon(true);
+			return t;
+		});
+		ThreadLocal<MateSolver> solvers = ThreadLocal.withInitial(() -> {
+			MateSolver solver = new MateSolver(table);
+			solver.setChecksOnly(checksOnly);
+			return solver;
+		});
+		List<Future<Result>> futures = new ArrayList<>();
+		for (int i = 0; i < positions.length; i++) {
+			Position pos = positions[i];
+			Piece.Color side = sides[i];
+			futures.add(pool.submit(() -> solvers.get().solve(pos, side, n, millis)));
+		}
+		List<Result> results = new ArrayList<>();
+		try {
+			for (Future<Result> f : futures) {
+				results.add(f.get());
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Mate solver failed: " + e.getCause(), e.getCause());
+		} catch (InterruptedException e) {
+			// Problems not yet started are dropped; those running finish on
+			// their own, as the solver does not look at the interrupt flag.
+			for (Future<Result> f : futures) {
+				f.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Mate solver interrupted", e);
+		} finally {
+			pool.shutdown();
+		}
+		return results;
+	}
+
+	/**
+	 * Solve problems from the command line or a file and print one line per
+	 * problem: its number, the FEN and the result.
+	 * @param args [--threads T] [--time MS] [--hash MB] [--all-moves] N
+	 * (FEN | --file PATH)... where each FEN may be followed by w or b for the
+	 * side to move (quote it), and a file holds one problem per line, with
+	 * blank lines and lines starting with # ignored.
+	 */
+	public static void main(String[] args) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		long millis = 0;
+		int hash = 64;
+		boolean checksOnly = true;
+		int n = -1;
+		List<String> problems = new ArrayList<>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("--threads")) {
+					threads = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("--time")) {
+					millis = Long.parseLong(args[++i]);
+				} else if (args[i].equals("--hash")) {
+					hash = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("--all-moves")) {
+					checksOnly = false;
+				} else if (args[i].equals("--file")) {
+					readProblems(args[++i], problems);
+				} else if (n < 0) {
+					n = Integer.parseInt(args[i]);
+				} else {
+					problems.add(args[i]);
+				}
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			n = -1;
+		} catch (IOException e) {
+			System.err.println("Unable to read problems: " + e.getMessage());
+			System.exit(1);
+		}
+		if (n < 1 || threads < 1 || hash < 1 || millis < 0 || problems.isEmpty()) {
+			System.err.println("Usage: MateSolver [--threads T] [--time MS] [--hash MB] " +
+					"[--all-moves] N (FEN | --file PATH)...");
+			System.exit(1);
+		}
+
+		List<Result> results = null;
+		long start = System.nanoTime();
+		try {
+			results = solveAll(problems, n, millis, threads, new TranspositionTable(hash),
+					checksOnly);
+		} catch (ParseException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+		int solved = 0;
+		for (int i = 0; i < results.size(); i++) {
+			Result r = results.get(i);
+			if (r.getStatus() == Result.Status.MATE) {
+				solved++;
+			}
+			System.out.println(String.format("%d\t%s\t%s", i + 1, problems.get(i).strip(), r));
+		}
+		System.out.println(String.format("Mates: %d of %d in %.3f s", solved, results.size(),
+				(System.nanoTime() - start) / 1e9));
+	}
+
+	/**
+	 * Read problems from a file, one per line.
+	 * @param path The file to read.
+	 * @param problems The problems are added here.
+	 * @throws IOException If the file cannot be read.
+	 */
+	private static void readProblems(String path, List<String> problems) throws IOException {
+		try (BufferedReader in = new BufferedReader(new FileReader(path))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!line.isBlank() && !line.strip().startsWith("#")) {
+					problems.add(line.strip());
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,1057 @@
+package xqed;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+import javafx.application.Platform;
+import xqed.xiangqi.History;
+import xqed.xiangqi.MoveList;
+import xqed.xiangqi.PackedMove;
+import xqed.xiangqi.Piece;
+import xqed.xiangqi.Position;
+
+/**
+ * A built-in iterative deepening alpha-beta search. It can be used for
+ * analysis when no external engine is loaded, or when starting an engine
+ * process for each of many short positions would cost more than the search
+ * itself. After each completed depth it reports the same
+ * {@link Engine.EngineInfo} as an engine, so the controller and batch tools
+ * can use either.
+ *
+ * Scores are in hundredths of a pawn from the point of view of the side to
+ * move. At the horizon a quiescence search plays out captures (and, on its
+ * first ply, checks) until the position is quiet, then uses
+ * {@link Position#evaluate}. A side with no legal
+ * move is mated, and a mate n plies away scores MATE - n. A repeated position
+ * is a draw, except that a side which repeats it by checking with every move
+ * loses, and failing that a side which repeats it by checking or chasing (see
+ * {@link Position#isChase}) with every move loses. Given the game leading to
+ * the position, repeating a position from the game counts too.
+ *
+ * With more than one thread the search is "lazy SMP": helper threads run
+ * the same search on their own copies of the position and share only the
+ * transposition table. A helper skips any depth that half the threads are
+ * already searching, so the threads spread out over the depths at and
+ * beyond the main thread's instead of repeating its work. The results they
+ * leave in the table speed up the main thread, which alone reports lines.
+ */
+public class Search implements Analyzer {
+
+	/** The name shown for the built-in search. */
+	public static final String NAME = "Built-in search";
+
+	/** The score for giving mate on the spot. */
+	public static final int MATE = 30000;
+
+	/** Scores at least this far from zero are forced mates. */
+	public static final int WIN = MATE - 1000;
+
+	/** The score for losing by perpetual check or chase. */
+	public static final int PERPETUAL = WIN - 1;
+
+	/** The deepest a search can go, in plies. */
+	public static final int MAX_PLY = 64;
+
+	/** The most threads a search can use. */
+	public static final int MAX_THREADS = 256;
+
+	/** The size of the transposition table unless set otherwise, in megabytes. */
+	public static final int DEFAULT_HASH_MB = 16;
+
+	/** A bound on every score. */
+	private static final int INFINITY = MATE + 1;
+
+	/** The number of nodes between looks at the clock. */
+	private static final int CHECK_INTERVAL = 1024;
+
+	/** The order key of the move from the transposition table. */
+	private static final int HASH_KEY = 1 << 21;
+
+	/** The order key of the move from the previous principal variation. */
+	private static final int PV_KEY = 1 << 20;
+
+	/** Added to the order key of every capture. */
+	private static final int CAPTURE_KEY = 1 << 16;
+
+	/** The order key of the newer killer move; the older one gets one less. */
+	private static final int KILLER_KEY = 1 << 15;
+
+	/**
+	 * The history score at which every history score is halved, which keeps
+	 * them below the killer keys and lets old successes fade.
+	 */
+	private static final int HISTORY_LIMIT = 1 << 14;
+
+	/**
+	 * The part of a packed move holding its from and to squares (see
+	 * {@link PackedMove}), which indexes the history table.
+	 */
+	private static final int SQUARES_MASK = (1 << 14) - 1;
+
+	private Controller controller;
+	/** The number of top moves to report. */
+	private int numPV;
+	/** The number of threads to search with. */
+	private int threads;
+	/** The position analyzed by startEngine. */
+	private Position position;
+	/** The side to move in that position. */
+	private Piece.Color positionSide;
+	/** The hash (including side to move) of the position. */
+	private long currentHash;
+	private int currentMove;
+	/** The game leading to that position, ending with it, or null. */
+	private History positionHistory;
+	/**
+	 * The thread running analysis started with startEngine, until stopped.
+	 * Analysis can also end by itself, e.g., on finding a mate, so whether it
+	 * is running is taken from the thread.
+	 */
+	private Thread searchThread;
+	/**
+	 * Set by startEngine and cleared by stopEngine. A new position restarts
+	 * analysis while this is set, even if the last run ended by itself.
+	 */
+	private boolean analysisRequested;
+	/** The second move of the best line of the last search, or none. */
+	private int ponderMove;
+
+	/** Set to make a running search return as soon as possible. */
+	private volatile boolean stopped;
+
+	/** Set while a search from either search() or startEngine() runs. */
+	private boolean searching;
+
+	/** Set when the main thread has finished, to stop the helpers. */
+	private volatile boolean helpersDone;
+
+	/** Results kept between searches and shared between threads. */
+	private TranspositionTable table;
+
+	/** The state of each thread, the main thread first. */
+	private Worker[] workers;
+
+	/** The number of threads searching each depth at the root. */
+	private final AtomicIntegerArray searchers = new AtomicIntegerArray(MAX_PLY);
+
+	/**
+	 * The state of one searching thread.
+	 */
+	private class Worker {
+		/** The index of this worker; 0 is the main thread. */
+		private final int id;
+		/** The board being searched, with moves made and unmade in place. */
+		private Position board;
+		/** The side to move at the root. */
+		private Piece.Color rootSide;
+		/**
+		 * The positions from the root to the current node. Moves are not
+		 * tested for chases as they are made, since that costs more than
+		 * the rest of a node; see repetitionScore.
+		 */
+		private History history;
+		/** The index in the history of the root position. */
+		private int rootIndex;
+		/**
+		 * The game leading to the root, ending with it, or null if the
+		 * search starts from the root alone. Unlike the moves of the search,
+		 * its moves are already marked as chases.
+		 */
+		private History gameHistory;
+		/** The move made from each ply on the path to the current node. */
+		private int[] path;
+		/** The nodes visited so far. */
+		private long nodes;
+		/** The nodes visited, published for other threads now and then. */
+		private volatile long reportedNodes;
+		/** The value of System.nanoTime() when the search started. */
+		private long startTime;
+		/** The value of System.nanoTime() at which to stop. */
+		private long deadline;
+		/** A move list for each ply. */
+		private MoveList[] moveLists;
+		/** The order keys of the moves in each move list. */
+		private int[][] orderKeys;
+		/** The principal variation from each ply, as a triangular table. */
+		private int[][] pv;
+		/** The end of the principal variation from each ply. */
+		private int[] pvLength;
+		/** The best line of the previous iteration, tried first at each ply. */
+		private int[] lastPv;
+		/**
+		 * The last two quiet moves to cause a cutoff at each ply, newest
+		 * first. They are often good in the sibling positions too.
+		 */
+		private int[][] killers;
+		/**
+		 * How often each quiet move, by from and to square, has caused a
+		 * cutoff, weighted by the depth.
+		 */
+		private int[] historyScores;
+
+		/**
+		 * Create the state for a thread.
+		 * @param id The index of the worker.
+		 */
+		Worker(int id) {
+			this.id = id;
+			moveLists = new MoveList[MAX_PLY];
+			orderKeys = new int[MAX_PLY][];
+			for (int i = 0; i < MAX_PLY; i++) {
+				moveLists[i] = new MoveList();
+				orderKeys[i] = new int[0];
+			}
+			path = new int[MAX_PLY];
+			pv = new int[MAX_PLY][MAX_PLY];
+			pvLength = new int[MAX_PLY];
+			lastPv = new int[MAX_PLY];
+			killers = new int[MAX_PLY][2];
+			historyScores = new int[SQUARES_MASK + 1];
+		}
+
+		/**
+		 * Set up for a new search.
+		 * @param start The position to search.
+		 * @param toMove The side to move.
+		 * @param past The game leading to the position, ending with it, or
+		 * null.
+		 * @param begin The value of System.nanoTime() at the start.
+		 * @param end The value of System.nanoTime() at which to stop.
+		 */
+		void prepare(Position start, Piece.Color toMove, History past, long begin, long end) {
+			board = start.clone();
+			rootSide = toMove;
+			gameHistory = past;
+			if (past != null) {
+				history = past.clone();
+			} else {
+				history = new History(toMove);
+				history.push(board.getHash(toMove), false, false);
+			}
+			rootIndex = history.size() - 1;
+			nodes = 0;
+			reportedNodes = 0;
+			startTime = begin;
+			deadline = end;
+			for (int i = 0; i < MAX_PLY; i++) {
+				lastPv[i] = PackedMove.NONE;
+				killers[i][0] = PackedMove.NONE;
+				killers[i][1] = PackedMove.NONE;
+			}
+			// Keep some of what the last search learned about quiet moves.
+			for (int i = 0; i < historyScores.length; i++) {
+				historyScores[i] >>= 2;
+			}
+		}
+
+		/**
+		 * Determine whether this worker should give up its search.
+		 * @return True if the search was stopped or, for a helper, the main
+		 * thread has finished.
+		 */
+		private boolean aborted() {
+			return stopped || (id > 0 && helpersDone);
+		}
+
+		/**
+		 * Run an iterative deepening search. At the root each move is searched
+		 * with a window whose lower bound is the score of the numPV'th best
+		 * move so far, so every move that could make the top lines gets an
+		 * exact score. A helper skips a depth, other than the last, which at
+		 * least half the threads are searching.
+		 * @param maxDepth The depth to stop at.
+		 * @param listener Called after each completed depth, or null.
+		 * @return The results of the deepest completed depth.
+		 */
+		Engine.EngineInfo iterate(int maxDepth, Consumer<Engine.EngineInfo> listener) {
+			Engine.EngineInfo info = new Engine.EngineInfo(numPV);
+			MoveList legal = new MoveList();
+			board.generateLegalMoves(rootSide, legal);
+			int count = legal.size();
+			if (count == 0) {
+				info.setScore(0, -MATE / 100.0);
+				return info;
+			}
+			int[] moves = new int[count];
+			int[] scores = new int[count];
+			int[][] lines = new int[count][];
+			for (int i = 0; i < count; i++) {
+				moves[i] = legal.get(i);
+				lines[i] = new int[] { moves[i] };
+			}
+
+			boolean first = true;
+			for (int depth = 1; depth <= maxDepth; depth++) {
+				if (id > 0 && depth < maxDepth &&
+						searchers.get(depth) >= (workers.length + 1) / 2) {
+					continue;
+				}
+				searchers.incrementAndGet(depth);
+				int[] iterMoves = moves.clone();
+				int[] iterScores = scores.clone();
+				int[][] iterLines = lines.clone();
+				boolean complete = true;
+				for (int i = 0; i < count; i++) {
+					int move = iterMoves[i];
+					int alpha = i >= numPV ? iterScores[numPV - 1] : -INFINITY;
+					int score = 0;
+					boolean searched = false;
+					if (!aborted()) {
+						makeMove(0, move);
+						score = -alphaBeta(1, depth - 1, -INFINITY, -alpha);
+						unmakeMove();
+						searched = !aborted();
+					}
+					int[] line;
+					if (searched) {
+						line = new int[pvLength[1]];
+						line[0] = move;
+						System.arraycopy(pv[1], 1, line, 1, pvLength[1] - 1);
+					} else if (!first) {
+						complete = false;
+						break;
+					} else {
+						// The first depth searched always completes so there is a
+						// move to report. Moves it did not get to are scored
+						// statically, below every move which was searched.
+						board.doMove(move);
+						score = board.evaluate(rootSide);
+						board.undoMove();
+						if (i > 0) {
+							score = Integer.min(score, iterScores[i - 1] - 1);
+						}
+						line = new int[] { move };
+					}
+					// Insert the move among those already searched, after any
+					// equal scores so that fail-low moves stay out of the top lines.
+					int j = i;
+					while (j > 0 && iterScores[j - 1] < score) {
+						iterMoves[j] = iterMoves[j - 1];
+						iterScores[j] = iterScores[j - 1];
+						iterLines[j] = iterLines[j - 1];
+						j--;
+					}
+					iterMoves[j] = move;
+					iterScores[j] = score;
+					iterLines[j] = line;
+				}
+				searchers.decrementAndGet(depth);
+				if (!complete) {
+					break;
+				}
+				first = false;
+				moves = iterMoves;
+				scores = iterScores;
+				lines = iterLines;
+				for (int i = 0; i < MAX_PLY; i++) {
+					lastPv[i] = i < lines[0].length ? lines[0][i] : PackedMove.NONE;
+				}
+				if (id == 0) {
+					ponderMove = lines[0].length > 1 ? lines[0][1] : PackedMove.NONE;
+				}
+
+				info = new Engine.EngineInfo(numPV);
+				info.setDepth(depth);
+				info.setNodes((int) Long.min(totalNodes(), Integer.MAX_VALUE));
+				info.setTime((System.nanoTime() - startTime) / 1e6);
+				for (int i = 0; i < numPV && i < count; i++) {
+					info.setScore(i, scores[i] / 100.0);
+					info.setLine(i, lineToString(lines[i]));
+				}
+				if (listener != null) {
+					listener.accept(info);
+				}
+				// A mate found within the full depth cannot be improved on.
+				if (Math.abs(scores[0]) >= WIN && MATE - Math.abs(scores[0]) <= depth) {
+					break;
+				}
+				if (aborted()) {
+					break;
+				}
+			}
+			return info;
+		}
+
+		/**
+		 * Search below the root.
+		 * @param ply The distance from the root.
+		 * @param depth The remaining depth.
+		 * @param alpha The score the side to move can already get.
+		 * @param beta The score the opponent can already hold the side to move to.
+		 * @return The score of the position for the side to move, which is at
+		 * most alpha if every move fails low and at least beta on a cutoff.
+		 */
+		private int alphaBeta(int ply, int depth, int alpha, int beta) {
+			nodes++;
+			pvLength[ply] = ply;
+			if ((nodes & (CHECK_INTERVAL - 1)) == 0) {
+				reportedNodes = nodes;
+				if (System.nanoTime() > deadline) {
+					stopped = true;
+				}
+			}
+			if (aborted()) {
+				return 0;
+			}
+			Piece.Color side = sideAt(ply);
+			if (history.repetitions() > 0) {
+				return repetitionScore(side, ply);
+			}
+			if (ply >= MAX_PLY - 1) {
+				return board.evaluate(side);
+			}
+			if (board.inCheck(side)) {
+				// Extend checks so that mates are not cut short by the horizon.
+				depth++;
+			}
+			if (depth <= 0) {
+				return quiesce(ply, 0, alpha, beta);
+			}
+
+			long key = board.getHash(side);
+			long entry = table.probe(key);
+			int hashMove = PackedMove.NONE;
+			if (entry != 0) {
+				hashMove = TranspositionTable.move(entry);
+				if (TranspositionTable.depth(entry) >= depth) {
+					int score = fromTable(TranspositionTable.score(entry), ply);
+					int bound = TranspositionTable.bound(entry);
+					if (bound == TranspositionTable.EXACT ||
+							(bound == TranspositionTable.LOWER && score >= beta) ||
+							(bound == TranspositionTable.UPPER && score <= alpha)) {
+						return score;
+					}
+				}
+			}
+
+			MoveList moves = moveLists[ply];
+			moves.clear();
+			board.generateLegalMoves(side, moves);
+			if (moves.isEmpty()) {
+				return -(MATE - ply);
+			}
+			int[] keys = scoreMoves(ply, moves, hashMove);
+			int originalAlpha = alpha;
+			int best = -INFINITY;
+			int bestMove = PackedMove.NONE;
+			for (int i = 0; i < moves.size(); i++) {
+				pickMove(moves, keys, i);
+				int move = moves.get(i);
+				makeMove(ply, move);
+				int score = -alphaBeta(ply + 1, depth - 1, -beta, -alpha);
+				unmakeMove();
+				if (aborted()) {
+					return 0;
+				}
+				if (score > best) {
+					best = score;
+					bestMove = move;
+					if (score > alpha) {
+						alpha = score;
+						pv[ply][ply] = move;
+						System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1,
+								pvLength[ply + 1] - ply - 1);
+						pvLength[ply] = pvLength[ply + 1];
+						if (alpha >= beta) {
+							if (!PackedMove.isCapture(move)) {
+								rememberCutoff(ply, move, depth);
+							}
+							break;
+						}
+					}
+				}
+			}
+			int bound = best >= beta ? TranspositionTable.LOWER :
+					best > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+			table.store(key, bestMove, toTable(best, ply), depth, bound);
+			return best;
+		}
+
+		/**
+		 * Search captures until the position is quiet, so that the static
+		 * evaluation is not taken in the middle of an exchange. The side to
+		 * move may "stand pat" on the evaluation instead of capturing, except
+		 * when in check, where every evasion is tried. Captures which lose
+		 * material by {@link Position#see} are skipped. On the first ply quiet
+		 * checking moves are searched as well, which catches most short
+		 * mating attacks by cannons and rooks.
+		 * @param ply The distance from the root.
+		 * @param qply The distance from the start of the quiescence search.
+		 * @param alpha The score the side to move can already get.
+		 * @param beta The score the opponent can already hold the side to move to.
+		 * @return The score of the position for the side to move.
+		 */
+		private int quiesce(int ply, int qply, int alpha, int beta) {
+			if (qply > 0) {
+				nodes++;
+				if ((nodes & (CHECK_INTERVAL - 1)) == 0) {
+					reportedNodes = nodes;
+					if (System.nanoTime() > deadline) {
+						stopped = true;
+					}
+				}
+				if (aborted()) {
+					return 0;
+				}
+			}
+			pvLength[ply] = ply;
+			Piece.Color side = sideAt(ply);
+			if (ply >= MAX_PLY - 1) {
+				return board.evaluate(side);
+			}
+			boolean check = board.inCheck(side);
+			int best = -INFINITY;
+			if (!check) {
+				best = board.evaluate(side);
+				if (best >= beta) {
+					return best;
+				}
+				alpha = Integer.max(alpha, best);
+			}
+
+			MoveList moves = moveLists[ply];
+			moves.clear();
+			if (check) {
+				board.generateLegalMoves(side, moves);
+				if (moves.isEmpty()) {
+					return -(MATE - ply);
+				}
+			} else if (qply == 0) {
+				board.generateLegalMoves(side, moves);
+			} else {
+				board.generateLegalCaptures(side, moves);
+			}
+			int[] keys = scoreMoves(ply, moves, PackedMove.NONE);
+			Piece.Color other = Piece.switchColor(side);
+			for (int i = 0; i < moves.size(); i++) {
+				pickMove(moves, keys, i);
+				int move = moves.get(i);
+				if (!check) {
+					if (PackedMove.isCapture(move)) {
+						if (board.see(move) < 0) {
+							continue;
+						}
+					} else {
+						// Only the first ply gets here: try quiet moves which check.
+						board.doMove(move);
+						boolean checks = board.inCheck(other);
+						board.undoMove();
+						if (!checks) {
+							continue;
+						}
+					}
+				}
+				board.doMove(move);
+				int score = -quiesce(ply + 1, qply + 1, -beta, -alpha);
+				board.undoMove();
+				if (aborted()) {
+					return 0;
+				}
+				if (score > best) {
+					best = score;
+					if (score > alpha) {
+						alpha = score;
+						if (alpha >= beta) {
+							break;
+						}
+					}
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Remember a quiet move which caused a cutoff, as a killer at its ply
+		 * and in the history table.
+		 * @param ply The ply the move was made from.
+		 * @param move The packed move.
+		 * @param depth The remaining depth at which it was searched.
+		 */
+		private void rememberCutoff(int ply, int move, int depth) {
+			if (killers[ply][0] != move) {
+				killers[ply][1] = killers[ply][0];
+				killers[ply][0] = move;
+			}
+			int index = move & SQUARES_MASK;
+			historyScores[index] += depth * depth;
+			if (historyScores[index] >= HISTORY_LIMIT) {
+				for (int i = 0; i < historyScores.length; i++) {
+					historyScores[i] >>= 1;
+				}
+			}
+		}
+
+		/**
+		 * Make a move on the board and record the new position in the history.
+		 * @param ply The ply the move is made from.
+		 * @param move The packed move.
+		 */
+		private void makeMove(int ply, int move) {
+			path[ply] = move;
+			board.doMove(move);
+			Piece.Color next = sideAt(ply + 1);
+			history.push(board.getHash(next), board.inCheck(next), false);
+		}
+
+		/**
+		 * Take back the last move made with makeMove.
+		 */
+		private void unmakeMove() {
+			history.pop();
+			board.undoMove();
+		}
+
+		/**
+		 * Score a repeated position for the side to move.
+		 * @param side The side to move.
+		 * @param ply The distance from the root.
+		 * @return Zero for a draw, or a near-mate score if a side repeated by
+		 * perpetual check or chase.
+		 */
+		private int repetitionScore(Piece.Color side, int ply) {
+			History.Verdict verdict = history.verdict();
+			if (verdict == History.Verdict.REPETITION) {
+				verdict = judgeChases(ply);
+			}
+			switch (verdict) {
+			case RED_PERPETUAL_CHECK:
+			case RED_PERPETUAL_CHASE:
+				return side == Piece.Color.RED ? -PERPETUAL : PERPETUAL;
+			case BLACK_PERPETUAL_CHECK:
+			case BLACK_PERPETUAL_CHASE:
+				return side == Piece.Color.BLACK ? -PERPETUAL : PERPETUAL;
+			default:
+				return 0;
+			}
+		}
+
+		/**
+		 * Judge a repetition again with the chases in it. The moves since
+		 * the last occurrence of the position are taken back and replayed,
+		 * testing each for a chase, which is only worth doing this rarely.
+		 * If the repetition began before the root, the moves of the search
+		 * are replayed onto the game history, which already knows which of
+		 * the earlier moves were chases.
+		 * @param ply The distance from the root of the repeated position.
+		 * @return The verdict on the repetition.
+		 */
+		private History.Verdict judgeChases(int ply) {
+			int start = Integer.max(history.lastOccurrence() - rootIndex, 0);
+			for (int i = start; i < ply; i++) {
+				board.undoMove();
+			}
+			History cycle;
+			if (history.lastOccurrence() < rootIndex) {
+				cycle = gameHistory.clone();
+			} else {
+				cycle = new History(sideAt(start));
+				cycle.push(board.getHash(sideAt(start)), false, false);
+			}
+			for (int i = start; i < ply; i++) {
+				int move = path[i];
+				boolean chase = board.isChase(move);
+				board.doMove(move);
+				Piece.Color next = sideAt(i + 1);
+				cycle.push(board.getHash(next), board.inCheck(next), chase);
+			}
+			return cycle.verdict();
+		}
+
+		/**
+		 * Give each move an order key: the move from the transposition table
+		 * first, then the move from the previous best line, then captures with
+		 * the most valuable victims and least valuable attackers first, then
+		 * the killer moves, then other quiet moves by their history scores.
+		 * @param ply The ply the moves are made from.
+		 * @param moves The moves.
+		 * @param hashMove The move from the transposition table, or none.
+		 * @return The keys, which are only valid until moves at this ply are
+		 * scored again.
+		 */
+		private int[] scoreMoves(int ply, MoveList moves, int hashMove) {
+			if (orderKeys[ply].length < moves.size()) {
+				orderKeys[ply] = new int[Integer.max(moves.size(), 2 * orderKeys[ply].length)];
+			}
+			int[] keys = orderKeys[ply];
+			for (int i = 0; i < moves.size(); i++) {
+				int move = moves.get(i);
+				if (move == hashMove) {
+					keys[i] = HASH_KEY;
+				} else if (move == lastPv[ply]) {
+					keys[i] = PV_KEY;
+				} else if (PackedMove.isCapture(move)) {
+					keys[i] = CAPTURE_KEY + 16 * PackedMove.getCaptured(move).getValue() -
+							PackedMove.getPiece(move).getValue() / 100;
+				} else if (move == killers[ply][0]) {
+					keys[i] = KILLER_KEY;
+				} else if (move == killers[ply][1]) {
+					keys[i] = KILLER_KEY - 1;
+				} else {
+					keys[i] = historyScores[move & SQUARES_MASK];
+				}
+			}
+			return keys;
+		}
+
+		/**
+		 * Get the side to move at a distance from the root.
+		 * @param ply The distance from the root.
+		 * @return The side to move.
+		 */
+		private Piece.Color sideAt(int ply) {
+			return (ply & 1) == 0 ? rootSide : Piece.switchColor(rootSide);
+		}
+
+		/**
+		 * Count the nodes visited by every thread. Other threads' counts may
+		 * be a little behind.
+		 * @return The total number of nodes.
+		 */
+		private long totalNodes() {
+			long total = nodes;
+			for (Worker w : workers) {
+				if (w != this) {
+					total += w.reportedNodes;
+				}
+			}
+			return total;
+		}
+	}
+
+	/**
+	 * Create a search which reports to the controller while analyzing.
+	 * @param ctrl The controller to report to.
+	 */
+	public Search(Controller ctrl) {
+		controller = ctrl;
+		numPV = 3;
+		threads = 1;
+		position = new Position();
+		positionSide = Piece.Color.RED;
+		currentHash = position.getHash(positionSide);
+		currentMove = 1;
+		positionHistory = null;
+		searchThread = null;
+		analysisRequested = false;
+		ponderMove = PackedMove.NONE;
+		stopped = false;
+		searching = false;
+		helpersDone = false;
+		table = new TranspositionTable(DEFAULT_HASH_MB);
+		workers = new Worker[] { new Worker(0) };
+	}
+
+	/**
+	 * Create a search for use without a controller, e.g., in batch tools.
+	 */
+	public Search() {
+		this(null);
+	}
+
+	/**
+	 * Set the number of top moves to report.
+	 * @param lines The number of lines, at least 1.
+	 */
+	public void setNumPV(int lines) {
+		numPV = Integer.max(1, lines);
+	}
+
+	public int getNumPV() {
+		return numPV;
+	}
+
+	/**
+	 * Set the number of threads to search with. This must not be called
+	 * while a search is running.
+	 * @param count The number of threads, between 1 and MAX_THREADS.
+	 */
+	public void setThreads(int count) {
+		threads = Integer.max(1, Integer.min(count, MAX_THREADS));
+		if (workers.length != threads) {
+			Worker[] resized = new Worker[threads];
+			for (int i = 0; i < threads; i++) {
+				resized[i] = i < workers.length ? workers[i] : new Worker(i);
+			}
+			workers = resized;
+		}
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Replace the transposition table with an empty one of a new size. This
+	 * must not be called while a search is running.
+	 * @param megabytes The size of the table (see {@link TranspositionTable}).
+	 */
+	public void setHashSize(int megabytes) {
+		table = new TranspositionTable(megabytes);
+	}
+
+	public int getHashMegabytes() {
+		return table.getMegabytes();
+	}
+
+	/**
+	 * Forget the results of earlier searches.
+	 */
+	public void clearHash() {
+		table.clear();
+	}
+
+	/**
+	 * Search a position to a fixed depth or for a fixed time, whichever comes
+	 * first. The position itself is not changed.
+	 * @param start The position to search.
+	 * @param toMove The side to move.
+	 * @param maxDepth The depth to stop at, in plies. It is capped at
+	 * MAX_PLY - 1.
+	 * @param millis The time to stop after, or 0 for no limit.
+	 * @param listener Called with the results of each completed depth, or null.
+	 * @return The results of the deepest completed depth.
+	 * @throws IllegalStateException If another search, or analysis started
+	 * with startEngine(), is running. Analysis must be stopped first.
+	 */
+	public Engine.EngineInfo search(Position start, Piece.Color toMove, int maxDepth,
+			long millis, Consumer<Engine.EngineInfo> listener) {
+		return search(start, toMove, null, maxDepth, millis, listener);
+	}
+
+	/**
+	 * Search a position reached in a game to a fixed depth or for a fixed
+	 * time, whichever comes first. Repeating a position from earlier in the
+	 * game counts as a repetition, judged with the moves of the game. The
+	 * position and history themselves are not changed.
+	 * @param start The position to search.
+	 * @param toMove The side to move.
+	 * @param past The game leading to the position, ending with it (see
+	 * {@link xqed.xiangqi.GameTree#getHistory()}), or null. It is ignored
+	 * if it does not end with the position.
+	 * @param maxDepth The depth to stop at, in plies. It is capped at
+	 * MAX_PLY - 1.
+	 * @param millis The time to stop after, or 0 for no limit.
+	 * @param listener Called with the results of each completed depth, or null.
+	 * @return The results of the deepest completed depth.
+	 * @throws IllegalStateException If another search, or analysis started
+	 * with startEngine(), is running. Analysis must be stopped first.
+	 */
+	public Engine.EngineInfo search(Position start, Piece.Color toMove, History past,
+			int maxDepth, long millis, Consumer<Engine.EngineInfo> listener) {
+		claim();
+		try {
+			return run(start, toMove, past, maxDepth, millis, listener);
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Mark a search as running. Searches share their workers and table, so
+	 * only one may run at a time.
+	 * @throws IllegalStateException If a search is already running.
+	 */
+	private synchronized void claim() {
+		if (searching) {
+			throw new IllegalStateException("A search is already running");
+		}
+		searching = true;
+		stopped = false;
+	}
+
+	/**
+	 * Mark the running search as finished.
+	 */
+	private synchronized void release() {
+		searching = false;
+	}
+
+	/**
+	 * Make a running search return as soon as possible with the results of
+	 * the deepest completed depth.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Start the helper threads, run the main search on this thread, then
+	 * stop the helpers.
+	 * @param start The position to search.
+	 * @param toMove The side to move.
+	 * @param past The game leading to the position, or null.
+	 * @param maxDepth The depth to stop at.
+	 * @param millis The time to stop after, or 0 for no limit.
+	 * @param listener Called after each completed depth, or null.
+	 * @return The results of the deepest completed depth.
+	 */
+	private Engine.EngineInfo run(Position start, Piece.Color toMove, History past,
+			int maxDepth, long millis, Consumer<Engine.EngineInfo> listener) {
+		if (past != null && (past.size() == 0 || past.currentHash() != start.getHash(toMove))) {
+			past = null;
+		}
+		long startTime = System.nanoTime();
+		long deadline = millis > 0 ? startTime + millis * 1000000 : Long.MAX_VALUE;
+		int depth = Integer.min(maxDepth, MAX_PLY - 1);
+		ponderMove = PackedMove.NONE;
+		helpersDone = false;
+		table.newSearch();
+		for (Worker w : workers) {
+			w.prepare(start, toMove, past, startTime, deadline);
+		}
+		Thread[] helpers = new Thread[workers.length - 1];
+		for (int i = 0; i < helpers.length; i++) {
+			Worker w = workers[i + 1];
+			helpers[i] = new Thread(() -> w.iterate(depth, null), "Search helper " + (i + 1));
+			helpers[i].setDaemon(true);
+			helpers[i].start();
+		}
+		Engine.EngineInfo info = workers[0].iterate(depth, listener);
+		helpersDone = true;
+		for (Thread helper : helpers) {
+			try {
+				helper.join();
+			} catch (InterruptedException e) {}
+		}
+		return info;
+	}
+
+	/**
+	 * Convert a score to be stored in the transposition table. Mate scores
+	 * count plies from the root, but the same position can be reached at
+	 * different plies, so they are stored counting from the position instead.
+	 * @param score The score from the search.
+	 * @param ply The distance of the position from the root.
+	 * @return The score to store.
+	 */
+	private static int toTable(int score, int ply) {
+		if (score >= WIN) {
+			return score + ply;
+		}
+		if (score <= -WIN) {
+			return score - ply;
+		}
+		return score;
+	}
+
+	/**
+	 * Convert a score read from the transposition table back (see
+	 * {@link #toTable}).
+	 * @param score The stored score.
+	 * @param ply The distance of the position from the root.
+	 * @return The score for the search.
+	 */
+	private static int fromTable(int score, int ply) {
+		if (score >= WIN) {
+			return score - ply;
+		}
+		if (score <= -WIN) {
+			return score + ply;
+		}
+		return score;
+	}
+
+	/**
+	 * Swap the move with the highest key among those from an index on into
+	 * that index.
+	 * @param moves The moves.
+	 * @param keys The order keys of the moves.
+	 * @param index The index to fill.
+	 */
+	private static void pickMove(MoveList moves, int[] keys, int index) {
+		int best = index;
+		for (int i = index + 1; i < moves.size(); i++) {
+			if (keys[i] > keys[best]) {
+				best = i;
+			}
+		}
+		if (best != index) {
+			moves.swap(index, best);
+			int key = keys[index];
+			keys[index] = keys[best];
+			keys[best] = key;
+		}
+	}
+
+	/**
+	 * Write a line of packed moves in UCCI format, separated by spaces.
+	 * @param line The moves.
+	 * @return The line as a string.
+	 */
+	private static String lineToString(int[] line) {
+		StringBuilder sb = new StringBuilder();
+		for (int move : line) {
+			sb.append(' ').append(PackedMove.toString(move));
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void setPosition(Position pos, boolean redToMove, int move, History history) {
+		Piece.Color side = redToMove ? Piece.Color.RED : Piece.Color.BLACK;
+		long hash = pos.getHash(side);
+		positionHistory = history;
+		if (hash == currentHash && move == currentMove) {
+			return;
+		}
+		boolean startAgain = analysisRequested;
+		if (startAgain) {
+			stopEngine();
+		}
+		position = pos.clone();
+		positionSide = side;
+		currentHash = hash;
+		currentMove = move;
+		if (startAgain) {
+			startEngine();
+		}
+	}
+
+	/**
+	 * {@inheritDoc} Does nothing if analysis is already running.
+	 * @throws IllegalStateException If a search started with search() is
+	 * running.
+	 */
+	@Override
+	public void startEngine() {
+		if (isRunning()) {
+			return;
+		}
+		Position start = position;
+		Piece.Color side = positionSide;
+		History past = positionHistory;
+		Consumer<Engine.EngineInfo> listener = controller == null ? null :
+				info -> Platform.runLater(() -> controller.updateEngineLines(info));
+		claim();
+		analysisRequested = true;
+		searchThread = new Thread(() -> {
+			try {
+				run(start, side, past, MAX_PLY - 1, 0, listener);
+			} finally {
+				release();
+			}
+		});
+		searchThread.setDaemon(true);
+		searchThread.start();
+	}
+
+	@Override
+	public String stopEngine() {
+		analysisRequested = false;
+		if (searchThread == null) {
+			return "";
+		}
+		stopped = true;
+		try {
+			searchThread.join();
+		} catch (InterruptedException e) {}
+		searchThread = null;
+		return ponderMove == PackedMove.NONE ? "" : PackedMove.toString(ponderMove);
+	}
+
+	@Override
+	public boolean isRunning() {
+		return searchThread != null && searchThread.isAlive();
+	}
+
+}
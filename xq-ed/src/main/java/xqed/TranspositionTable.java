@@ -0,0 +1,199 @@
+package xqed;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A fixed-size hash table of search results keyed by Zobrist hash (see
+ * {@link xqed.xiangqi.Position#getHash(xqed.xiangqi.Piece.Color)}). The
+ * entries live in a direct buffer outside the garbage collected heap, and
+ * probing and storing allocate nothing.
+ *
+ * Each entry is two longs: the key XORed with the data, and the data itself.
+ * Writers take no locks, so an entry being overwritten by two threads at once
+ * can end up with the key of one and the data of the other. Such a torn entry
+ * no longer XORs back to either key, so readers never see it. Entries are
+ * grouped into clusters of four which share a 64-byte cache line. A new
+ * result replaces the entry for the same key if there is one, and otherwise
+ * the entry with the least depth, counting entries from earlier searches as
+ * shallower the older they are.
+ */
+public class TranspositionTable {
+
+	/** The score is exact. */
+	public static final int EXACT = 1;
+	/** The score is a lower bound: the search failed high. */
+	public static final int LOWER = 2;
+	/** The score is an upper bound: the search failed low. */
+	public static final int UPPER = 3;
+
+	/** The largest table allowed, in megabytes. */
+	public static final int MAX_MEGABYTES = 1024;
+
+	/** The number of bytes in an entry. */
+	private static final int ENTRY_BYTES = 16;
+	/** The number of entries in a cluster. */
+	private static final int CLUSTER_SIZE = 4;
+	/** The number of bytes in a cluster. */
+	private static final int CLUSTER_BYTES = ENTRY_BYTES * CLUSTER_SIZE;
+
+	// The fields of the data word.
+	private static final int MOVE_BITS = 22;
+	private static final int SCORE_SHIFT = 22;
+	private static final int DEPTH_SHIFT = 38;
+	private static final int BOUND_SHIFT = 46;
+	private static final int AGE_SHIFT = 48;
+	/** Added to scores so they are stored as unsigned 16-bit numbers. */
+	private static final int SCORE_OFFSET = 1 << 15;
+
+	/** The entries. */
+	private final ByteBuffer entries;
+	/** The number of clusters less one, for masking hashes into indices. */
+	private final int clusterMask;
+	/** The age of the current search, which wraps around after 255. */
+	private int age;
+
+	/**
+	 * Create a table.
+	 * @param megabytes The size of the table. It is rounded down to a power of
+	 * two and capped at MAX_MEGABYTES.
+	 * @throws IllegalArgumentException If the size is less than 1.
+	 */
+	public TranspositionTable(int megabytes) throws IllegalArgumentException {
+		if (megabytes < 1) {
+			throw new IllegalArgumentException("Table size must be at least 1 MB");
+		}
+		int mb = Integer.highestOneBit(Integer.min(megabytes, MAX_MEGABYTES));
+		int clusters = mb * (1 << 20) / CLUSTER_BYTES;
+		// Direct buffers need not start on a cache line, so allocate enough
+		// extra to start the clusters on one.
+		entries = ByteBuffer.allocateDirect(clusters * CLUSTER_BYTES + CLUSTER_BYTES - 1)
+				.alignedSlice(CLUSTER_BYTES).order(ByteOrder.nativeOrder());
+		clusterMask = clusters - 1;
+		age = 0;
+	}
+
+	/**
+	 * Get the size of the table.
+	 * @return The size in megabytes.
+	 */
+	public int getMegabytes() {
+		return entries.capacity() >> 20;
+	}
+
+	/**
+	 * Empty the table.
+	 */
+	public void clear() {
+		for (int i = 0; i < entries.capacity(); i += 8) {
+			entries.putLong(i, 0);
+		}
+		age = 0;
+	}
+
+	/**
+	 * Start a new search, so that the results of earlier ones are replaced
+	 * more readily.
+	 */
+	public void newSearch() {
+		age = (age + 1) & 0xff;
+	}
+
+	/**
+	 * Look up a position.
+	 * @param key The hash of the position.
+	 * @return The data stored for the position (see {@link #move},
+	 * {@link #score}, {@link #depth} and {@link #bound}), or 0 if there is none.
+	 */
+	public long probe(long key) {
+		int base = clusterOf(key);
+		for (int i = 0; i < CLUSTER_SIZE; i++) {
+			int offset = base + i * ENTRY_BYTES;
+			long data = entries.getLong(offset + 8);
+			if (data != 0 && (entries.getLong(offset) ^ data) == key) {
+				return data;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Store the result of searching a position.
+	 * @param key The hash of the position.
+	 * @param move The best move found, packed, or 0.
+	 * @param score The score, which must fit in 16 bits.
+	 * @param depth The depth searched, capped at 255.
+	 * @param bound EXACT, LOWER or UPPER.
+	 */
+	public void store(long key, int move, int score, int depth, int bound) {
+		int base = clusterOf(key);
+		int victim = base;
+		int victimWorth = Integer.MAX_VALUE;
+		for (int i = 0; i < CLUSTER_SIZE; i++) {
+			int offset = base + i * ENTRY_BYTES;
+			long data = entries.getLong(offset + 8);
+			if (data == 0 || (entries.getLong(offset) ^ data) == key) {
+				victim = offset;
+				break;
+			}
+			int worth = depth(data) - 8 * ((age - (int) (data >>> AGE_SHIFT)) & 0xff);
+			if (worth < victimWorth) {
+				victim = offset;
+				victimWorth = worth;
+			}
+		}
+		long data = (move & ((1L << MOVE_BITS) - 1)) |
+				(long) ((score + SCORE_OFFSET) & 0xffff) << SCORE_SHIFT |
+				(long) Integer.min(Integer.max(depth, 0), 0xff) << DEPTH_SHIFT |
+				(long) bound << BOUND_SHIFT |
+				(long) age << AGE_SHIFT;
+		entries.putLong(victim, key ^ data);
+		entries.putLong(victim + 8, data);
+	}
+
+	/**
+	 * Get the best move from stored data.
+	 * @param data The data returned by probe.
+	 * @return The packed move, or 0 if none was stored.
+	 */
+	public static int move(long data) {
+		return (int) (data & ((1L << MOVE_BITS) - 1));
+	}
+
+	/**
+	 * Get the score from stored data.
+	 * @param data The data returned by probe.
+	 * @return The score.
+	 */
+	public static int score(long data) {
+		return (int) ((data >>> SCORE_SHIFT) & 0xffff) - SCORE_OFFSET;
+	}
+
+	/**
+	 * Get the depth from stored data.
+	 * @param data The data returned by probe.
+	 * @return The depth searched.
+	 */
+	public static int depth(long data) {
+		return (int) ((data >>> DEPTH_SHIFT) & 0xff);
+	}
+
+	/**
+	 * Get the kind of bound from stored data.
+	 * @param data The data returned by probe.
+	 * @return EXACT, LOWER or UPPER.
+	 */
+	public static int bound(long data) {
+		return (int) ((data >>> BOUND_SHIFT) & 3);
+	}
+
+	/**
+	 * Get the offset of the cluster a key belongs to.
+	 * @param key The hash of a position.
+	 * @return The byte offset of the first entry in the cluster.
+	 */
+	private int clusterOf(long key) {
+		return ((int) key & clusterMask) * CLUSTER_BYTES;
+	}
+
+}
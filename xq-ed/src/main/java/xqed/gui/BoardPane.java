@@ -98,7 +98,7 @@ public class BoardPane extends Canvas {
 		boardRatio = board.getWidth() / board.getHeight();
 		
 		imagesNeedToBeReloaded = true;
-		setMovingPiece(new Piece());
+		setMovingPiece(Piece.EMPTY);
 		setMovingX(-1);
 		setMovingY(-1);
 		currentPos = null;
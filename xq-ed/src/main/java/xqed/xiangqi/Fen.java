@@ -0,0 +1,223 @@
+package xqed.xiangqi;
+
+import java.text.ParseException;
+
+/**
+ * Reading and writing the board part of FEN strings (see
+ * {@link Position#Position(String)} for the format). Boards are parsed
+ * straight from characters or ASCII bytes into a position, which may be
+ * reused between calls, and written into a caller's buffer, so handling a
+ * board allocates nothing. Parsing accepts both the letters used in this
+ * program (H for horse, E for elephant) and the UCCI letters (N for knight,
+ * B for bishop). Writing uses whichever set is asked for.
+ */
+public final class Fen {
+
+	/** The piece letters to write. */
+	public enum Letters {
+		/** The letters used in this program: e.g., rheakaehr. */
+		WXF,
+		/** The letters UCCI engines expect: e.g., rnbakabnr. */
+		UCCI
+	}
+
+	/** The longest board a FEN string can describe: 90 pieces and 9 slashes. */
+	public static final int MAX_LENGTH = Position.SQUARES + Position.RANKS - 1;
+
+	/** The letter for each piece code, indexed [letters ordinal][code]. */
+	private static final byte[][] LETTERS = {
+		"-PCHRKAE-pchrkae".getBytes(),
+		"-PCNRKAB-pcnrkab".getBytes()
+	};
+
+	/**
+	 * The piece code for each ASCII character. Zero (the empty code) marks
+	 * characters which are not pieces.
+	 */
+	private static final byte[] CODES = new byte[128];
+
+	static {
+		for (byte[] letters : LETTERS) {
+			for (int code = 0; code < letters.length; code++) {
+				if (code != Piece.EMPTY_CODE && code != Piece.BLACK_FLAG) {
+					CODES[letters[code]] = (byte) code;
+				}
+			}
+		}
+	}
+
+	private Fen() {}
+
+	/**
+	 * Parse a board into a new position.
+	 * @param fen A FEN string. Anything after the board is ignored.
+	 * @return The position described by the board.
+	 * @throws ParseException If the string does not start with a valid board.
+	 */
+	public static Position parse(CharSequence fen) throws ParseException {
+		Position pos = Position.empty();
+		parseBoard(fen, 0, pos);
+		return pos;
+	}
+
+	/**
+	 * Parse a board from part of a character sequence, replacing the contents
+	 * of a position.
+	 * @param fen The characters to read.
+	 * @param start The index of the first character of the board.
+	 * @param pos The position to fill in. Any pieces and moves it holds are
+	 * discarded.
+	 * @return The index just past the board.
+	 * @throws ParseException If there is no valid board at the start index.
+	 * The error offset is the index of the offending character.
+	 */
+	public static int parseBoard(CharSequence fen, int start, Position pos)
+			throws ParseException {
+		return parse(fen, null, start, fen.length(), pos);
+	}
+
+	/**
+	 * Parse a board from ASCII bytes, replacing the contents of a position.
+	 * This is meant for reading large files of positions without decoding
+	 * each line into a string.
+	 * @param buf The bytes to read.
+	 * @param start The index of the first byte of the board.
+	 * @param end The index just past the last byte which may be read.
+	 * @param pos The position to fill in. Any pieces and moves it holds are
+	 * discarded.
+	 * @return The index just past the board.
+	 * @throws ParseException If there is no valid board at the start index.
+	 * The error offset is the index of the offending byte.
+	 */
+	public static int parseBoard(byte[] buf, int start, int end, Position pos)
+			throws ParseException {
+		return parse(null, buf, start, end, pos);
+	}
+
+	/**
+	 * Parse a board from either characters or bytes. The board ends after the
+	 * tenth rank is complete, and must be followed by the end of the input or
+	 * by whitespace.
+	 * @param chars The characters to read, or null to read bytes.
+	 * @param bytes The bytes to read if chars is null.
+	 * @param start The index of the first character of the board.
+	 * @param end The index just past the last character which may be read.
+	 * @param pos The position to fill in.
+	 * @return The index just past the board.
+	 * @throws ParseException If there is no valid board at the start index.
+	 */
+	private static int parse(CharSequence chars, byte[] bytes, int start, int end,
+			Position pos) throws ParseException {
+		pos.clear();
+		int i = start;
+		int rank = 0;
+		int file = 0;
+		while (true) {
+			int c = -1;
+			if (i < end) {
+				c = chars != null ? chars.charAt(i) : bytes[i] & 0xff;
+			}
+			if (file == Position.FILES) {
+				boolean last = rank == Position.RANKS - 1;
+				if (last && (c == -1 || Character.isWhitespace(c))) {
+					return i;
+				}
+				if (last == (c == '/') || c == -1 || Character.isWhitespace(c)) {
+					throw new ParseException("Wrong number of ranks in FEN", i);
+				}
+				if (c != '/') {
+					throw new ParseException("Too many points in rank", i);
+				}
+				rank++;
+				file = 0;
+			} else if (c >= '1' && c <= '9') {
+				file += c - '0';
+				if (file > Position.FILES) {
+					throw new ParseException("Too many points in rank", i);
+				}
+			} else if (c > 0 && c < CODES.length && CODES[c] != Piece.EMPTY_CODE) {
+				if (!pos.place(Position.toSquare(file, rank), CODES[c])) {
+					throw new ParseException("Too many pieces in FEN", i);
+				}
+				file++;
+			} else if (c == '/' || c == -1 || Character.isWhitespace(c)) {
+				throw new ParseException("Wrong number of points in rank", i);
+			} else {
+				throw new ParseException("Unrecognized piece code", i);
+			}
+			i++;
+		}
+	}
+
+	/**
+	 * Append the board of a position to a string builder. A builder kept
+	 * between calls (and cleared with setLength(0)) never needs to grow after
+	 * the first board.
+	 * @param pos The position to write.
+	 * @param letters The piece letters to use.
+	 * @param sb The builder to append to.
+	 * @return The builder.
+	 */
+	public static StringBuilder write(Position pos, Letters letters, StringBuilder sb) {
+		byte[] table = LETTERS[letters.ordinal()];
+		for (int r = 0; r < Position.RANKS; r++) {
+			if (r > 0) {
+				sb.append('/');
+			}
+			int skip = 0;
+			for (int f = 0; f < Position.FILES; f++) {
+				int code = pos.codeAt(Position.toSquare(f, r));
+				if (code == Piece.EMPTY_CODE) {
+					skip++;
+					continue;
+				}
+				if (skip > 0) {
+					sb.append((char) ('0' + skip));
+					skip = 0;
+				}
+				sb.append((char) table[code]);
+			}
+			if (skip > 0) {
+				sb.append((char) ('0' + skip));
+			}
+		}
+		return sb;
+	}
+
+	/**
+	 * Write the board of a position as ASCII bytes.
+	 * @param pos The position to write.
+	 * @param letters The piece letters to use.
+	 * @param buf The buffer to write into, which must have room for
+	 * {@link #MAX_LENGTH} bytes after the offset.
+	 * @param offset The index to start writing at.
+	 * @return The index just past the board.
+	 */
+	public static int write(Position pos, Letters letters, byte[] buf, int offset) {
+		byte[] table = LETTERS[letters.ordinal()];
+		int i = offset;
+		for (int r = 0; r < Position.RANKS; r++) {
+			if (r > 0) {
+				buf[i++] = '/';
+			}
+			int skip = 0;
+			for (int f = 0; f < Position.FILES; f++) {
+				int code = pos.codeAt(Position.toSquare(f, r));
+				if (code == Piece.EMPTY_CODE) {
+					skip++;
+					continue;
+				}
+				if (skip > 0) {
+					buf[i++] = (byte) ('0' + skip);
+					skip = 0;
+				}
+				buf[i++] = table[code];
+			}
+			if (skip > 0) {
+				buf[i++] = (byte) ('0' + skip);
+			}
+		}
+		return i;
+	}
+
+}
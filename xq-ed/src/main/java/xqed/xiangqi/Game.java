@@ -134,7 +134,7 @@ public class Game {
 			if (newMove && color == Piece.Color.BLACK) {
 				sb.append("... ");
 			}
-			sb.append(node.getMove().write(node.getPosition(), format));
+			sb.append(node.getMoveText(format));
 			sb.append(" ");
 			if (!node.getComment().isBlank()) {
 				sb.append("{");
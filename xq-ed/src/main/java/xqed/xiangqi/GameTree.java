@@ -1,9 +1,13 @@
 package xqed.xiangqi;
 
+import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 
+import javafx.util.Pair;
+
 /**
  * A Xiangqi game with variations and comments.
  */
@@ -30,6 +34,28 @@ public class GameTree {
 	/** The number of the current move. */
 	private int moveNum;
 	
+	/**
+	 * The legal moves for the player to move, or null if they have not been
+	 * generated since the position last changed.
+	 */
+	private MoveList legalMoves;
+	
+	/**
+	 * The move leading to this node written in each format, indexed by
+	 * ordinal. Entries are null until first needed.
+	 */
+	private String[] moveText = new String[Move.MoveFormat.values().length];
+	
+	/** Set in moveFlags once the other flags have been worked out. */
+	private static final int FLAGS_KNOWN = 1;
+	/** Set in moveFlags if the move leading to this node gave check. */
+	private static final int FLAG_CHECK = 2;
+	/** Set in moveFlags if the move leading to this node was a chase. */
+	private static final int FLAG_CHASE = 4;
+	
+	/** What kind of move led to this node, for repetition detection. */
+	private int moveFlags;
+	
 	/**
 	 * Construct a new game tree with the starting position and no successors.
 	 */
@@ -68,6 +94,122 @@ public class GameTree {
 		return position;
 	}
 	
+	/**
+	 * Discard anything cached about the position at this node. This must be
+	 * called after editing the position returned by {@link #getPosition()}.
+	 * The notation of the moves leading to the children of this node is
+	 * discarded as well, since it depends on this position.
+	 */
+	public void positionChanged() {
+		legalMoves = null;
+		Arrays.fill(moveText, null);
+		moveFlags = 0;
+		for (GameTree child : variations) {
+			Arrays.fill(child.moveText, null);
+			child.moveFlags = 0;
+		}
+	}
+
+	/**
+	 * Get the legal moves for the player to move at this node. They are
+	 * generated the first time they are needed and kept until
+	 * {@link #positionChanged()} is called.
+	 * @return The legal moves. The list is shared and must not be modified.
+	 */
+	public MoveList getLegalMoves() {
+		if (legalMoves == null) {
+			MoveList moves = new MoveList();
+			position.generateLegalMoves(playerToMove, moves);
+			legalMoves = moves;
+		}
+		return legalMoves;
+	}
+
+	/**
+	 * Get the points the piece on a given point can legally move to.
+	 * @param file The file of the piece.
+	 * @param rank The rank of the piece.
+	 * @return The target points, which are empty if there is no piece of the
+	 * player to move on the point.
+	 */
+	public ArrayList<Pair<Integer, Integer>> getMovesFrom(int file, int rank) {
+		MoveList moves = getLegalMoves();
+		ArrayList<Pair<Integer, Integer>> ret = new ArrayList<>();
+		for (int i = 0; i < moves.size(); i++) {
+			int m = moves.get(i);
+			if (PackedMove.fromFile(m) == file && PackedMove.fromRank(m) == rank) {
+				ret.add(new Pair<>(PackedMove.toFile(m), PackedMove.toRank(m)));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Convert a string representation of a move by the player to move to a
+	 * Move object, using the cached legal moves.
+	 * @param move A string representation of the move in any format.
+	 * @return The move represented by the given string.
+	 * @throws ParseException If the string does not represent a legal move.
+	 */
+	public Move interpretMove(String move) throws ParseException {
+		return position.interpretMove(move, playerToMove, getLegalMoves());
+	}
+
+	/**
+	 * Get a hash of the position and side to move at this node. Nodes with
+	 * the same pieces on the same points and the same player to move have the
+	 * same hash.
+	 * @return A 64-bit Zobrist hash of this node's position.
+	 */
+	public long getHash() {
+		return position.getHash(playerToMove);
+	}
+
+	/**
+	 * Get the repetition history of the path from the root of the tree to
+	 * this node, with this node's position last. The kind of each move (check
+	 * or chase) is worked out once per node and remembered.
+	 * @return A new history which may be extended with further positions.
+	 */
+	public History getHistory() {
+		ArrayList<GameTree> path = new ArrayList<>();
+		GameTree node = this;
+		path.add(node);
+		while (node.hasParent()) {
+			node = node.getParent();
+			path.add(node);
+		}
+		History history = new History(node.getPlayerToMove());
+		for (int i = path.size() - 1; i >= 0; i--) {
+			node = path.get(i);
+			int flags = node.getMoveFlags();
+			history.push(node.getHash(), (flags & FLAG_CHECK) != 0, (flags & FLAG_CHASE) != 0);
+		}
+		return history;
+	}
+
+	/**
+	 * Get the flags describing the move leading to this node, working them
+	 * out if needed.
+	 * @return The move flags, which are just FLAGS_KNOWN for the root.
+	 */
+	private int getMoveFlags() {
+		if (moveFlags == 0) {
+			int flags = FLAGS_KNOWN;
+			if (hasMove()) {
+				if (position.inCheck(playerToMove)) {
+					flags |= FLAG_CHECK;
+				}
+				Position before = getParent().getPosition();
+				if (before.isChase(PackedMove.fromMove(getMove(), before))) {
+					flags |= FLAG_CHASE;
+				}
+			}
+			moveFlags = flags;
+		}
+		return moveFlags;
+	}
+
 	/**
 	 * Determine whether this node has a parent.
 	 * @return True if there is a parent node for this node.
@@ -96,6 +238,23 @@ public class GameTree {
 		return move.orElseThrow();
 	}
 
+	/**
+	 * Get the move that led to this node written in a given format. The text
+	 * is computed once per format and kept until this node or its parent
+	 * reports a change with {@link #positionChanged()}.
+	 * @param format The notation to use.
+	 * @return The move that led to this node.
+	 * @throws NoSuchElementException If this node does not have a parent.
+	 */
+	public String getMoveText(Move.MoveFormat format) throws NoSuchElementException {
+		String text = moveText[format.ordinal()];
+		if (text == null) {
+			text = getMove().write(getParent().getPosition(), format);
+			moveText[format.ordinal()] = text;
+		}
+		return text;
+	}
+
 	/**
 	 * Get the comment associated with this node.
 	 * @return The comment for this node.
@@ -0,0 +1,311 @@
+package xqed.xiangqi;
+
+import java.util.Arrays;
+
+/**
+ * The positions along one path through a game, from its first position to
+ * the current one, for detecting repetitions. Each entry holds the hash of a
+ * position with the side to move (see {@link Position#getHash(Piece.Color)})
+ * and whether the move leading to it was a check or a chase (see
+ * {@link Position#isChase(int)}). Entries are pushed as moves are made and
+ * popped as they are taken back, so the same history can follow a search.
+ *
+ * Every query takes constant time. Positions with equal hashes are linked
+ * together when they are pushed, so the last occurrence of the current
+ * position is known without a search, and running counts of the moves
+ * which were not checks or chases tell whether every move by a side since
+ * that occurrence was one.
+ */
+public final class History {
+
+	/** The verdict on the current position under the repetition rules. */
+	public enum Verdict {
+		/** The position has not occurred before on this path. */
+		NONE,
+		/** The position has occurred before, and neither side is to blame. */
+		REPETITION,
+		/** Red has repeated the position by checking with every move. */
+		RED_PERPETUAL_CHECK,
+		/** Black has repeated the position by checking with every move. */
+		BLACK_PERPETUAL_CHECK,
+		/** Red has repeated the position by chasing with every move. */
+		RED_PERPETUAL_CHASE,
+		/** Black has repeated the position by chasing with every move. */
+		BLACK_PERPETUAL_CHASE
+	}
+
+	/** The room for entries in a new history. */
+	private static final int DEFAULT_CAPACITY = 256;
+
+	/** The side to move in the first position. */
+	private final Piece.Color first;
+
+	/** The hash of each position. */
+	private long[] hashes;
+
+	/** The index of the previous entry with the same hash, or -1. */
+	private int[] previous;
+
+	/** The number of earlier entries with the same hash. */
+	private int[] occurrences;
+
+	/**
+	 * The number of moves up to each entry, by the side which made the move
+	 * leading to it, which did not give check. Entries alternate sides, so
+	 * each count continues the one two entries earlier.
+	 */
+	private int[] notCheck;
+
+	/** Like notCheck, counting moves which were neither checks nor chases. */
+	private int[] notChase;
+
+	/**
+	 * The latest entry in each hash bucket, or -1. Entries in a bucket are
+	 * chained through bucketNext, newest first, so popping an entry only
+	 * has to restore the head of its bucket.
+	 */
+	private int[] bucketHead;
+
+	/** The next older entry in the same bucket, or -1. */
+	private int[] bucketNext;
+
+	/** The number of entries. */
+	private int size;
+
+	/**
+	 * Create an empty history.
+	 * @param first The side to move in the first position pushed.
+	 */
+	public History(Piece.Color first) {
+		this.first = first;
+		hashes = new long[DEFAULT_CAPACITY];
+		previous = new int[DEFAULT_CAPACITY];
+		occurrences = new int[DEFAULT_CAPACITY];
+		notCheck = new int[DEFAULT_CAPACITY];
+		notChase = new int[DEFAULT_CAPACITY];
+		bucketNext = new int[DEFAULT_CAPACITY];
+		bucketHead = new int[DEFAULT_CAPACITY];
+		Arrays.fill(bucketHead, -1);
+		size = 0;
+	}
+
+	/**
+	 * Create a copy of another history.
+	 * @param source The history to copy.
+	 */
+	private History(History source) {
+		first = source.first;
+		hashes = source.hashes.clone();
+		previous = source.previous.clone();
+		occurrences = source.occurrences.clone();
+		notCheck = source.notCheck.clone();
+		notChase = source.notChase.clone();
+		bucketNext = source.bucketNext.clone();
+		bucketHead = source.bucketHead.clone();
+		size = source.size;
+	}
+
+	/**
+	 * Copy this history. Pushing to or popping from the copy leaves this
+	 * history as it is.
+	 */
+	@Override
+	public History clone() {
+		return new History(this);
+	}
+
+	/**
+	 * Add a position to the end of the path.
+	 * @param hash The hash of the position including the side to move.
+	 * @param check Whether the move leading to the position gave check.
+	 * Ignored for the first position.
+	 * @param chase Whether the move leading to the position was a chase.
+	 * Ignored for the first position.
+	 */
+	public void push(long hash, boolean check, boolean chase) {
+		if (size == hashes.length) {
+			grow();
+		}
+		int n = size;
+		int bucket = bucketOf(hash);
+		int prev = bucketHead[bucket];
+		while (prev >= 0 && hashes[prev] != hash) {
+			prev = bucketNext[prev];
+		}
+		hashes[n] = hash;
+		previous[n] = prev;
+		occurrences[n] = prev >= 0 ? occurrences[prev] + 1 : 0;
+		int before = n >= 2 ? n - 2 : -1;
+		boolean moved = n > 0;
+		notCheck[n] = (before >= 0 ? notCheck[before] : 0) + (moved && !check ? 1 : 0);
+		notChase[n] = (before >= 0 ? notChase[before] : 0) +
+				(moved && !check && !chase ? 1 : 0);
+		bucketNext[n] = bucketHead[bucket];
+		bucketHead[bucket] = n;
+		size = n + 1;
+	}
+
+	/**
+	 * Remove the last position from the path.
+	 * @throws IllegalStateException If the history is empty.
+	 */
+	public void pop() throws IllegalStateException {
+		if (size == 0) {
+			throw new IllegalStateException("No position to pop");
+		}
+		size--;
+		bucketHead[bucketOf(hashes[size])] = bucketNext[size];
+	}
+
+	/**
+	 * Get the number of positions on the path.
+	 * @return The number of positions.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the hash of the current position.
+	 * @return The hash of the last position on the path.
+	 * @throws IllegalStateException If the history is empty.
+	 */
+	public long currentHash() throws IllegalStateException {
+		if (size == 0) {
+			throw new IllegalStateException("No position in the history");
+		}
+		return hashes[size - 1];
+	}
+
+	/**
+	 * Get the number of times the current position occurred earlier on the
+	 * path. A position which has occurred three times in all has two
+	 * repetitions.
+	 * @return The number of earlier occurrences.
+	 */
+	public int repetitions() {
+		return size == 0 ? 0 : occurrences[size - 1];
+	}
+
+	/**
+	 * Get the index of the last earlier occurrence of the current position.
+	 * @return The index into the path, or -1 if the position is new.
+	 */
+	public int lastOccurrence() {
+		return size == 0 ? -1 : previous[size - 1];
+	}
+
+	/**
+	 * Determine whether the current position repeats an earlier one and every
+	 * move by a side since then gave check.
+	 * @param side The side to test.
+	 * @return True if the side is checking perpetually.
+	 */
+	public boolean perpetualCheck(Piece.Color side) {
+		return allMovesBy(side, notCheck);
+	}
+
+	/**
+	 * Determine whether the current position repeats an earlier one and every
+	 * move by a side since then was a check or a chase.
+	 * @param side The side to test.
+	 * @return True if the side is chasing (or checking) perpetually.
+	 */
+	public boolean perpetualChase(Piece.Color side) {
+		return allMovesBy(side, notChase);
+	}
+
+	/**
+	 * Judge the current position under the usual repetition rules: a side
+	 * which repeats by perpetual check loses unless the other side does the
+	 * same, then a side which repeats by perpetual chase loses unless the
+	 * other side does the same, and otherwise the repetition is nobody's
+	 * fault. Only the moves since the last occurrence are judged; how many
+	 * repetitions to allow first (see {@link #repetitions()}) is up to the
+	 * caller.
+	 * @return The verdict on the current position.
+	 */
+	public Verdict verdict() {
+		if (lastOccurrence() < 0) {
+			return Verdict.NONE;
+		}
+		boolean redCheck = perpetualCheck(Piece.Color.RED);
+		boolean blackCheck = perpetualCheck(Piece.Color.BLACK);
+		if (redCheck != blackCheck) {
+			return redCheck ? Verdict.RED_PERPETUAL_CHECK : Verdict.BLACK_PERPETUAL_CHECK;
+		}
+		if (redCheck) {
+			return Verdict.REPETITION;
+		}
+		boolean redChase = perpetualChase(Piece.Color.RED);
+		boolean blackChase = perpetualChase(Piece.Color.BLACK);
+		if (redChase != blackChase) {
+			return redChase ? Verdict.RED_PERPETUAL_CHASE : Verdict.BLACK_PERPETUAL_CHASE;
+		}
+		return Verdict.REPETITION;
+	}
+
+	/**
+	 * Determine whether the current position repeats an earlier one and none
+	 * of the moves by a side since then are counted in a table.
+	 * @param side The side whose moves to look at.
+	 * @param counts notCheck or notChase.
+	 * @return True if the count did not change over the cycle.
+	 */
+	private boolean allMovesBy(Piece.Color side, int[] counts) {
+		int start = lastOccurrence();
+		if (start < 0) {
+			return false;
+		}
+		int end = size - 1;
+		// The entry reached by a move of this side: entry i is reached by
+		// the side to move at entry i - 1.
+		if (moverOf(end) != side) {
+			end--;
+			start--;
+		}
+		if (end <= start) {
+			return false;
+		}
+		return counts[end] == (start >= 0 ? counts[start] : 0);
+	}
+
+	/**
+	 * Get the side which made the move leading to an entry.
+	 * @param index The index of the entry, at least 1.
+	 * @return The side that moved.
+	 */
+	private Piece.Color moverOf(int index) {
+		return (index & 1) == 1 ? first : Piece.switchColor(first);
+	}
+
+	/**
+	 * Get the bucket for a hash.
+	 * @param hash The position hash.
+	 * @return An index into bucketHead.
+	 */
+	private int bucketOf(long hash) {
+		return (int) (hash ^ hash >>> 32) & (bucketHead.length - 1);
+	}
+
+	/**
+	 * Double the room for entries and rebuild the buckets.
+	 */
+	private void grow() {
+		int capacity = 2 * hashes.length;
+		hashes = Arrays.copyOf(hashes, capacity);
+		previous = Arrays.copyOf(previous, capacity);
+		occurrences = Arrays.copyOf(occurrences, capacity);
+		notCheck = Arrays.copyOf(notCheck, capacity);
+		notChase = Arrays.copyOf(notChase, capacity);
+		bucketNext = Arrays.copyOf(bucketNext, capacity);
+		bucketHead = new int[capacity];
+		Arrays.fill(bucketHead, -1);
+		for (int i = 0; i < size; i++) {
+			int bucket = bucketOf(hashes[i]);
+			bucketNext[i] = bucketHead[bucket];
+			bucketHead[bucket] = i;
+		}
+	}
+
+}
@@ -0,0 +1,163 @@
+package xqed.xiangqi;
+
+import java.util.Arrays;
+
+/**
+ * Precomputed targets for the pieces which move by a fixed leap: horses,
+ * elephants, advisors and kings. For each square there is an array of target
+ * squares, and for horses and elephants a parallel array holding the square
+ * which blocks each leap (the horse's leg or the elephant's eye). Tables for
+ * pieces confined to the palace or to their own side of the river are
+ * indexed by color ordinal first and only contain targets inside that area.
+ */
+final class LeapTables {
+
+	/** Whether each square is inside each side's palace, indexed [side][sq]. */
+	static final boolean[][] PALACE = new boolean[2][Position.SQUARES];
+
+	/**
+	 * Whether each square is on each side's own half of the river, indexed
+	 * [side][sq].
+	 */
+	static final boolean[][] HOME = new boolean[2][Position.SQUARES];
+
+	/** Horse targets from each square. */
+	static final byte[][] HORSE_MOVES = new byte[Position.SQUARES][];
+	/** The leg square blocking each entry of HORSE_MOVES. */
+	static final byte[][] HORSE_LEGS = new byte[Position.SQUARES][];
+
+	/**
+	 * The squares from which a horse attacks each square. These differ from
+	 * HORSE_MOVES only in their legs, since a horse's leg is next to the horse
+	 * rather than next to its target.
+	 */
+	static final byte[][] HORSE_ATTACKERS = new byte[Position.SQUARES][];
+	/** The leg square blocking each entry of HORSE_ATTACKERS. */
+	static final byte[][] HORSE_ATTACKER_LEGS = new byte[Position.SQUARES][];
+
+	/** Elephant targets on the home side, indexed [side][sq]. */
+	static final byte[][][] ELEPHANT_MOVES = new byte[2][Position.SQUARES][];
+	/** The eye square blocking each entry of ELEPHANT_MOVES. */
+	static final byte[][][] ELEPHANT_EYES = new byte[2][Position.SQUARES][];
+
+	/** Advisor targets in the palace, indexed [side][sq]. */
+	static final byte[][][] ADVISOR_MOVES = new byte[2][Position.SQUARES][];
+
+	/** King targets in the palace, indexed [side][sq]. */
+	static final byte[][][] KING_MOVES = new byte[2][Position.SQUARES][];
+
+	static {
+		for (int sq = 0; sq < Position.SQUARES; sq++) {
+			int file = Position.fileOf(sq);
+			int rank = Position.rankOf(sq);
+			boolean palaceFile = file >= 3 && file <= 5;
+			PALACE[Piece.Color.BLACK.ordinal()][sq] = palaceFile && rank <= 2;
+			PALACE[Piece.Color.RED.ordinal()][sq] = palaceFile && rank >= 7;
+			HOME[Piece.Color.BLACK.ordinal()][sq] = rank <= 4;
+			HOME[Piece.Color.RED.ordinal()][sq] = rank >= 5;
+		}
+		for (int sq = 0; sq < Position.SQUARES; sq++) {
+			fillHorse(sq);
+			for (int side = 0; side < 2; side++) {
+				fillElephant(side, sq);
+				ADVISOR_MOVES[side][sq] = steps(side, sq, new int[][] {
+					{ 1, 1 }, { -1, 1 }, { 1, -1 }, { -1, -1 } });
+				KING_MOVES[side][sq] = steps(side, sq, new int[][] {
+					{ 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } });
+			}
+		}
+	}
+
+	private LeapTables() {}
+
+	/**
+	 * Determine whether a file and rank are on the board.
+	 * @param file The file.
+	 * @param rank The rank.
+	 * @return True if the point is on the board.
+	 */
+	private static boolean onBoard(int file, int rank) {
+		return file >= 0 && file < Position.FILES && rank >= 0 && rank < Position.RANKS;
+	}
+
+	/**
+	 * Fill the horse move and attack tables for one square.
+	 * @param sq The square.
+	 */
+	private static void fillHorse(int sq) {
+		int file = Position.fileOf(sq);
+		int rank = Position.rankOf(sq);
+		byte[] to = new byte[8];
+		byte[] legs = new byte[8];
+		byte[] attackers = new byte[8];
+		byte[] attackerLegs = new byte[8];
+		int n = 0;
+		for (int df = -2; df <= 2; df++) {
+			for (int dr = -2; dr <= 2; dr++) {
+				if (Math.abs(df * dr) != 2 || !onBoard(file + df, rank + dr)) {
+					continue;
+				}
+				// The leg is one step from the horse along the long direction.
+				int legFile = Math.abs(df) == 2 ? df / 2 : 0;
+				int legRank = Math.abs(dr) == 2 ? dr / 2 : 0;
+				to[n] = (byte) Position.toSquare(file + df, rank + dr);
+				legs[n] = (byte) Position.toSquare(file + legFile, rank + legRank);
+				attackers[n] = to[n];
+				attackerLegs[n] = (byte) Position.toSquare(file + df - legFile,
+						rank + dr - legRank);
+				n++;
+			}
+		}
+		HORSE_MOVES[sq] = Arrays.copyOf(to, n);
+		HORSE_LEGS[sq] = Arrays.copyOf(legs, n);
+		HORSE_ATTACKERS[sq] = Arrays.copyOf(attackers, n);
+		HORSE_ATTACKER_LEGS[sq] = Arrays.copyOf(attackerLegs, n);
+	}
+
+	/**
+	 * Fill the elephant tables for one side and square.
+	 * @param side The color ordinal of the elephant.
+	 * @param sq The square.
+	 */
+	private static void fillElephant(int side, int sq) {
+		int file = Position.fileOf(sq);
+		int rank = Position.rankOf(sq);
+		byte[] to = new byte[4];
+		byte[] eyes = new byte[4];
+		int n = 0;
+		for (int df = -1; df <= 1; df += 2) {
+			for (int dr = -1; dr <= 1; dr += 2) {
+				int f = file + 2 * df;
+				int r = rank + 2 * dr;
+				if (onBoard(f, r) && HOME[side][Position.toSquare(f, r)]) {
+					to[n] = (byte) Position.toSquare(f, r);
+					eyes[n] = (byte) Position.toSquare(file + df, rank + dr);
+					n++;
+				}
+			}
+		}
+		ELEPHANT_MOVES[side][sq] = Arrays.copyOf(to, n);
+		ELEPHANT_EYES[side][sq] = Arrays.copyOf(eyes, n);
+	}
+
+	/**
+	 * Collect the single steps from a square which land in a side's palace.
+	 * @param side The color ordinal of the moving piece.
+	 * @param sq The square.
+	 * @param deltas The file and rank offsets of each step.
+	 * @return The target squares.
+	 */
+	private static byte[] steps(int side, int sq, int[][] deltas) {
+		byte[] to = new byte[deltas.length];
+		int n = 0;
+		for (int[] d : deltas) {
+			int f = Position.fileOf(sq) + d[0];
+			int r = Position.rankOf(sq) + d[1];
+			if (onBoard(f, r) && PALACE[side][Position.toSquare(f, r)]) {
+				to[n++] = (byte) Position.toSquare(f, r);
+			}
+		}
+		return Arrays.copyOf(to, n);
+	}
+
+}
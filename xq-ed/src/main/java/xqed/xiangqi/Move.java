@@ -44,7 +44,7 @@ public class Move {
 		return Character.toUpperCase(p.getCode());
 	}
 
-	/** The piece that moved. */
+	/** The piece that moved. This is always a shared piece (see {@link Piece#of}). */
 	private Piece piece;
 	
 	/** The square it moved from. */
@@ -60,7 +60,7 @@ public class Move {
 	 * @param t The square it moved to.
 	 */
 	public Move(Piece p, Pair<Integer, Integer> f, Pair<Integer, Integer> t) {
-		piece = p;
+		piece = Piece.of(p.getColor(), p.getType());
 		fromSquare = f;
 		toSquare = t;
 	}
@@ -109,49 +109,28 @@ public class Move {
 				capture = true;
 			}
 			String clarification = "";
-			// Check if another piece of this kind could move to the end square
-			for (int f = 0; f < 9; f++) {
-				for (int r = 0; r < 10; r++) {
-					if ((f != fromSquare.getKey() || r != fromSquare.getValue()) &&
-							pos.pieceAt(f, r).equals(piece)) {
-						ArrayList<Pair<Integer, Integer>> moves = pos.getMovesFrom(f, r, false);
-						for (Pair<Integer, Integer> pt : moves) {
-							if (pt.getKey() == toSquare.getKey() &&
-									pt.getValue() == toSquare.getValue()) {
-								if (f == fromSquare.getKey()) {
-									clarification = String.format("%d", 10 - fromSquare.getValue());
-									break;
-								} else if (clarification.isEmpty()) {
-									clarification = String.format("%c", 'a' + fromSquare.getKey());
-								}
-							}
-						}
-					}
-				}
-			}
-			// Check for checkmate or stalemate. After making the move, if the
-			// opponent has no moves, this is checkmate.
-			Piece captured = pos.pieceAt(toSquare.getKey(), toSquare.getValue());
-			pos.clearPiece(fromSquare.getKey(), fromSquare.getValue());
-			pos.setPiece(toSquare.getKey(), toSquare.getValue(), piece);
-			boolean hasMoves = false;
-			for (int f = 0; f < 9; f++) {
-				for (int r = 0; r < 10; r++) {
-					if (pos.hasPieceAt(f, r) &&
-							pos.pieceAt(f, r).getColor() != piece.getColor()) {
-						ArrayList<Pair<Integer, Integer>> moves = pos.getMovesFrom(f, r);
-						if (!moves.isEmpty()) {
-							hasMoves = true;
-							break;
-						}
-					}
+			// Check if another piece of this kind could move to the end square.
+			// A piece on the same file needs the rank to tell them apart.
+			int pieceCode = piece.toCode();
+			int fromSq = Position.toSquare(fromSquare.getKey(), fromSquare.getValue());
+			int toSq = Position.toSquare(toSquare.getKey(), toSquare.getValue());
+			for (int i = 0; i < pos.typeCount(pieceCode); i++) {
+				int other = pos.typeSquare(pieceCode, i);
+				if (other == fromSq || !pos.canMoveTo(other, toSq)) {
+					continue;
 				}
-				if (hasMoves) {
+				if (Position.fileOf(other) == fromSquare.getKey()) {
+					clarification = String.format("%d", 10 - fromSquare.getValue());
 					break;
+				} else if (clarification.isEmpty()) {
+					clarification = String.format("%c", 'a' + fromSquare.getKey());
 				}
 			}
-			pos.setPiece(fromSquare.getKey(), fromSquare.getValue(), piece);
-			pos.setPiece(toSquare.getKey(), toSquare.getValue(), captured);
+			// Check for checkmate or stalemate. After making the move, if the
+			// opponent has no moves, this is checkmate.
+			pos.doMove(this);
+			boolean hasMoves = pos.hasAnyLegalMove(Piece.switchColor(piece.getColor()));
+			pos.undoMove();
 			// Check for checks
 			boolean check = pos.inCheck(Piece.switchColor(piece.getColor()),
 				fromSquare.getKey(), fromSquare.getValue(),
@@ -204,10 +183,12 @@ public class Move {
 			}
 			// Search for pieces in tandem (on the same file).
 			ArrayList<Integer> duplicates = new ArrayList<>();
-			for (int r = 0; r < 10; r++) {
-				if (r != fromSquare.getValue() && pos.hasPieceAt(fromSquare.getKey(), r) &&
-						pos.pieceAt(fromSquare.getKey(), r).equals(piece)) {
-					duplicates.add(r);
+			int tandemCode = piece.toCode();
+			for (int i = 0; i < pos.typeCount(tandemCode); i++) {
+				int other = pos.typeSquare(tandemCode, i);
+				if (Position.fileOf(other) == fromSquare.getKey() &&
+						Position.rankOf(other) != fromSquare.getValue()) {
+					duplicates.add(Position.rankOf(other));
 				}
 			}
 			if (duplicates.isEmpty()) {
@@ -236,9 +217,9 @@ public class Move {
 				// We need to figure out which pawn this is in the order.
 				int pawnsAhead = 0;
 				for (Integer r : duplicates) {
-					if (piece.getColor() == Piece.Color.RED && r < toSquare.getValue()) {
+					if (piece.getColor() == Piece.Color.RED && r < fromSquare.getValue()) {
 						pawnsAhead++;
-					} else if (piece.getColor() == Piece.Color.BLACK && r > toSquare.getValue()) {
+					} else if (piece.getColor() == Piece.Color.BLACK && r > fromSquare.getValue()) {
 						pawnsAhead++;
 					}
 				}
@@ -251,9 +232,13 @@ public class Move {
 				}
 			}
 			// Now we need to determine whether this piece is in front or behind
-			// the other piece on the file.
-			if (duplicates.get(0) > toSquare.getValue() && piece.getColor() == Piece.Color.RED ||
-					duplicates.get(0) < toSquare.getValue() && piece.getColor() == Piece.Color.BLACK) {
+			// the other piece on the file. Horses give the destination file
+			// rather than the distance moved.
+			if (piece.getType() == Piece.Type.HORSE) {
+				rankChange = rankChange < 0 ? -endFile : endFile;
+			}
+			if (duplicates.get(0) > fromSquare.getValue() && piece.getColor() == Piece.Color.RED ||
+					duplicates.get(0) < fromSquare.getValue() && piece.getColor() == Piece.Color.BLACK) {
 				// This piece is in front.
 				if (direction == '=') {
 					return String.format("+%c=%d", code, endFile);
@@ -277,6 +262,17 @@ public class Move {
 		}
 	}
 	
+	/**
+	 * Reflect this move across the central file, giving the same move in the
+	 * mirrored position (see {@link Position#mirror()}).
+	 * @return The mirrored move.
+	 */
+	public Move mirror() {
+		int last = Position.FILES - 1;
+		return new Move(piece, new Pair<>(last - fromSquare.getKey(), fromSquare.getValue()),
+				new Pair<>(last - toSquare.getKey(), toSquare.getValue()));
+	}
+	
 	@Override
 	public int hashCode() {
 		// a square is a pair (i, j) with 0 <= i <= 8 and 0 <= j <= 9
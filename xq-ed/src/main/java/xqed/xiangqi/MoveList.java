@@ -0,0 +1,101 @@
+package xqed.xiangqi;
+
+import java.util.Arrays;
+
+/**
+ * A reusable list of packed moves (see {@link PackedMove}). Move generation
+ * appends to a MoveList instead of allocating a new collection, so a caller
+ * that keeps one list per search ply does not allocate at all once the lists
+ * have grown to fit.
+ */
+public final class MoveList {
+
+	/** Enough room for the legal moves of any realistic position. */
+	private static final int DEFAULT_CAPACITY = 128;
+
+	/** The packed moves. Only the first size entries are meaningful. */
+	private int[] moves;
+
+	/** The number of moves in the list. */
+	private int size;
+
+	/**
+	 * Create an empty list.
+	 */
+	public MoveList() {
+		moves = new int[DEFAULT_CAPACITY];
+		size = 0;
+	}
+
+	/**
+	 * Add a move to the end of the list.
+	 * @param move The packed move to add.
+	 */
+	public void add(int move) {
+		if (size == moves.length) {
+			moves = Arrays.copyOf(moves, 2 * size);
+		}
+		moves[size++] = move;
+	}
+
+	/**
+	 * Get the move at a given index.
+	 * @param index The index of the move.
+	 * @return The packed move.
+	 */
+	public int get(int index) {
+		return moves[index];
+	}
+
+	/**
+	 * Replace the move at a given index.
+	 * @param index The index to replace.
+	 * @param move The new packed move.
+	 */
+	public void set(int index, int move) {
+		moves[index] = move;
+	}
+
+	/**
+	 * Exchange two moves in the list.
+	 * @param i The index of one move.
+	 * @param j The index of the other move.
+	 */
+	public void swap(int i, int j) {
+		int tmp = moves[i];
+		moves[i] = moves[j];
+		moves[j] = tmp;
+	}
+
+	/**
+	 * Get the number of moves in the list.
+	 * @return The size of the list.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Determine whether the list is empty.
+	 * @return True if there are no moves in the list.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Shorten the list, dropping moves at the end.
+	 * @param newSize The number of moves to keep.
+	 */
+	public void truncate(int newSize) {
+		size = newSize;
+	}
+
+	/**
+	 * Remove all moves, keeping the buffer for reuse.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+}
@@ -81,8 +81,7 @@ public class PGNGameListener extends PGNBaseListener {
 		}
 		Move m;
 		try {
-			m = treePointer.getPosition().interpretMove(ctx.getText(),
-					treePointer.getPlayerToMove());
+			m = treePointer.interpretMove(ctx.getText());
 		} catch (ParseException e) {
 			pgnError = Optional.of(e);
 			return;
@@ -0,0 +1,179 @@
+package xqed.xiangqi;
+
+import javafx.util.Pair;
+
+/**
+ * Helpers for moves packed into a single int. This is the representation
+ * used by move generation, where allocating a {@link Move} per move would be
+ * too expensive. A packed move holds the from square in bits 0-6, the to
+ * square in bits 7-13, the code of the moving piece in bits 14-17 and the
+ * code of the captured piece (0 if none) in bits 18-21. Squares are numbered
+ * rank * 9 + file.
+ */
+public final class PackedMove {
+
+	/** A value which never represents a real move. */
+	public static final int NONE = 0;
+
+	/** Mask for a square field. */
+	private static final int SQUARE_MASK = 0x7f;
+	/** Mask for a piece field. */
+	private static final int PIECE_MASK = 0xf;
+
+	private PackedMove() {}
+
+	/**
+	 * Pack a move.
+	 * @param from The square moved from.
+	 * @param to The square moved to.
+	 * @param moved The code of the moving piece.
+	 * @param captured The code of the captured piece, or 0.
+	 * @return The packed move.
+	 */
+	static int encode(int from, int to, int moved, int captured) {
+		return from | to << 7 | moved << 14 | captured << 18;
+	}
+
+	/**
+	 * Get the square a packed move starts on.
+	 * @param move The packed move.
+	 * @return The from square.
+	 */
+	static int from(int move) {
+		return move & SQUARE_MASK;
+	}
+
+	/**
+	 * Get the square a packed move ends on.
+	 * @param move The packed move.
+	 * @return The to square.
+	 */
+	static int to(int move) {
+		return (move >> 7) & SQUARE_MASK;
+	}
+
+	/**
+	 * Get the code of the piece making a packed move.
+	 * @param move The packed move.
+	 * @return The code of the moving piece.
+	 */
+	static int movedCode(int move) {
+		return (move >> 14) & PIECE_MASK;
+	}
+
+	/**
+	 * Get the code of the piece captured by a packed move.
+	 * @param move The packed move.
+	 * @return The code of the captured piece, or 0 if nothing is captured.
+	 */
+	static int capturedCode(int move) {
+		return (move >> 18) & PIECE_MASK;
+	}
+
+	/**
+	 * Get the file a packed move starts on.
+	 * @param move The packed move.
+	 * @return The from file.
+	 */
+	public static int fromFile(int move) {
+		return Position.fileOf(from(move));
+	}
+
+	/**
+	 * Get the rank a packed move starts on.
+	 * @param move The packed move.
+	 * @return The from rank.
+	 */
+	public static int fromRank(int move) {
+		return Position.rankOf(from(move));
+	}
+
+	/**
+	 * Get the file a packed move ends on.
+	 * @param move The packed move.
+	 * @return The to file.
+	 */
+	public static int toFile(int move) {
+		return Position.fileOf(to(move));
+	}
+
+	/**
+	 * Get the rank a packed move ends on.
+	 * @param move The packed move.
+	 * @return The to rank.
+	 */
+	public static int toRank(int move) {
+		return Position.rankOf(to(move));
+	}
+
+	/**
+	 * Get the piece making a packed move.
+	 * @param move The packed move.
+	 * @return The moving piece.
+	 */
+	public static Piece getPiece(int move) {
+		return Piece.fromCode(movedCode(move));
+	}
+
+	/**
+	 * Get the piece captured by a packed move.
+	 * @param move The packed move.
+	 * @return The captured piece, which is empty if this is not a capture.
+	 */
+	public static Piece getCaptured(int move) {
+		return Piece.fromCode(capturedCode(move));
+	}
+
+	/**
+	 * Determine whether a packed move captures a piece.
+	 * @param move The packed move.
+	 * @return True if the move is a capture.
+	 */
+	public static boolean isCapture(int move) {
+		return capturedCode(move) != Piece.EMPTY_CODE;
+	}
+
+	/**
+	 * Reflect a packed move across the central file, giving the same move in
+	 * the mirrored position (see {@link Position#mirror()}).
+	 * @param move The packed move.
+	 * @return The mirrored move.
+	 */
+	public static int mirror(int move) {
+		return encode(Position.mirrorSquare(from(move)), Position.mirrorSquare(to(move)),
+				movedCode(move), capturedCode(move));
+	}
+	
+	/**
+	 * Convert a packed move to a {@link Move}.
+	 * @param move The packed move.
+	 * @return The same move as a Move object.
+	 */
+	public static Move toMove(int move) {
+		return new Move(getPiece(move), new Pair<>(fromFile(move), fromRank(move)),
+				new Pair<>(toFile(move), toRank(move)));
+	}
+
+	/**
+	 * Pack a {@link Move}.
+	 * @param move The move to pack.
+	 * @param pos The position before the move, used to find the captured piece.
+	 * @return The packed move.
+	 */
+	public static int fromMove(Move move, Position pos) {
+		int from = Position.toSquare(move.getFromSquare().getKey(), move.getFromSquare().getValue());
+		int to = Position.toSquare(move.getToSquare().getKey(), move.getToSquare().getValue());
+		return encode(from, to, move.getPiece().toCode(), pos.codeAt(to));
+	}
+
+	/**
+	 * Write a packed move in UCCI format, e.g., h3e3.
+	 * @param move The packed move.
+	 * @return The move as a string.
+	 */
+	public static String toString(int move) {
+		return Move.pointToString(fromFile(move), fromRank(move)) +
+				Move.pointToString(toFile(move), toRank(move));
+	}
+
+}
@@ -0,0 +1,250 @@
+package xqed.xiangqi;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the leaf nodes of the legal move tree to a fixed depth (perft). The
+ * counts can be compared against published values to validate move
+ * generation, and timing them measures generator throughput.
+ */
+public final class Perft {
+
+	/**
+	 * Counts the subtree below one root move. Each task works on its own copy
+	 * of the position so tasks can run on different threads.
+	 */
+	private static class SubtreeTask extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+
+		/** The position after the root move. */
+		private final Position pos;
+		/** The color ordinal of the side to move after the root move. */
+		private final int side;
+		/** The remaining depth below the root move. */
+		private final int depth;
+
+		/**
+		 * Create a task for the subtree below a root move.
+		 * @param root The position before the root move.
+		 * @param move The packed root move.
+		 * @param depth The remaining depth below the root move.
+		 */
+		SubtreeTask(Position root, int move, int depth) {
+			pos = root.clone();
+			pos.doMove(move);
+			side = 1 - (PackedMove.movedCode(move) >> 3);
+			this.depth = depth;
+		}
+
+		@Override
+		protected Long compute() {
+			return count(pos, side, depth, newLists(depth));
+		}
+	}
+
+	private Perft() {}
+
+	/**
+	 * Allocate one move list per remaining ply.
+	 * @param depth The number of plies to search.
+	 * @return The move lists.
+	 */
+	private static MoveList[] newLists(int depth) {
+		MoveList[] lists = new MoveList[Math.max(depth, 1)];
+		for (int i = 0; i < lists.length; i++) {
+			lists[i] = new MoveList();
+		}
+		return lists;
+	}
+
+	/**
+	 * Count leaf nodes without allocating.
+	 * @param pos The position to search. It is restored before returning.
+	 * @param side The color ordinal of the side to move.
+	 * @param depth The number of plies to search.
+	 * @param lists One reusable move list per remaining ply.
+	 * @return The number of leaf nodes.
+	 */
+	private static long count(Position pos, int side, int depth, MoveList[] lists) {
+		if (depth == 0) {
+			return 1;
+		}
+		MoveList moves = lists[depth - 1];
+		moves.clear();
+		pos.generateLegalMoves(side == 0 ? Piece.Color.RED : Piece.Color.BLACK, moves);
+		if (depth == 1) {
+			return moves.size();
+		}
+		long nodes = 0;
+		for (int i = 0; i < moves.size(); i++) {
+			pos.doMove(moves.get(i));
+			nodes += count(pos, 1 - side, depth - 1, lists);
+			pos.undoMove();
+		}
+		return nodes;
+	}
+
+	/**
+	 * Count the leaf nodes of the legal move tree.
+	 * @param pos The position to start from. It is not changed.
+	 * @param toMove The side to move.
+	 * @param depth The number of plies to search.
+	 * @return The number of leaf nodes.
+	 */
+	public static long perft(Position pos, Piece.Color toMove, int depth) {
+		return count(pos.clone(), toMove.ordinal(), depth, newLists(depth));
+	}
+
+	/**
+	 * Count the leaf nodes below each root move.
+	 * @param pos The position to start from. It is not changed.
+	 * @param toMove The side to move.
+	 * @param depth The number of plies to search, including the root move.
+	 * @param pool The pool to split root moves across, or null to count on
+	 * the calling thread.
+	 * @return The leaf count for each root move in UCCI format, in generation
+	 * order.
+	 */
+	public static Map<String, Long> divide(Position pos, Piece.Color toMove,
+			int depth, ForkJoinPool pool) {
+		Map<String, Long> ret = new LinkedHashMap<>();
+		if (depth < 1) {
+			return ret;
+		}
+		MoveList roots = new MoveList();
+		pos.generateLegalMoves(toMove, roots);
+		if (pool == null) {
+			Position work = pos.clone();
+			MoveList[] lists = newLists(depth - 1);
+			for (int i = 0; i < roots.size(); i++) {
+				work.doMove(roots.get(i));
+				ret.put(PackedMove.toString(roots.get(i)),
+						count(work, 1 - toMove.ordinal(), depth - 1, lists));
+				work.undoMove();
+			}
+			return ret;
+		}
+		List<SubtreeTask> tasks = new ArrayList<>();
+		for (int i = 0; i < roots.size(); i++) {
+			tasks.add(new SubtreeTask(pos, roots.get(i), depth - 1));
+		}
+		pool.invoke(new RecursiveTask<Void>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected Void compute() {
+				invokeAll(tasks);
+				return null;
+			}
+		});
+		for (int i = 0; i < roots.size(); i++) {
+			ret.put(PackedMove.toString(roots.get(i)), tasks.get(i).join());
+		}
+		return ret;
+	}
+
+	/**
+	 * Count leaf nodes, splitting the root moves across a fork/join pool.
+	 * @param pos The position to start from. It is not changed.
+	 * @param toMove The side to move.
+	 * @param depth The number of plies to search.
+	 * @param pool The pool to run subtrees on.
+	 * @return The number of leaf nodes.
+	 */
+	public static long perft(Position pos, Piece.Color toMove, int depth,
+			ForkJoinPool pool) {
+		if (depth < 2) {
+			return perft(pos, toMove, depth);
+		}
+		long nodes = 0;
+		for (long n : divide(pos, toMove, depth, pool).values()) {
+			nodes += n;
+		}
+		return nodes;
+	}
+
+	/**
+	 * Print usage information for the command line tool.
+	 */
+	private static void usage() {
+		System.err.println("usage: Perft [--divide] [--threads N] <depth> [fen]");
+		System.err.println("  fen defaults to the starting position; the side to move");
+		System.err.println("  is read from the second FEN field (w or b)");
+	}
+
+	/**
+	 * Run perft from the command line and report node counts and speed.
+	 * @param args Command line arguments; see {@link #usage()}.
+	 */
+	public static void main(String[] args) {
+		boolean divide = false;
+		int threads = 1;
+		int depth = -1;
+		StringBuilder fen = new StringBuilder();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("--divide")) {
+					divide = true;
+				} else if (args[i].equals("--threads")) {
+					threads = Integer.parseInt(args[++i]);
+				} else if (depth < 0) {
+					depth = Integer.parseInt(args[i]);
+				} else {
+					fen.append(args[i]).append(' ');
+				}
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			usage();
+			System.exit(1);
+		}
+		if (depth < 0 || threads < 1) {
+			usage();
+			System.exit(1);
+		}
+		Position pos = new Position();
+		Piece.Color toMove = Piece.Color.RED;
+		String[] fields = fen.toString().strip().split("\\s+");
+		if (!fields[0].isEmpty()) {
+			try {
+				pos = new Position(fields[0]);
+			} catch (ParseException e) {
+				System.err.println("Could not parse FEN: " + e.getMessage());
+				System.exit(1);
+			}
+			if (fields.length > 1 && fields[1].equals("b")) {
+				toMove = Piece.Color.BLACK;
+			}
+		}
+
+		ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		long start = System.nanoTime();
+		long nodes = 0;
+		if (divide) {
+			Map<String, Long> counts = divide(pos, toMove, depth, pool);
+			for (Map.Entry<String, Long> e : counts.entrySet()) {
+				System.out.println(e.getKey() + ": " + e.getValue());
+				nodes += e.getValue();
+			}
+			System.out.println();
+		} else if (pool != null) {
+			nodes = perft(pos, toMove, depth, pool);
+		} else {
+			nodes = perft(pos, toMove, depth);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		if (pool != null) {
+			pool.shutdown();
+		}
+		System.out.println("Nodes: " + nodes);
+		System.out.println(String.format("Time: %.3f s", seconds));
+		System.out.println(String.format("Speed: %.0f nodes/s",
+				seconds > 0 ? nodes / seconds : 0.0));
+	}
+
+}
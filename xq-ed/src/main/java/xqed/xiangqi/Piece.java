@@ -37,102 +37,164 @@ public class Piece {
 			return Piece.Color.RED;
 		}
 	}
-	
-	/** The color of this piece. */
-	private Color color;
-	/** The type of this piece. */
-	private Type type;
-	
+
+	/*
+	 * Compact piece codes used by the board representation in Position. The
+	 * low three bits hold the type (Type.ordinal() + 1) and BLACK_FLAG is set
+	 * for black pieces, so the side of a piece is code >> 3. An empty point has
+	 * code 0.
+	 */
+
+	/** Cached so that decoding a type does not copy the values array. */
+	private static final Type[] TYPES = Type.values();
+
+	/** The code of an empty point. */
+	static final int EMPTY_CODE = 0;
+	/** The type bits of a pawn code. */
+	static final int PAWN_CODE = 1;
+	/** The type bits of a cannon code. */
+	static final int CANNON_CODE = 2;
+	/** The type bits of a horse code. */
+	static final int HORSE_CODE = 3;
+	/** The type bits of a rook code. */
+	static final int ROOK_CODE = 4;
+	/** The type bits of a king code. */
+	static final int KING_CODE = 5;
+	/** The type bits of an advisor code. */
+	static final int ADVISOR_CODE = 6;
+	/** The type bits of an elephant code. */
+	static final int ELEPHANT_CODE = 7;
+	/** Mask selecting the type bits of a code. */
+	static final int TYPE_MASK = 7;
+	/** Set in the codes of black pieces. */
+	static final int BLACK_FLAG = 8;
+
 	/**
-	 * Create a new empty piece.
+	 * The material value of each type of piece in hundredths of a pawn,
+	 * indexed by the type bits of a code. The king is worth more than every
+	 * other piece together so that exchanges never give it up.
 	 */
-	public Piece() {
-		this.setColor(Color.RED);
-		this.setType(Type.EMPTY);
+	static final int[] VALUE = { 0, 100, 450, 400, 900, 10000, 200, 200 };
+
+	/**
+	 * Get the compact code for a piece with the given color and type.
+	 * @param color The color of the piece.
+	 * @param type The type of the piece.
+	 * @return The compact code, or EMPTY_CODE for empty points.
+	 */
+	static int toCode(Color color, Type type) {
+		if (type == Type.EMPTY) {
+			return EMPTY_CODE;
+		}
+		return (type.ordinal() + 1) | (color == Color.BLACK ? BLACK_FLAG : 0);
 	}
-	
+
 	/**
-	 * Construct a new piece given it's color and type.
-	 * @param color The color of this piece.
-	 * @param type The type of this piece.
+	 * Get the color of a piece from its compact code.
+	 * @param code A non-empty piece code.
+	 * @return The color of the piece.
 	 */
-	public Piece(Color color, Type type) {
-		this.setColor(color);
-		this.setType(type);
+	static Color colorOf(int code) {
+		return (code & BLACK_FLAG) == 0 ? Color.RED : Color.BLACK;
 	}
-	
+
+	/**
+	 * Get the type of a piece from its compact code.
+	 * @param code A piece code.
+	 * @return The type of the piece.
+	 */
+	static Type typeOf(int code) {
+		if ((code & TYPE_MASK) == EMPTY_CODE) {
+			return Type.EMPTY;
+		}
+		return TYPES[(code & TYPE_MASK) - 1];
+	}
+
+	/**
+	 * The shared piece object for each compact code. Since pieces are
+	 * immutable, every occupant of the board can be represented by one of
+	 * these, and pieces obtained from {@link #of} or {@link #fromCode} can be
+	 * compared with ==.
+	 */
+	private static final Piece[] BY_CODE = new Piece[16];
+
+	static {
+		for (int code = 0; code < BY_CODE.length; code++) {
+			BY_CODE[code] = new Piece(code);
+		}
+	}
+
+	/** The shared empty piece. */
+	public static final Piece EMPTY = BY_CODE[EMPTY_CODE];
+
+	/** The FEN character for each compact code. */
+	private static final String FEN_CODES = "-PCHRKAE-pchrkae";
+
+	/**
+	 * Get the piece with a given compact code.
+	 * @param code A piece code.
+	 * @return A shared piece object with that code.
+	 */
+	static Piece fromCode(int code) {
+		return BY_CODE[code];
+	}
+
+	/**
+	 * Get the shared piece with a given color and type.
+	 * @param color The color of the piece.
+	 * @param type The type of the piece.
+	 * @return The shared piece object, which is {@link #EMPTY} for empty
+	 * points regardless of color.
+	 */
+	public static Piece of(Color color, Type type) {
+		return BY_CODE[toCode(color, type)];
+	}
+
 	/**
-	 * Construct a new piece from the character representation used in FEN
+	 * Get the shared piece for the character representation used in FEN
 	 * strings. The piece code may be any of 'a' for advisor, 'c' for cannon,
 	 * 'e' for elephant, 'h' for horse, 'k' for king, 'p' for pawn, 'r' for
 	 * rook, or their capitalized versions. The lower case letters correspond
 	 * to black pieces and the upper case letters correspond to red pieces.
-	 * @param code The character representing this piece.
+	 * @param code The character representing the piece.
+	 * @return The shared piece object.
 	 * @throws ParseException If the given character does not represent a piece.
 	 */
-	public Piece(char code) throws ParseException {
-		switch (code) {
-		case 'a':
-			this.color = Color.BLACK;
-			this.type = Type.ADVISOR;
-			break;
-		case 'A':
-			this.color = Color.RED;
-			this.type = Type.ADVISOR;
-			break;
-		case 'e':
-			this.color = Color.BLACK;
-			this.type = Type.ELEPHANT;
-			break;
-		case 'E':
-			this.color = Color.RED;
-			this.type = Type.ELEPHANT;
-			break;
-		case 'h':
-			this.color = Color.BLACK;
-			this.type = Type.HORSE;
-			break;
-		case 'H':
-			this.color = Color.RED;
-			this.type = Type.HORSE;
-			break;
-		case 'k':
-			this.color = Color.BLACK;
-			this.type = Type.KING;
-			break;
-		case 'K':
-			this.color = Color.RED;
-			this.type = Type.KING;
-			break;
-		case 'r':
-			this.color = Color.BLACK;
-			this.type = Type.ROOK;
-			break;
-		case 'R':
-			this.color = Color.RED;
-			this.type = Type.ROOK;
-			break;
-		case 'c':
-			this.color = Color.BLACK;
-			this.type = Type.CANNON;
-			break;
-		case 'C':
-			this.color = Color.RED;
-			this.type = Type.CANNON;
-			break;
-		case 'p':
-			this.color = Color.BLACK;
-			this.type = Type.PAWN;
-			break;
-		case 'P':
-			this.color = Color.RED;
-			this.type = Type.PAWN;
-			break;
-		default:
+	public static Piece of(char code) throws ParseException {
+		return BY_CODE[codeOf(code)];
+	}
+
+	/**
+	 * Get the compact code for a FEN character.
+	 * @param c The character representing a piece.
+	 * @return The compact code of the piece.
+	 * @throws ParseException If the given character does not represent a piece.
+	 */
+	static int codeOf(char c) throws ParseException {
+		int index = FEN_CODES.indexOf(c);
+		if (index <= 0 || index == BLACK_FLAG) {
 			throw new ParseException("Unrecognized piece code", 0);
 		}
+		return index;
 	}
 
+	/** The color of this piece. */
+	private final Color color;
+	/** The type of this piece. */
+	private final Type type;
+	/** The compact code of this piece. */
+	private final int code;
+	
+	/**
+	 * Create the piece with a given compact code.
+	 * @param code The compact code.
+	 */
+	private Piece(int code) {
+		this.color = colorOf(code);
+		this.type = typeOf(code);
+		this.code = code;
+	}
+	
 	/**
 	 * Get the color of this piece.
 	 * @return The color of this piece.
@@ -141,14 +203,6 @@ public class Piece {
 		return color;
 	}
 
-	/**
-	 * Set the color of this piece.
-	 * @param color The new color of the piece.
-	 */
-	public void setColor(Color color) {
-		this.color = color;
-	}
-
 	/**
 	 * Get the type of this piece.
 	 * @return The type of this piece.
@@ -156,14 +210,6 @@ public class Piece {
 	public Type getType() {
 		return type;
 	}
-
-	/**
-	 * Set the type of this piece.
-	 * @param type The new type of this piece.
-	 */
-	public void setType(Type type) {
-		this.type = type;
-	}
 	
 	/**
 	 * Determine whether this piece is empty.
@@ -172,37 +218,27 @@ public class Piece {
 	public boolean isEmpty() {
 		return this.type == Type.EMPTY;
 	}
-	
+
+	/**
+	 * Get the material value of this piece, as counted by
+	 * {@link Position#getMaterial}.
+	 * @return The value in hundredths of a pawn, or 0 for an empty point.
+	 */
+	public int getValue() {
+		return VALUE[code & TYPE_MASK];
+	}
+
+	/**
+	 * Get the compact code of this piece used by the board representation.
+	 * @return The code of this piece.
+	 */
+	int toCode() {
+		return code;
+	}
+
 	@Override
 	public int hashCode() {
-		int code;
-		switch (type) {
-		case PAWN:
-			code = 0;
-			break;
-		case CANNON:
-			code = 1;
-			break;
-		case ROOK:
-			code = 2;
-			break;
-		case HORSE:
-			code = 3;
-			break;
-		case ELEPHANT:
-			code = 4;
-			break;
-		case ADVISOR:
-			code = 5;
-			break;
-		case KING:
-			code = 6;
-			break;
-		default:
-			code = 7;
-		}
-		int colCode = color == Color.RED ? 1 : 0;
-		return 8 * colCode + code;
+		return code;
 	}
 	
 	/**
@@ -210,30 +246,18 @@ public class Piece {
 	 * @return A character representing this piece.
 	 */
 	public char getCode() {
-		switch (type) {
-		case PAWN:
-			return color == Color.BLACK ? 'p' : 'P';
-		case CANNON:
-			return color == Color.BLACK ? 'c' : 'C';
-		case ROOK:
-			return color == Color.BLACK ? 'r' : 'R';
-		case HORSE:
-			return color == Color.BLACK ? 'h' : 'H';
-		case ELEPHANT:
-			return color == Color.BLACK ? 'e' : 'E';
-		case ADVISOR:
-			return color == Color.BLACK ? 'a' : 'A';
-		case KING:
-			return color == Color.BLACK ? 'k' : 'K';
-		default:
-			return '-';
-		}
+		return FEN_CODES.charAt(code);
 	}
 	
 	@Override
 	public boolean equals(Object obj) {
-		Piece other = (Piece) obj;
-		return this.getType() == other.getType() && this.getColor() == other.getColor();
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof Piece)) {
+			return false;
+		}
+		return this.code == ((Piece) obj).code;
 	}
 	
 }
@@ -0,0 +1,128 @@
+package xqed.xiangqi;
+
+/**
+ * Positional bonuses for each piece on each square, in the same units as
+ * {@link Piece#VALUE}. The tables below are written from Red's side, with
+ * Black's back rank first as on the board, and are mirrored top to bottom
+ * for Black. They favour advanced pawns near the centre, active horses and
+ * rooks, central cannons early on, and keeping the defenders in the middle
+ * of the palace.
+ */
+final class PieceSquareTables {
+
+	/** The bonus for each piece code on each square, indexed [code][sq]. */
+	static final int[][] BONUS = new int[16][Position.SQUARES];
+
+	private static final int[] PAWN = {
+		 0,  3,  6,  9, 12,  9,  6,  3,  0,
+		18, 36, 56, 80, 90, 80, 56, 36, 18,
+		14, 26, 42, 60, 80, 60, 42, 26, 14,
+		10, 20, 30, 34, 40, 34, 30, 20, 10,
+		 6, 12, 18, 18, 20, 18, 18, 12,  6,
+		 2,  0,  8,  0,  8,  0,  8,  0,  2,
+		 0,  0, -2,  0,  4,  0, -2,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0
+	};
+
+	private static final int[] CANNON = {
+		 6,  4,  0,-10,-12,-10,  0,  4,  6,
+		 2,  2,  0, -4,-14, -4,  0,  2,  2,
+		 2,  2,  0,-10, -8,-10,  0,  2,  2,
+		 0,  0, -2,  4, 10,  4, -2,  0,  0,
+		 0,  0,  0,  2,  8,  2,  0,  0,  0,
+		-2,  0,  4,  2,  6,  2,  4,  0, -2,
+		 0,  0,  0,  2,  4,  2,  0,  0,  0,
+		 4,  0,  8,  6, 10,  6,  8,  0,  4,
+		 0,  2,  4,  6,  6,  6,  4,  2,  0,
+		 0,  0,  2,  6,  6,  6,  2,  0,  0
+	};
+
+	private static final int[] HORSE = {
+		 4,  8, 16, 12,  4, 12, 16,  8,  4,
+		 4, 10, 28, 16,  8, 16, 28, 10,  4,
+		12, 14, 16, 20, 18, 20, 16, 14, 12,
+		 8, 24, 18, 24, 20, 24, 18, 24,  8,
+		 6, 16, 14, 18, 16, 18, 14, 16,  6,
+		 4, 12, 16, 14, 12, 14, 16, 12,  4,
+		 2,  6,  8,  6, 10,  6,  8,  6,  2,
+		 4,  2,  8,  8,  4,  8,  8,  2,  4,
+		 0,  2,  4,  4, -2,  4,  4,  2,  0,
+		 0, -4,  0,  0,  0,  0,  0, -4,  0
+	};
+
+	private static final int[] ROOK = {
+		14, 14, 12, 18, 16, 18, 12, 14, 14,
+		16, 20, 18, 24, 26, 24, 18, 20, 16,
+		12, 12, 12, 18, 18, 18, 12, 12, 12,
+		12, 18, 16, 22, 22, 22, 16, 18, 12,
+		12, 14, 12, 18, 18, 18, 12, 14, 12,
+		12, 16, 14, 20, 20, 20, 14, 16, 12,
+		 6, 10,  8, 14, 14, 14,  8, 10,  6,
+		 4,  8,  6, 14, 12, 14,  6,  8,  4,
+		 8,  4,  8, 16,  8, 16,  8,  4,  8,
+		-2, 10,  6, 14, 12, 14,  6, 10, -2
+	};
+
+	private static final int[] KING = {
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0, -9, -9, -9,  0,  0,  0,
+		 0,  0,  0, -8, -8, -8,  0,  0,  0,
+		 0,  0,  0,  1,  5,  1,  0,  0,  0
+	};
+
+	private static final int[] ADVISOR = {
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0, -2,  0, -2,  0,  0,  0,
+		 0,  0,  0,  0,  3,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0
+	};
+
+	private static final int[] ELEPHANT = {
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0, -2,  0,  0,  0, -2,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		-2,  0,  0,  0,  3,  0,  0,  0, -2,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0,
+		 0,  0,  0,  0,  0,  0,  0,  0,  0
+	};
+
+	static {
+		int[][] byType = new int[8][];
+		byType[Piece.PAWN_CODE] = PAWN;
+		byType[Piece.CANNON_CODE] = CANNON;
+		byType[Piece.HORSE_CODE] = HORSE;
+		byType[Piece.ROOK_CODE] = ROOK;
+		byType[Piece.KING_CODE] = KING;
+		byType[Piece.ADVISOR_CODE] = ADVISOR;
+		byType[Piece.ELEPHANT_CODE] = ELEPHANT;
+		for (int type = 1; type < byType.length; type++) {
+			for (int sq = 0; sq < Position.SQUARES; sq++) {
+				int mirrored = Position.toSquare(Position.fileOf(sq),
+						Position.RANKS - 1 - Position.rankOf(sq));
+				BONUS[type][sq] = byType[type][sq];
+				BONUS[type | Piece.BLACK_FLAG][sq] = byType[type][mirrored];
+			}
+		}
+	}
+
+	private PieceSquareTables() {}
+
+}
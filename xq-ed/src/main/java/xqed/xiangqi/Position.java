@@ -2,64 +2,255 @@ package xqed.xiangqi;
 
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import javafx.util.Pair;
 
 /**
- * Represents a Xiangqi board position.
+ * Represents a Xiangqi board position. Each side can have at most 16 pieces
+ * (its full set) on the board.
  */
 public class Position {
 	
+	/** The number of files on the board. */
+	static final int FILES = 9;
+	/** The number of ranks on the board. */
+	static final int RANKS = 10;
+	/** The number of points on the board. */
+	static final int SQUARES = FILES * RANKS;
+	/** The largest number of pieces one side may have on the board. */
+	static final int MAX_PIECES = 16;
+	
+	/**
+	 * Get the index of a point in the square array.
+	 * @param file The file of the point.
+	 * @param rank The rank of the point.
+	 * @return The square index of the point.
+	 */
+	static int toSquare(int file, int rank) {
+		return rank * FILES + file;
+	}
+	
+	/**
+	 * Get the file of a square index.
+	 * @param sq The square index.
+	 * @return The file of the square.
+	 */
+	static int fileOf(int sq) {
+		return sq % FILES;
+	}
+	
+	/**
+	 * Get the rank of a square index.
+	 * @param sq The square index.
+	 * @return The rank of the square.
+	 */
+	static int rankOf(int sq) {
+		return sq / FILES;
+	}
+	
+	/**
+	 * Get the square reflected across the central file.
+	 * @param sq The square index.
+	 * @return The square on the same rank and the opposite file.
+	 */
+	static int mirrorSquare(int sq) {
+		return sq + FILES - 1 - 2 * fileOf(sq);
+	}
+	
+	/**
+	 * The compact piece code (see {@link Piece#toCode()}) at each point on the
+	 * board. The board is represented from the top down and left to right, so
+	 * squares[r * 9 + f] is at Black's f'th file and r ranks down from Black's
+	 * back row.
+	 */
+	private byte[] squares;
+	
+	/**
+	 * The squares occupied by each side, indexed by color ordinal. Only the
+	 * first pieceCount[side] entries of each list are meaningful.
+	 */
+	private byte[][] pieceList;
+	
+	/** The number of pieces each side has on the board. */
+	private int[] pieceCount;
+	
+	/** For each occupied square, its index in the owning side's piece list. */
+	private byte[] listIndex;
+	
+	/**
+	 * The squares holding each kind of piece, indexed by piece code. Only the
+	 * first typeCount[code] entries of each list are meaningful.
+	 */
+	private byte[][] typeList;
+	
+	/** The number of pieces with each code on the board. */
+	private int[] typeCount;
+	
+	/** For each occupied square, its index in the list for its piece code. */
+	private byte[] typeIndex;
+	
+	/** The square of each side's king, or -1 if that side has no king. */
+	private int[] kingSquare;
+	
+	/**
+	 * The occupancy of each rank as a 9-bit mask, with bit f set if the point
+	 * on file f is occupied. Used to look up slides in {@link SliderTables}.
+	 */
+	private int[] rankOccupancy;
+	
+	/**
+	 * The occupancy of each file as a 10-bit mask, with bit r set if the
+	 * point on rank r is occupied.
+	 */
+	private int[] fileOccupancy;
+	
+	/**
+	 * The Zobrist hash of the pieces on the board (see {@link Zobrist}). The
+	 * side to move is not included.
+	 */
+	private long hash;
+	
+	/**
+	 * The Zobrist hash of the board reflected across the central file, kept
+	 * up to date alongside hash.
+	 */
+	private long mirrorHash;
+	
+	/**
+	 * The material of each side: the sum of {@link Piece#VALUE} over its
+	 * pieces other than the king. Kept up to date as pieces are set, cleared
+	 * and moved.
+	 */
+	private int[] material;
+	
+	/**
+	 * The positional score of each side: the sum of the
+	 * {@link PieceSquareTables} bonuses of its pieces. Kept up to date like
+	 * the material.
+	 */
+	private int[] positional;
+	
+	/** An empty undo stack shared by positions which have not made a move. */
+	private static final int[] NO_UNDO = new int[0];
+	
+	/**
+	 * One record per move made with {@link #doMove}, packed like a
+	 * {@link PackedMove} with the placed piece added in bits 22-25. Moved
+	 * was on the from square, captured was on the to square and placed is the
+	 * piece put on the to square. The stack is only grown, never shrunk, so a
+	 * position reused for many moves stops allocating.
+	 */
+	private int[] undoStack;
+	
+	/** The number of records on the undo stack. */
+	private int undoCount;
+	
+	/**
+	 * A move list reused by {@link #hasAnyLegalMove} and {@link #canMoveTo},
+	 * created when first needed. It is not copied by {@link #clone()}.
+	 */
+	private MoveList scratch;
+	
+	/**
+	 * The running gains of the exchange worked out by {@link #see}, created
+	 * when first needed. It is not copied by {@link #clone()}.
+	 */
+	private int[] seeGain;
+	
+	/**
+	 * Create an empty board, or copy a position. Each array is allocated once,
+	 * either empty or as a copy, since copies are made for every move tried.
+	 * The new position starts with an empty undo stack.
+	 * @param source The position to copy, or null for an empty board.
+	 */
+	private Position(Position source) {
+		if (source == null) {
+			squares = new byte[SQUARES];
+			pieceList = new byte[2][MAX_PIECES];
+			pieceCount = new int[2];
+			listIndex = new byte[SQUARES];
+			typeCount = new int[16];
+			typeIndex = new byte[SQUARES];
+			kingSquare = new int[] { -1, -1 };
+			rankOccupancy = new int[RANKS];
+			fileOccupancy = new int[FILES];
+			hash = 0;
+			mirrorHash = 0;
+			material = new int[2];
+			positional = new int[2];
+		} else {
+			squares = source.squares.clone();
+			pieceList = new byte[][] {
+				source.pieceList[0].clone(), source.pieceList[1].clone()
+			};
+			pieceCount = source.pieceCount.clone();
+			listIndex = source.listIndex.clone();
+			typeCount = source.typeCount.clone();
+			typeIndex = source.typeIndex.clone();
+			kingSquare = source.kingSquare.clone();
+			rankOccupancy = source.rankOccupancy.clone();
+			fileOccupancy = source.fileOccupancy.clone();
+			hash = source.hash;
+			mirrorHash = source.mirrorHash;
+			material = source.material.clone();
+			positional = source.positional.clone();
+		}
+		typeList = new byte[16][];
+		for (int code = 0; code < typeList.length; code++) {
+			typeList[code] = source != null && typeCount[code] > 0 ?
+					source.typeList[code].clone() : new byte[MAX_PIECES];
+		}
+		undoStack = NO_UNDO;
+		undoCount = 0;
+	}
+	
 	/**
-	 * The piece at each point on the board. The board is represented from the
-	 * top down and left to right, so board[i][j] is at Black's i'th file and j
-	 * ranks down from Black's back row.
+	 * Create an empty board.
+	 * @return A position with no pieces.
 	 */
-	private Piece board[][];
+	static Position empty() {
+		return new Position((Position) null);
+	}
 	
 	/**
 	 * Generate the starting position.
 	 */
 	public Position() {
-		board = new Piece[9][10];
-		for (int f = 0; f < 9; f++) {
-			for (int r = 0; r < 10; r++) {
-				board[f][r] = new Piece();
-			}
-		}
-		board[0][0] = new Piece(Piece.Color.BLACK, Piece.Type.ROOK);
-		board[1][0] = new Piece(Piece.Color.BLACK, Piece.Type.HORSE);
-		board[2][0] = new Piece(Piece.Color.BLACK, Piece.Type.ELEPHANT);
-		board[3][0] = new Piece(Piece.Color.BLACK, Piece.Type.ADVISOR);
-		board[4][0] = new Piece(Piece.Color.BLACK, Piece.Type.KING);
-		board[5][0] = new Piece(Piece.Color.BLACK, Piece.Type.ADVISOR);
-		board[6][0] = new Piece(Piece.Color.BLACK, Piece.Type.ELEPHANT);
-		board[7][0] = new Piece(Piece.Color.BLACK, Piece.Type.HORSE);
-		board[8][0] = new Piece(Piece.Color.BLACK, Piece.Type.ROOK);
-		board[1][2] = new Piece(Piece.Color.BLACK, Piece.Type.CANNON);
-		board[7][2] = new Piece(Piece.Color.BLACK, Piece.Type.CANNON);
-		board[0][3] = new Piece(Piece.Color.BLACK, Piece.Type.PAWN);
-		board[2][3] = new Piece(Piece.Color.BLACK, Piece.Type.PAWN);
-		board[4][3] = new Piece(Piece.Color.BLACK, Piece.Type.PAWN);
-		board[6][3] = new Piece(Piece.Color.BLACK, Piece.Type.PAWN);
-		board[8][3] = new Piece(Piece.Color.BLACK, Piece.Type.PAWN);
+		this((Position) null);
+		putPiece(0, 0, Piece.Color.BLACK, Piece.Type.ROOK);
+		putPiece(1, 0, Piece.Color.BLACK, Piece.Type.HORSE);
+		putPiece(2, 0, Piece.Color.BLACK, Piece.Type.ELEPHANT);
+		putPiece(3, 0, Piece.Color.BLACK, Piece.Type.ADVISOR);
+		putPiece(4, 0, Piece.Color.BLACK, Piece.Type.KING);
+		putPiece(5, 0, Piece.Color.BLACK, Piece.Type.ADVISOR);
+		putPiece(6, 0, Piece.Color.BLACK, Piece.Type.ELEPHANT);
+		putPiece(7, 0, Piece.Color.BLACK, Piece.Type.HORSE);
+		putPiece(8, 0, Piece.Color.BLACK, Piece.Type.ROOK);
+		putPiece(1, 2, Piece.Color.BLACK, Piece.Type.CANNON);
+		putPiece(7, 2, Piece.Color.BLACK, Piece.Type.CANNON);
+		putPiece(0, 3, Piece.Color.BLACK, Piece.Type.PAWN);
+		putPiece(2, 3, Piece.Color.BLACK, Piece.Type.PAWN);
+		putPiece(4, 3, Piece.Color.BLACK, Piece.Type.PAWN);
+		putPiece(6, 3, Piece.Color.BLACK, Piece.Type.PAWN);
+		putPiece(8, 3, Piece.Color.BLACK, Piece.Type.PAWN);
 		
-		board[0][9] = new Piece(Piece.Color.RED, Piece.Type.ROOK);
-		board[1][9] = new Piece(Piece.Color.RED, Piece.Type.HORSE);
-		board[2][9] = new Piece(Piece.Color.RED, Piece.Type.ELEPHANT);
-		board[3][9] = new Piece(Piece.Color.RED, Piece.Type.ADVISOR);
-		board[4][9] = new Piece(Piece.Color.RED, Piece.Type.KING);
-		board[5][9] = new Piece(Piece.Color.RED, Piece.Type.ADVISOR);
-		board[6][9] = new Piece(Piece.Color.RED, Piece.Type.ELEPHANT);
-		board[7][9] = new Piece(Piece.Color.RED, Piece.Type.HORSE);
-		board[8][9] = new Piece(Piece.Color.RED, Piece.Type.ROOK);
-		board[1][7] = new Piece(Piece.Color.RED, Piece.Type.CANNON);
-		board[7][7] = new Piece(Piece.Color.RED, Piece.Type.CANNON);
-		board[0][6] = new Piece(Piece.Color.RED, Piece.Type.PAWN);
-		board[2][6] = new Piece(Piece.Color.RED, Piece.Type.PAWN);
-		board[4][6] = new Piece(Piece.Color.RED, Piece.Type.PAWN);
-		board[6][6] = new Piece(Piece.Color.RED, Piece.Type.PAWN);
-		board[8][6] = new Piece(Piece.Color.RED, Piece.Type.PAWN);
+		putPiece(0, 9, Piece.Color.RED, Piece.Type.ROOK);
+		putPiece(1, 9, Piece.Color.RED, Piece.Type.HORSE);
+		putPiece(2, 9, Piece.Color.RED, Piece.Type.ELEPHANT);
+		putPiece(3, 9, Piece.Color.RED, Piece.Type.ADVISOR);
+		putPiece(4, 9, Piece.Color.RED, Piece.Type.KING);
+		putPiece(5, 9, Piece.Color.RED, Piece.Type.ADVISOR);
+		putPiece(6, 9, Piece.Color.RED, Piece.Type.ELEPHANT);
+		putPiece(7, 9, Piece.Color.RED, Piece.Type.HORSE);
+		putPiece(8, 9, Piece.Color.RED, Piece.Type.ROOK);
+		putPiece(1, 7, Piece.Color.RED, Piece.Type.CANNON);
+		putPiece(7, 7, Piece.Color.RED, Piece.Type.CANNON);
+		putPiece(0, 6, Piece.Color.RED, Piece.Type.PAWN);
+		putPiece(2, 6, Piece.Color.RED, Piece.Type.PAWN);
+		putPiece(4, 6, Piece.Color.RED, Piece.Type.PAWN);
+		putPiece(6, 6, Piece.Color.RED, Piece.Type.PAWN);
+		putPiece(8, 6, Piece.Color.RED, Piece.Type.PAWN);
 	}
 	
 	/**
@@ -72,63 +263,298 @@ public class Position {
 	 * many points are empty before the next piece code. See {@link Piece}
 	 * for a list of valid piece codes. For example, the starting position is:
 	 * "rheakaehr/9/1c5c1/p1p1p1p1p/9/9/P1P1P1P1P/1C5C1/9/RHEAKAEHR".
+	 * The UCCI letters N (knight) and B (bishop) are also accepted for horses
+	 * and elephants (see {@link Fen}).
 	 * @param fen A (partial) FEN string representing a Xiangqi position.
-	 * @throws ParseException
+	 * @throws ParseException If the string does not start with a valid board.
 	 */
 	public Position(String fen) throws ParseException {
-		board = new Piece[9][10];
-		String[] ranks = fen.split("/");
-		if (ranks.length != 10) {
-			throw new ParseException("Wrong number of ranks in FEN", 0);
-		}
-		for (int f = 0; f < 9; f++) {
-			for (int r = 0; r < 10; r++) {
-				board[f][r] = new Piece(Piece.Color.RED, Piece.Type.EMPTY);
-			}
-		}
-		for (int r = 0; r < 10; r++) {
-			int f = 0;
-			int i = 0;
-			while (f < 9) {
-				if (Character.isDigit(ranks[r].charAt(i))) {
-					f += Character.getNumericValue(ranks[r].charAt(i));
-				} else {
-					board[f][r] = new Piece(ranks[r].charAt(i));
-					f++;
-				}
-				i++;
-			}
-		}
+		this((Position) null);
+		Fen.parseBoard(fen, 0, this);
 	}
 	
+	/**
+	 * Copy this position. The copy starts with an empty undo stack.
+	 */
 	@Override
 	public Position clone() {
-		Position pos = new Position();
-		for (int i = 0; i < 9; i++) {
-			for (int j = 0; j < 10; j++) {
-				pos.setPiece(i, j, board[i][j]);
+		return new Position(this);
+	}
+	
+	/**
+	 * Place a piece while setting up a position.
+	 * @param file The file to put the piece at.
+	 * @param rank The rank to put the piece at.
+	 * @param color The color of the piece.
+	 * @param type The type of the piece.
+	 */
+	private void putPiece(int file, int rank, Piece.Color color, Piece.Type type) {
+		addCode(toSquare(file, rank), Piece.toCode(color, type));
+	}
+	
+	/**
+	 * Put a piece on an empty square and add it to its side's piece list.
+	 * @param sq The (empty) square to put the piece on.
+	 * @param code The code of the piece.
+	 */
+	private void addCode(int sq, int code) {
+		int side = code >> 3;
+		int index = pieceCount[side];
+		if (index == MAX_PIECES) {
+			throw new IllegalStateException("Too many pieces on the board");
+		}
+		squares[sq] = (byte) code;
+		pieceList[side][index] = (byte) sq;
+		listIndex[sq] = (byte) index;
+		pieceCount[side] = index + 1;
+		int typeIdx = typeCount[code]++;
+		typeList[code][typeIdx] = (byte) sq;
+		typeIndex[sq] = (byte) typeIdx;
+		rankOccupancy[rankOf(sq)] |= 1 << fileOf(sq);
+		fileOccupancy[fileOf(sq)] |= 1 << rankOf(sq);
+		hash ^= Zobrist.PIECE[code][sq];
+		mirrorHash ^= Zobrist.PIECE[code][mirrorSquare(sq)];
+		positional[side] += PieceSquareTables.BONUS[code][sq];
+		if ((code & Piece.TYPE_MASK) == Piece.KING_CODE) {
+			kingSquare[side] = sq;
+		} else {
+			material[side] += Piece.VALUE[code & Piece.TYPE_MASK];
+		}
+	}
+	
+	/**
+	 * Remove the piece on an occupied square from the board and from its side's
+	 * piece list.
+	 * @param sq The (occupied) square to clear.
+	 */
+	private void removeCode(int sq) {
+		int code = squares[sq];
+		int side = code >> 3;
+		int index = listIndex[sq];
+		int last = --pieceCount[side];
+		// Move the last entry into the hole left by this piece.
+		int moved = pieceList[side][last];
+		pieceList[side][index] = (byte) moved;
+		listIndex[moved] = (byte) index;
+		int typeIdx = typeIndex[sq];
+		int lastOfType = typeList[code][--typeCount[code]];
+		typeList[code][typeIdx] = (byte) lastOfType;
+		typeIndex[lastOfType] = (byte) typeIdx;
+		squares[sq] = Piece.EMPTY_CODE;
+		rankOccupancy[rankOf(sq)] &= ~(1 << fileOf(sq));
+		fileOccupancy[fileOf(sq)] &= ~(1 << rankOf(sq));
+		hash ^= Zobrist.PIECE[code][sq];
+		mirrorHash ^= Zobrist.PIECE[code][mirrorSquare(sq)];
+		positional[side] -= PieceSquareTables.BONUS[code][sq];
+		if ((code & Piece.TYPE_MASK) != Piece.KING_CODE) {
+			material[side] -= Piece.VALUE[code & Piece.TYPE_MASK];
+		}
+		if (kingSquare[side] == sq) {
+			// Only set-up positions can have a second king to fall back on.
+			kingSquare[side] = -1;
+			for (int i = 0; i < last; i++) {
+				int other = pieceList[side][i];
+				if ((squares[other] & Piece.TYPE_MASK) == Piece.KING_CODE) {
+					kingSquare[side] = other;
+				}
 			}
 		}
-		return pos;
 	}
 	
 	/**
-	 * Place a piece at a given point.
+	 * Place a piece at a given point, replacing any piece already there.
 	 * @param file The file to put a piece at.
 	 * @param rank The rank to put a piece at.
 	 * @param piece The piece to put on the given point.
+	 * @throws IllegalArgumentException If the piece's side already has 16
+	 * other pieces on the board. The board is left unchanged.
 	 */
-	public void setPiece(int file, int rank, Piece piece) {
-		board[file][rank] = piece;
+	public void setPiece(int file, int rank, Piece piece) throws IllegalArgumentException {
+		int sq = toSquare(file, rank);
+		int code = piece.toCode();
+		int old = squares[sq];
+		if (code != Piece.EMPTY_CODE && pieceCount[code >> 3] == MAX_PIECES &&
+				(old == Piece.EMPTY_CODE || old >> 3 != code >> 3)) {
+			throw new IllegalArgumentException(piece.getColor() + " already has " +
+					MAX_PIECES + " pieces on the board");
+		}
+		if (old != Piece.EMPTY_CODE) {
+			removeCode(sq);
+		}
+		if (code != Piece.EMPTY_CODE) {
+			addCode(sq, code);
+		}
 	}
 	
+	/**
+	 * Remove every piece and forget any moves made, leaving an empty board.
+	 * This lets one position be reused for many boards (see {@link Fen}).
+	 */
+	void clear() {
+		Arrays.fill(squares, (byte) Piece.EMPTY_CODE);
+		Arrays.fill(pieceCount, 0);
+		Arrays.fill(typeCount, 0);
+		Arrays.fill(kingSquare, -1);
+		Arrays.fill(rankOccupancy, 0);
+		Arrays.fill(fileOccupancy, 0);
+		hash = 0;
+		mirrorHash = 0;
+		Arrays.fill(material, 0);
+		Arrays.fill(positional, 0);
+		undoCount = 0;
+	}
+
+	/**
+	 * Put a piece on an empty square unless its side already has as many
+	 * pieces as allowed.
+	 * @param sq The (empty) square.
+	 * @param code The compact code of the piece.
+	 * @return False if the side has no room for another piece.
+	 */
+	boolean place(int sq, int code) {
+		if (pieceCount[code >> 3] == MAX_PIECES) {
+			return false;
+		}
+		addCode(sq, code);
+		return true;
+	}
+
 	/**
 	 * Remove the piece at a given point if it exists.
 	 * @param file The file of the square to clear.
 	 * @param rank The rank of the square to clear.
 	 */
 	public void clearPiece(int file, int rank) {
-		setPiece(file, rank, new Piece());
+		int sq = toSquare(file, rank);
+		if (squares[sq] != Piece.EMPTY_CODE) {
+			removeCode(sq);
+		}
+	}
+	
+	/**
+	 * Move the piece on one square to an empty square, keeping its place in
+	 * the piece list.
+	 * @param from The (occupied) square to move from.
+	 * @param to The (empty) square to move to.
+	 */
+	private void relocate(int from, int to) {
+		int code = squares[from];
+		int index = listIndex[from];
+		pieceList[code >> 3][index] = (byte) to;
+		listIndex[to] = (byte) index;
+		typeList[code][typeIndex[from]] = (byte) to;
+		typeIndex[to] = typeIndex[from];
+		squares[to] = (byte) code;
+		squares[from] = Piece.EMPTY_CODE;
+		rankOccupancy[rankOf(from)] &= ~(1 << fileOf(from));
+		fileOccupancy[fileOf(from)] &= ~(1 << rankOf(from));
+		rankOccupancy[rankOf(to)] |= 1 << fileOf(to);
+		fileOccupancy[fileOf(to)] |= 1 << rankOf(to);
+		hash ^= Zobrist.PIECE[code][from] ^ Zobrist.PIECE[code][to];
+		mirrorHash ^= Zobrist.PIECE[code][mirrorSquare(from)] ^
+				Zobrist.PIECE[code][mirrorSquare(to)];
+		positional[code >> 3] += PieceSquareTables.BONUS[code][to] -
+				PieceSquareTables.BONUS[code][from];
+		if (kingSquare[code >> 3] == from) {
+			kingSquare[code >> 3] = to;
+		}
+	}
+	
+	/**
+	 * Get the Zobrist hash of the pieces on the board. The hash is updated
+	 * incrementally as pieces are set, cleared and moved, so this is cheap.
+	 * Equal positions always have equal hashes. It does not include the side
+	 * to move; see {@link #getHash(Piece.Color)}.
+	 * @return A 64-bit hash of the board.
+	 */
+	public long getHash() {
+		return hash;
+	}
+	
+	/**
+	 * Get the Zobrist hash of this board with a given side to move.
+	 * @param toMove The side to move.
+	 * @return A 64-bit hash of the board and side to move.
+	 */
+	public long getHash(Piece.Color toMove) {
+		return toMove == Piece.Color.BLACK ? hash ^ Zobrist.BLACK_TO_MOVE : hash;
+	}
+	
+	/**
+	 * Get the Zobrist hash of this board reflected across the central file,
+	 * i.e., the value {@link #getHash()} would return for {@link #mirror()}.
+	 * Like the hash, it is kept up to date incrementally.
+	 * @return A 64-bit hash of the mirrored board.
+	 */
+	public long getMirrorHash() {
+		return mirrorHash;
+	}
+	
+	/**
+	 * Get a hash which is the same for this position and its mirror image, for
+	 * keying caches, books and indexes with one entry per mirror pair. It is
+	 * the smaller of the hash and the mirrored hash. Moves stored under the key
+	 * should be mirrored first when {@link #isMirrored()} is true, and mirrored
+	 * again when read back for such a position (see
+	 * {@link PackedMove#mirror(int)} and {@link Move#mirror()}).
+	 * @param toMove The side to move.
+	 * @return A 64-bit hash of the board and side to move which ignores
+	 * reflection.
+	 */
+	public long getCanonicalHash(Piece.Color toMove) {
+		long key = Math.min(hash, mirrorHash);
+		return toMove == Piece.Color.BLACK ? key ^ Zobrist.BLACK_TO_MOVE : key;
+	}
+	
+	/**
+	 * Determine whether the canonical form of this position (see
+	 * {@link #getCanonicalHash}) is its mirror image. Symmetric positions are
+	 * their own canonical form.
+	 * @return True if moves must be mirrored to match the canonical form.
+	 */
+	public boolean isMirrored() {
+		return mirrorHash < hash;
+	}
+	
+	/**
+	 * Create a copy of this position reflected across the central file.
+	 * @return The mirrored position, with an empty undo stack.
+	 */
+	public Position mirror() {
+		Position pos = empty();
+		for (int side = 0; side < 2; side++) {
+			for (int i = 0; i < pieceCount[side]; i++) {
+				int sq = pieceList[side][i];
+				pos.addCode(mirrorSquare(sq), squares[sq]);
+			}
+		}
+		return pos;
+	}
+	
+	/**
+	 * Get the material of one side: the sum of the values of its pieces other
+	 * than the king, counting a pawn as 100. The total is kept up to date as
+	 * the board changes, so this is cheap.
+	 * @param color The side to count.
+	 * @return The material of that side.
+	 */
+	public int getMaterial(Piece.Color color) {
+		return material[color.ordinal()];
+	}
+	
+	/**
+	 * Get a static evaluation of the position: the difference in material
+	 * and in piece-square bonuses between the two sides, in the units of
+	 * {@link #getMaterial}. Like the material, the score is kept up to date
+	 * as moves are made and unmade, so this does no work beyond a
+	 * subtraction. It knows nothing of threats, so it is only meaningful in
+	 * quiet positions.
+	 * @param side The side to score for.
+	 * @return The score, positive if the side is ahead.
+	 */
+	public int evaluate(Piece.Color side) {
+		int us = side.ordinal();
+		return material[us] + positional[us] - material[us ^ 1] - positional[us ^ 1];
 	}
 	
 	/**
@@ -138,21 +564,111 @@ public class Position {
 	 */
 	public Position makeMove(Move move) {
 		Position ret = (Position) this.clone();
+		ret.doMove(move);
+		return ret;
+	}
+	
+	/**
+	 * Execute a move in place. The move can be taken back with
+	 * {@link #undoMove()}. The board should not be edited with
+	 * {@link #setPiece} while moves are waiting to be undone.
+	 * @param move The move to make.
+	 */
+	public void doMove(Move move) {
 		Pair<Integer, Integer> fsq = move.getFromSquare();
 		Pair<Integer, Integer> tsq = move.getToSquare();
-		ret.clearPiece(fsq.getKey(), fsq.getValue());
-		ret.setPiece(tsq.getKey(), tsq.getValue(), move.getPiece());
-		return ret;
+		doMove(toSquare(fsq.getKey(), fsq.getValue()),
+				toSquare(tsq.getKey(), tsq.getValue()), move.getPiece().toCode());
+	}
+	
+	/**
+	 * Execute a packed move (see {@link PackedMove}) in place. The move can be
+	 * taken back with {@link #undoMove()}.
+	 * @param move The packed move to make.
+	 */
+	public void doMove(int move) {
+		doMove(PackedMove.from(move), PackedMove.to(move));
 	}
 	
 	/**
-	 * Return the piece at a given point.
+	 * Move the piece on one square to another in place, capturing anything on
+	 * the target square, and record the move on the undo stack.
+	 * @param from The square to move from.
+	 * @param to The square to move to.
+	 */
+	void doMove(int from, int to) {
+		doMove(from, to, squares[from]);
+	}
+	
+	/**
+	 * Clear one square and put a piece on another in place, recording the
+	 * change on the undo stack. Normally the placed piece is the one on the
+	 * from square, but callers of {@link #doMove(Move)} may describe a move of
+	 * a piece which is not on the board.
+	 * @param from The square to clear.
+	 * @param to The square to put the piece on.
+	 * @param placed The code of the piece to put on the to square.
+	 */
+	private void doMove(int from, int to, int placed) {
+		int moved = squares[from];
+		int captured = squares[to];
+		if (undoCount == undoStack.length) {
+			undoStack = Arrays.copyOf(undoStack, Math.max(16, 2 * undoCount));
+		}
+		undoStack[undoCount++] = PackedMove.encode(from, to, moved, captured) | placed << 22;
+		if (captured != Piece.EMPTY_CODE) {
+			removeCode(to);
+		}
+		if (moved != Piece.EMPTY_CODE && moved == placed) {
+			relocate(from, to);
+		} else {
+			if (moved != Piece.EMPTY_CODE) {
+				removeCode(from);
+			}
+			if (placed != Piece.EMPTY_CODE) {
+				addCode(to, placed);
+			}
+		}
+	}
+	
+	/**
+	 * Take back the last move made with {@link #doMove(Move)}.
+	 * @throws IllegalStateException If there is no move to take back.
+	 */
+	public void undoMove() throws IllegalStateException {
+		if (undoCount == 0) {
+			throw new IllegalStateException("No move to undo");
+		}
+		int record = undoStack[--undoCount];
+		int from = record & 0x7f;
+		int to = (record >> 7) & 0x7f;
+		int moved = (record >> 14) & 0xf;
+		int captured = (record >> 18) & 0xf;
+		int placed = (record >> 22) & 0xf;
+		if (moved != Piece.EMPTY_CODE && moved == placed) {
+			relocate(to, from);
+		} else {
+			if (placed != Piece.EMPTY_CODE) {
+				removeCode(to);
+			}
+			if (moved != Piece.EMPTY_CODE) {
+				addCode(from, moved);
+			}
+		}
+		if (captured != Piece.EMPTY_CODE) {
+			addCode(to, captured);
+		}
+	}
+	
+	/**
+	 * Return the piece at a given point. The returned piece is one of the
+	 * shared pieces from {@link Piece#of}, so it can be compared with ==.
 	 * @param file The file to find a piece at.
 	 * @param rank The rank to find a piece at.
 	 * @return The piece at the given position.
 	 */
 	public Piece pieceAt(int file, int rank) {
-		return board[file][rank];
+		return Piece.fromCode(squares[toSquare(file, rank)]);
 	}
 	
 	/**
@@ -162,7 +678,87 @@ public class Position {
 	 * @return True if there is a piece at the given square.
 	 */
 	public boolean hasPieceAt(int file, int rank) {
-		return !pieceAt(file, rank).isEmpty();
+		return squares[toSquare(file, rank)] != Piece.EMPTY_CODE;
+	}
+	
+	/**
+	 * Get the compact code of the piece on a square.
+	 * @param sq The square index.
+	 * @return The code of the piece on the square.
+	 */
+	int codeAt(int sq) {
+		return squares[sq];
+	}
+	
+	/**
+	 * Get the number of pieces a side has on the board.
+	 * @param color The side to count pieces for.
+	 * @return The number of pieces of that color.
+	 */
+	int pieceCount(Piece.Color color) {
+		return pieceCount[color.ordinal()];
+	}
+	
+	/**
+	 * Get the square of a piece from a side's piece list.
+	 * @param color The side to look up.
+	 * @param index An index less than {@link #pieceCount(Piece.Color)}.
+	 * @return The square of the piece.
+	 */
+	int pieceSquare(Piece.Color color, int index) {
+		return pieceList[color.ordinal()][index];
+	}
+	
+	/**
+	 * Get the number of pieces of one kind on the board.
+	 * @param code The compact code of the piece.
+	 * @return The number of pieces with that code.
+	 */
+	int typeCount(int code) {
+		return typeCount[code];
+	}
+	
+	/**
+	 * Get the square of a piece from the list for its kind.
+	 * @param code The compact code of the piece.
+	 * @param index An index less than {@link #typeCount(int)}.
+	 * @return The square of the piece.
+	 */
+	int typeSquare(int code, int index) {
+		return typeList[code][index];
+	}
+	
+	/**
+	 * Determine whether the piece on one square has a pseudo-legal move (one
+	 * which may leave its king in check) to another.
+	 * @param from The square of the piece.
+	 * @param to The target square.
+	 * @return True if the piece can move to the target.
+	 */
+	boolean canMoveTo(int from, int to) {
+		if (scratch == null) {
+			scratch = new MoveList();
+		}
+		scratch.clear();
+		generatePseudoLegal(from, scratch);
+		for (int i = 0; i < scratch.size(); i++) {
+			if (PackedMove.to(scratch.get(i)) == to) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Determine whether a piece of the given side may end a move on a square,
+	 * i.e., whether the square is empty or holds an opposing piece.
+	 * @param sq The target square.
+	 * @param side The color ordinal of the moving piece.
+	 * @return True if the square can be moved to.
+	 */
+	private boolean canLand(int sq, int side) {
+		int code = squares[sq];
+		return code == Piece.EMPTY_CODE || (code >> 3) != side;
 	}
 	
 	/**
@@ -175,85 +771,319 @@ public class Position {
 	 * @return True if the king is in check after the move.
 	 */
 	public boolean inCheck(Piece.Color color, int sf, int sr, int ef, int er) {
-		Piece captured = pieceAt(ef, er);
-		Piece moved = pieceAt(sf, sr);
-		clearPiece(sf, sr);
-		setPiece(ef, er, moved);
-		boolean check = false;
-		// We keep track of the king positions in order to deal with the flying
-		// general rule.
-		int rkFile = -1;
-		int rkRank = -1;
-		int bkFile = -1;
-		int bkRank = -1;
-		// Check every piece on the board
-		for (int file = 0; file < 9; file++) {
-			for (int rank = 0; rank < 10; rank++) {
-				// Generate all move from the given square.
-				ArrayList<Pair<Integer, Integer>> moves = getMovesFrom(file, rank, false);
-				if (pieceAt(file, rank).equals(new Piece(Piece.Color.RED, Piece.Type.KING))) {
-					rkFile = file;
-					rkRank = rank;
+		doMove(toSquare(sf, sr), toSquare(ef, er));
+		boolean check = inCheck(color);
+		undoMove();
+		return check;
+	}
+	
+	/**
+	 * Determine whether the given king is in check in this position. Facing
+	 * kings count as check for both sides.
+	 * @param color The color of the king to look for checks against.
+	 * @return True if the king is in check.
+	 */
+	public boolean inCheck(Piece.Color color) {
+		int king = kingSquare[color.ordinal()];
+		if (king < 0) {
+			return false;
+		}
+		return isAttacked(king, 1 - color.ordinal()) || kingsFacing();
+	}
+	
+	/**
+	 * Determine whether the two kings are on the same file with nothing
+	 * between them (the flying general rule).
+	 * @return True if the kings face each other.
+	 */
+	boolean kingsFacing() {
+		int rk = kingSquare[Piece.Color.RED.ordinal()];
+		int bk = kingSquare[Piece.Color.BLACK.ordinal()];
+		if (rk < 0 || bk < 0 || fileOf(rk) != fileOf(bk)) {
+			return false;
+		}
+		return (fileOccupancy[fileOf(rk)] &
+				SliderTables.between(rankOf(rk), rankOf(bk))) == 0;
+	}
+	
+	/**
+	 * Determine whether a point is attacked by any piece of the given color.
+	 * Facing kings are not considered; see {@link #kingsFacing()}.
+	 * @param file The file of the point.
+	 * @param rank The rank of the point.
+	 * @param by The color of the attacking pieces.
+	 * @return True if a piece of that color could capture on the point.
+	 */
+	public boolean isAttacked(int file, int rank, Piece.Color by) {
+		return isAttacked(toSquare(file, rank), by.ordinal());
+	}
+	
+	/**
+	 * Determine whether a square is attacked by the given side. Rather than
+	 * generating the attacker's moves, this looks outward from the square
+	 * along the lines each kind of piece could attack it from.
+	 * @param sq The square to test.
+	 * @param side The color ordinal of the attacking side.
+	 * @return True if the square is attacked.
+	 */
+	boolean isAttacked(int sq, int side) {
+		int file = fileOf(sq);
+		int rank = rankOf(sq);
+		int flag = side << 3;
+		// Rooks and cannons along the rank and file through the square. A rook
+		// must be the first piece in its direction and a cannon the second.
+		int rook = flag | Piece.ROOK_CODE;
+		int cannon = flag | Piece.CANNON_CODE;
+		int rankIndex = SliderTables.rankIndex(file, rankOccupancy[rank]);
+		int fileIndex = SliderTables.fileIndex(rank, fileOccupancy[file]);
+		int rankStart = rank * FILES;
+		for (int m = SliderTables.RANK_ROOK_CAPTURES[rankIndex]; m != 0; m &= m - 1) {
+			if (squares[rankStart + Integer.numberOfTrailingZeros(m)] == rook) {
+				return true;
+			}
+		}
+		for (int m = SliderTables.FILE_ROOK_CAPTURES[fileIndex]; m != 0; m &= m - 1) {
+			if (squares[file + FILES * Integer.numberOfTrailingZeros(m)] == rook) {
+				return true;
+			}
+		}
+		for (int m = SliderTables.RANK_CANNON_CAPTURES[rankIndex]; m != 0; m &= m - 1) {
+			if (squares[rankStart + Integer.numberOfTrailingZeros(m)] == cannon) {
+				return true;
+			}
+		}
+		for (int m = SliderTables.FILE_CANNON_CAPTURES[fileIndex]; m != 0; m &= m - 1) {
+			if (squares[file + FILES * Integer.numberOfTrailingZeros(m)] == cannon) {
+				return true;
+			}
+		}
+		// Horses, unless their leg is blocked.
+		int horse = flag | Piece.HORSE_CODE;
+		byte[] attackers = LeapTables.HORSE_ATTACKERS[sq];
+		byte[] legs = LeapTables.HORSE_ATTACKER_LEGS[sq];
+		for (int i = 0; i < attackers.length; i++) {
+			if (squares[attackers[i]] == horse && squares[legs[i]] == Piece.EMPTY_CODE) {
+				return true;
+			}
+		}
+		// Pawns attack forward, and sideways once across the river.
+		int pawn = flag | Piece.PAWN_CODE;
+		boolean red = side == Piece.Color.RED.ordinal();
+		int behind = red ? rank + 1 : rank - 1;
+		if (behind >= 0 && behind <= 9 && squares[toSquare(file, behind)] == pawn) {
+			return true;
+		}
+		if (!LeapTables.HOME[side][sq]) {
+			if (file > 0 && squares[sq - 1] == pawn ||
+					file < 8 && squares[sq + 1] == pawn) {
+				return true;
+			}
+		}
+		// Kings and advisors only attack inside their own palace, where their
+		// moves are symmetric, so the pieces that attack a square are on the
+		// squares it could move to.
+		if (LeapTables.PALACE[side][sq]) {
+			int king = flag | Piece.KING_CODE;
+			for (byte from : LeapTables.KING_MOVES[side][sq]) {
+				if (squares[from] == king) {
+					return true;
 				}
-				if (pieceAt(file, rank).equals(new Piece(Piece.Color.BLACK, Piece.Type.KING))) {
-					bkFile = file;
-					bkRank = rank;
+			}
+			int advisor = flag | Piece.ADVISOR_CODE;
+			for (byte from : LeapTables.ADVISOR_MOVES[side][sq]) {
+				if (squares[from] == advisor) {
+					return true;
 				}
-				// If any of these moves end on the given king, this is a check.
-				for (Pair<Integer, Integer> move : moves) {
-					if (pieceAt(move.getKey(), move.getValue()).equals(new Piece(color, Piece.Type.KING))) {
-						check = true;
-						break;
-					}
+			}
+		}
+		// Elephants only attack on their own side of the river.
+		if (LeapTables.HOME[side][sq]) {
+			int elephant = flag | Piece.ELEPHANT_CODE;
+			byte[] from = LeapTables.ELEPHANT_MOVES[side][sq];
+			byte[] eyes = LeapTables.ELEPHANT_EYES[side][sq];
+			for (int i = 0; i < from.length; i++) {
+				if (squares[from[i]] == elephant && squares[eyes[i]] == Piece.EMPTY_CODE) {
+					return true;
 				}
-				if (check) {
-					break;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Find the least valuable piece of a side which attacks a square. Like
+	 * {@link #isAttacked(int, int)} this works from the current board, so
+	 * when pieces are taken off, cannons find or lose their screens and
+	 * horse legs open up.
+	 * @param sq The square to look at.
+	 * @param side The color ordinal of the attacking side.
+	 * @return The square of the attacker, or -1 if there is none.
+	 */
+	int leastAttacker(int sq, int side) {
+		int file = fileOf(sq);
+		int rank = rankOf(sq);
+		int flag = side << 3;
+		int pawn = flag | Piece.PAWN_CODE;
+		int behind = side == Piece.Color.RED.ordinal() ? sq + FILES : sq - FILES;
+		if (behind >= 0 && behind < SQUARES && squares[behind] == pawn) {
+			return behind;
+		}
+		if (!LeapTables.HOME[side][sq]) {
+			if (file > 0 && squares[sq - 1] == pawn) {
+				return sq - 1;
+			}
+			if (file < 8 && squares[sq + 1] == pawn) {
+				return sq + 1;
+			}
+		}
+		if (LeapTables.PALACE[side][sq]) {
+			int advisor = flag | Piece.ADVISOR_CODE;
+			for (byte from : LeapTables.ADVISOR_MOVES[side][sq]) {
+				if (squares[from] == advisor) {
+					return from;
 				}
 			}
-			if (check) {
-				break;
+		}
+		if (LeapTables.HOME[side][sq]) {
+			int elephant = flag | Piece.ELEPHANT_CODE;
+			byte[] from = LeapTables.ELEPHANT_MOVES[side][sq];
+			byte[] eyes = LeapTables.ELEPHANT_EYES[side][sq];
+			for (int i = 0; i < from.length; i++) {
+				if (squares[from[i]] == elephant && squares[eyes[i]] == Piece.EMPTY_CODE) {
+					return from[i];
+				}
 			}
 		}
-		// Flying general
-		if (rkFile == bkFile) {
-			boolean seeEachOther = true;
-			for (int i = bkRank + 1; i < rkRank; i++) {
-				if (hasPieceAt(rkFile, i)) {
-					seeEachOther = false;
-					break;
+		int horse = flag | Piece.HORSE_CODE;
+		byte[] attackers = LeapTables.HORSE_ATTACKERS[sq];
+		byte[] legs = LeapTables.HORSE_ATTACKER_LEGS[sq];
+		for (int i = 0; i < attackers.length; i++) {
+			if (squares[attackers[i]] == horse && squares[legs[i]] == Piece.EMPTY_CODE) {
+				return attackers[i];
+			}
+		}
+		int rankIndex = SliderTables.rankIndex(file, rankOccupancy[rank]);
+		int fileIndex = SliderTables.fileIndex(rank, fileOccupancy[file]);
+		int rankStart = rank * FILES;
+		int cannon = flag | Piece.CANNON_CODE;
+		for (int m = SliderTables.RANK_CANNON_CAPTURES[rankIndex]; m != 0; m &= m - 1) {
+			int from = rankStart + Integer.numberOfTrailingZeros(m);
+			if (squares[from] == cannon) {
+				return from;
+			}
+		}
+		for (int m = SliderTables.FILE_CANNON_CAPTURES[fileIndex]; m != 0; m &= m - 1) {
+			int from = file + FILES * Integer.numberOfTrailingZeros(m);
+			if (squares[from] == cannon) {
+				return from;
+			}
+		}
+		int rook = flag | Piece.ROOK_CODE;
+		for (int m = SliderTables.RANK_ROOK_CAPTURES[rankIndex]; m != 0; m &= m - 1) {
+			int from = rankStart + Integer.numberOfTrailingZeros(m);
+			if (squares[from] == rook) {
+				return from;
+			}
+		}
+		for (int m = SliderTables.FILE_ROOK_CAPTURES[fileIndex]; m != 0; m &= m - 1) {
+			int from = file + FILES * Integer.numberOfTrailingZeros(m);
+			if (squares[from] == rook) {
+				return from;
+			}
+		}
+		if (LeapTables.PALACE[side][sq]) {
+			int king = flag | Piece.KING_CODE;
+			for (byte from : LeapTables.KING_MOVES[side][sq]) {
+				if (squares[from] == king) {
+					return from;
 				}
 			}
-			if (seeEachOther) {
-				check = true;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Work out the material won or lost by a capture if both sides keep
+	 * recapturing on the target square with their least valuable attacker,
+	 * each stopping when that would lose material. The captures are played
+	 * out on the board and taken back, so cannon screens and horse legs which
+	 * change along the way are accounted for. Pins are not. Nothing is
+	 * allocated once the undo stack and {@link #seeGain} have been created.
+	 * @param move A packed move, usually a capture.
+	 * @return The expected gain for the moving side in hundredths of a pawn
+	 * (see {@link Piece#VALUE}). A quiet move scores 0 unless the moved piece
+	 * can then be won.
+	 */
+	public int see(int move) {
+		if (seeGain == null) {
+			seeGain = new int[2 * MAX_PIECES + 1];
+		}
+		int[] gain = seeGain;
+		int to = PackedMove.to(move);
+		int side = PackedMove.movedCode(move) >> 3;
+		gain[0] = Piece.VALUE[PackedMove.capturedCode(move) & Piece.TYPE_MASK];
+		int onSquare = Piece.VALUE[PackedMove.movedCode(move) & Piece.TYPE_MASK];
+		doMove(PackedMove.from(move), to);
+		int made = 1;
+		int depth = 0;
+		while (true) {
+			side = 1 - side;
+			int attacker = leastAttacker(to, side);
+			if (attacker < 0) {
+				break;
 			}
+			// Every recapture is played out: cutting the sequence short when
+			// neither choice helps the side to move keeps the sign of the
+			// result but not its size.
+			depth++;
+			gain[depth] = onSquare - gain[depth - 1];
+			onSquare = Piece.VALUE[squares[attacker] & Piece.TYPE_MASK];
+			doMove(attacker, to);
+			made++;
 		}
-		setPiece(sf, sr, moved);
-		setPiece(ef, er, captured);
-		return check;
+		for (int i = 0; i < made; i++) {
+			undoMove();
+		}
+		while (depth > 0) {
+			gain[depth - 1] = -Math.max(-gain[depth - 1], gain[depth]);
+			depth--;
+		}
+		return gain[0];
 	}
 	
 	/**
-	 * Generate legal moves for a pawn at the given square.
-	 * @param file The file of the pawn.
-	 * @param rank The rank of the pawn.
-	 * @return Legal moves from the square.
+	 * Add a move from one square to another to a move list.
+	 * @param moves The list to add to.
+	 * @param from The square of the moving piece.
+	 * @param to The target square.
 	 */
-	private ArrayList<Pair<Integer, Integer>> getPawnMoves(int file, int rank) {
-		ArrayList<Pair<Integer, Integer>> ret = new ArrayList<>();
+	private void addMove(MoveList moves, int from, int to) {
+		moves.add(PackedMove.encode(from, to, squares[from], squares[to]));
+	}
+	
+	/**
+	 * Generate moves for a pawn at the given square.
+	 * @param sq The square of the pawn.
+	 * @param moves The list to add moves to.
+	 */
+	private void generatePawnMoves(int sq, MoveList moves) {
+		int file = fileOf(sq);
+		int rank = rankOf(sq);
+		int side = squares[sq] >> 3;
 		boolean crossed = false;   // Has this pawn crossed the river?
-		if (pieceAt(file, rank).getColor() == Piece.Color.RED) {
-			if (rank > 0) {
+		if (side == Piece.Color.RED.ordinal()) {
+			if (rank > 0 && canLand(sq - FILES, side)) {
 				// A red pawn can always move forward
-				ret.add(new Pair<>(file, rank - 1));
+				addMove(moves, sq, sq - FILES);
 			}
 			if (rank < 5) {
 				// This pawn has crossed the river
 				crossed = true;
 			}
 		} else {
-			if (rank < 9) {
+			if (rank < 9 && canLand(sq + FILES, side)) {
 				// A black pawn can always move forward.
-				ret.add(new Pair<>(file, rank + 1));
+				addMove(moves, sq, sq + FILES);
 			}
 			if (rank >= 5) {
 				// This pawn has crossed the river
@@ -263,327 +1093,587 @@ public class Position {
 		if (crossed) {
 			// For pawns of either color that have crossed the river, they can
 			// move sideways.
-			if (file > 0) {
-				ret.add(new Pair<>(file - 1, rank));
+			if (file > 0 && canLand(sq - 1, side)) {
+				addMove(moves, sq, sq - 1);
 			}
-			if (rank < 8) {
-				ret.add(new Pair<>(file + 1, rank));
+			if (file < 8 && canLand(sq + 1, side)) {
+				addMove(moves, sq, sq + 1);
 			}
 		}
-		return ret;
 	}
 	
 	/**
-	 * Get the legal cannon moves from a starting position.
-	 * @param file The file of the cannon.
-	 * @param rank The rank of the cannon.
-	 * @return The legal moves for this cannon.
+	 * Generate rook or cannon moves from the given square. Quiet moves and
+	 * captures along the rank and file are looked up in {@link SliderTables}
+	 * from the occupancy masks, so only the color of each capture target has
+	 * to be checked.
+	 * @param sq The square of the rook or cannon.
+	 * @param moves The list to add moves to.
+	 * @param cannon True if the moving piece is a cannon.
 	 */
-	private ArrayList<Pair<Integer, Integer>> getCannonMoves(int file, int rank) {
-		ArrayList<Pair<Integer, Integer>> ret = new ArrayList<>();
-		int f = file + 1;
-		int r = rank;
-		// Hit one becomes true for the first piece encountered.
-		boolean hitOne = false;
-		while (f < 9) {
-			if (hasPieceAt(f, r)) {
-				if (hitOne) {
-					if (pieceAt(f, r).getColor() != pieceAt(file, rank).getColor()) {
-						ret.add(new Pair<>(f, r));
-					}
-					break;
-				} else {
-					hitOne = true;
-				}
+	private void generateSliderMoves(int sq, MoveList moves, boolean cannon) {
+		int file = fileOf(sq);
+		int rank = rankOf(sq);
+		int side = squares[sq] >> 3;
+		int rankIndex = SliderTables.rankIndex(file, rankOccupancy[rank]);
+		int fileIndex = SliderTables.fileIndex(rank, fileOccupancy[file]);
+		int rankStart = rank * FILES;
+		int rankTargets = cannon ? SliderTables.RANK_CANNON_CAPTURES[rankIndex]
+				: SliderTables.RANK_ROOK_CAPTURES[rankIndex];
+		int fileTargets = cannon ? SliderTables.FILE_CANNON_CAPTURES[fileIndex]
+				: SliderTables.FILE_ROOK_CAPTURES[fileIndex];
+		for (int m = rankTargets; m != 0; m &= m - 1) {
+			int to = rankStart + Integer.numberOfTrailingZeros(m);
+			if ((squares[to] >> 3) != side) {
+				addMove(moves, sq, to);
 			}
-			if (!hitOne) {
-				ret.add(new Pair<>(f, r));
+		}
+		for (int m = fileTargets; m != 0; m &= m - 1) {
+			int to = file + FILES * Integer.numberOfTrailingZeros(m);
+			if ((squares[to] >> 3) != side) {
+				addMove(moves, sq, to);
 			}
-			f++;
 		}
-		f = file - 1;
-		r = rank;
-		hitOne = false;
-		while (f >= 0) {
-			if (hasPieceAt(f, r)) {
-				if (hitOne) {
-					if (pieceAt(f, r).getColor() != pieceAt(file, rank).getColor()) {
-						ret.add(new Pair<>(f, r));
-					}
-					break;
-				} else {
-					hitOne = true;
-				}
+		for (int m = SliderTables.RANK_MOVES[rankIndex]; m != 0; m &= m - 1) {
+			addMove(moves, sq, rankStart + Integer.numberOfTrailingZeros(m));
+		}
+		for (int m = SliderTables.FILE_MOVES[fileIndex]; m != 0; m &= m - 1) {
+			addMove(moves, sq, file + FILES * Integer.numberOfTrailingZeros(m));
+		}
+	}
+	
+	/**
+	 * Add the moves to a list of precomputed targets which are not blocked
+	 * and do not land on the mover's own pieces.
+	 * @param sq The square of the moving piece.
+	 * @param targets The target squares from {@link LeapTables}.
+	 * @param blocks The square that must be empty for each target, or null
+	 * if the moves cannot be blocked.
+	 * @param moves The list to add moves to.
+	 */
+	private void generateLeaps(int sq, byte[] targets, byte[] blocks, MoveList moves) {
+		int side = squares[sq] >> 3;
+		for (int i = 0; i < targets.length; i++) {
+			if (blocks != null && squares[blocks[i]] != Piece.EMPTY_CODE) {
+				continue;
 			}
-			if (!hitOne) {
-				ret.add(new Pair<>(f, r));
+			if (canLand(targets[i], side)) {
+				addMove(moves, sq, targets[i]);
 			}
-			f--;
 		}
-		f = file;
-		r = rank + 1;
-		hitOne = false;
-		while (r < 10) {
-			if (hasPieceAt(f, r)) {
-				if (hitOne) {
-					if (pieceAt(f, r).getColor() != pieceAt(file, rank).getColor()) {
-						ret.add(new Pair<>(f, r));
-					}
-					break;
-				} else {
-					hitOne = true;
-				}
-			}
-			if (!hitOne) {
-				ret.add(new Pair<>(f, r));
+	}
+	
+	/**
+	 * Generate horse moves starting from a given square.
+	 * @param sq The square of the horse.
+	 * @param moves The list to add moves to.
+	 */
+	private void generateHorseMoves(int sq, MoveList moves) {
+		generateLeaps(sq, LeapTables.HORSE_MOVES[sq], LeapTables.HORSE_LEGS[sq], moves);
+	}
+	
+	/**
+	 * Generate moves for an elephant at the given square. Elephants may not
+	 * cross the river.
+	 * @param sq The square of the elephant.
+	 * @param moves The list to add moves to.
+	 */
+	private void generateElephantMoves(int sq, MoveList moves) {
+		int side = squares[sq] >> 3;
+		generateLeaps(sq, LeapTables.ELEPHANT_MOVES[side][sq],
+				LeapTables.ELEPHANT_EYES[side][sq], moves);
+	}
+	
+	/**
+	 * Generate moves for an advisor at a given square. Advisors must stay in
+	 * the palace.
+	 * @param sq The square of the advisor.
+	 * @param moves The list to add moves to.
+	 */
+	private void generateAdvisorMoves(int sq, MoveList moves) {
+		generateLeaps(sq, LeapTables.ADVISOR_MOVES[squares[sq] >> 3][sq], null, moves);
+	}
+	
+	/**
+	 * Generate king moves from a given square. Kings must stay in the palace.
+	 * @param sq The square of the king.
+	 * @param moves The list to add moves to.
+	 */
+	private void generateKingMoves(int sq, MoveList moves) {
+		generateLeaps(sq, LeapTables.KING_MOVES[squares[sq] >> 3][sq], null, moves);
+	}
+	
+	/**
+	 * Generate pseudo-legal moves (moves which may leave the king in check)
+	 * for the piece on a square.
+	 * @param sq The square of the piece. Nothing is added if it is empty.
+	 * @param moves The list to add moves to.
+	 */
+	void generatePseudoLegal(int sq, MoveList moves) {
+		switch (squares[sq] & Piece.TYPE_MASK) {
+		case Piece.PAWN_CODE:
+			generatePawnMoves(sq, moves);
+			break;
+		case Piece.CANNON_CODE:
+			generateSliderMoves(sq, moves, true);
+			break;
+		case Piece.ROOK_CODE:
+			generateSliderMoves(sq, moves, false);
+			break;
+		case Piece.HORSE_CODE:
+			generateHorseMoves(sq, moves);
+			break;
+		case Piece.ELEPHANT_CODE:
+			generateElephantMoves(sq, moves);
+			break;
+		case Piece.ADVISOR_CODE:
+			generateAdvisorMoves(sq, moves);
+			break;
+		case Piece.KING_CODE:
+			generateKingMoves(sq, moves);
+			break;
+		default:
+			break;
+		}
+	}
+	
+	/**
+	 * Determine whether a side has any legal move. This stops at the first
+	 * legal move found instead of generating them all, trying the king first
+	 * since in check its moves are the most likely escapes.
+	 * @param color The side to test.
+	 * @return True if the side has at least one legal move.
+	 */
+	public boolean hasAnyLegalMove(Piece.Color color) {
+		int side = color.ordinal();
+		if (scratch == null) {
+			scratch = new MoveList();
+		}
+		MoveList moves = scratch;
+		prepareLegality(side);
+		int king = kingSquare[side];
+		if (king >= 0) {
+			moves.clear();
+			generateKingMoves(king, moves);
+			if (anyLegal(moves)) {
+				return true;
 			}
-			r++;
 		}
-		f = file;
-		r = rank - 1;
-		hitOne = false;
-		while (r >= 0) {
-			if (hasPieceAt(f, r)) {
-				if (hitOne) {
-					if (pieceAt(f, r).getColor() != pieceAt(file, rank).getColor()) {
-						ret.add(new Pair<>(f, r));
-					}
-					break;
-				} else {
-					hitOne = true;
-				}
+		byte[] list = pieceList[side];
+		for (int i = 0; i < pieceCount[side]; i++) {
+			if (list[i] == king) {
+				continue;
 			}
-			if (!hitOne) {
-				ret.add(new Pair<>(f, r));
+			moves.clear();
+			generatePseudoLegal(list[i], moves);
+			if (anyLegal(moves)) {
+				return true;
 			}
-			r--;
 		}
-		return ret;
+		return false;
 	}
 	
 	/**
-	 * Get rook moves starting from the given square.
-	 * @param file The file of the rook.
-	 * @param rank The rank of the rook.
-	 * @return The list of rook moves.
+	 * Determine whether any move in a list of pseudo-legal moves is legal.
+	 * {@link #prepareLegality} must have been called for the moving side.
+	 * @param moves The moves to test.
+	 * @return True if one of the moves is legal.
 	 */
-	private ArrayList<Pair<Integer, Integer>> getRookMoves(int file, int rank) {
-		ArrayList<Pair<Integer, Integer>> ret = new ArrayList<>();
-		int f = file + 1;
-		int r = rank;
-		while (f < 9) {
-			if (hasPieceAt(f, r)) {
-				if (pieceAt(f, r).getColor() != pieceAt(file, rank).getColor()) {
-					ret.add(new Pair<>(f, r));
-				}
-				break;
+	private boolean anyLegal(MoveList moves) {
+		for (int i = 0; i < moves.size(); i++) {
+			if (isLegal(moves.get(i))) {
+				return true;
 			}
-			ret.add(new Pair<>(f, r));
-			f++;
 		}
-		f = file - 1;
-		r = rank;
-		while (f >= 0) {
-			if (hasPieceAt(f, r)) {
-				if (pieceAt(f, r).getColor() != pieceAt(file, rank).getColor()) {
-					ret.add(new Pair<>(f, r));
-				}
-				break;
-			}
-			ret.add(new Pair<>(f, r));
-			f--;
+		return false;
+	}
+	
+	/*
+	 * What prepareLegality found out about the king of the side to move. A
+	 * move by a piece other than the king can only expose the king through
+	 * the king's own rank and file (rooks, cannons and the facing king) or by
+	 * unblocking a horse's leg, so when the king is not in check every other
+	 * move is legal without being tested. These fields are not copied by
+	 * clone().
+	 */
+	
+	/** The side prepareLegality was last called for. */
+	private int legalSide;
+	/** The king of legalSide, or -1 if it has none. */
+	private int legalKing;
+	/** Whether that king is in check. */
+	private boolean legalCheck;
+	/**
+	 * Whether that king is outside its palace, where the quick tests below do
+	 * not cover attacks by advisors, elephants and the other king. This only
+	 * happens in set-up positions, and every move is then made and unmade.
+	 */
+	private boolean legalSlow;
+	/**
+	 * The enemy pawn giving check, -1 if none does, or -2 if two do (then
+	 * only king moves can be legal).
+	 */
+	private int legalPawnChecker;
+	/**
+	 * One bit per entry of {@link LeapTables#HORSE_ATTACKERS} for the king:
+	 * set if an enemy horse is on that square with its leg blocked, making
+	 * the piece on the leg pinned.
+	 */
+	private int legalPinnedLegs;
+	
+	/**
+	 * Work out the checks and pins on a side's king so that its moves can be
+	 * tested with {@link #isLegal}. This must be called again after the
+	 * board changes.
+	 * @param side The color ordinal of the side to move.
+	 */
+	private void prepareLegality(int side) {
+		int king = kingSquare[side];
+		legalSide = side;
+		legalKing = king;
+		if (king < 0) {
+			return;
 		}
-		f = file;
-		r = rank + 1;
-		while (r < 10) {
-			if (hasPieceAt(f, r)) {
-				if (pieceAt(f, r).getColor() != pieceAt(file, rank).getColor()) {
-					ret.add(new Pair<>(f, r));
-				}
-				break;
+		int opp = 1 - side;
+		legalCheck = isAttacked(king, opp) || kingsFacing();
+		legalSlow = !LeapTables.PALACE[side][king];
+		// Pawns attack the king from in front of it and, once across the
+		// river, from beside it.
+		int pawn = opp << 3 | Piece.PAWN_CODE;
+		int checker = -1;
+		int ahead = opp == Piece.Color.RED.ordinal() ? king + FILES : king - FILES;
+		if (ahead >= 0 && ahead < SQUARES && squares[ahead] == pawn) {
+			checker = ahead;
+		}
+		for (int beside = king - 1; beside <= king + 1; beside += 2) {
+			if (beside >= 0 && rankOf(beside) == rankOf(king) &&
+					squares[beside] == pawn && !LeapTables.HOME[opp][beside]) {
+				checker = checker == -1 ? beside : -2;
 			}
-			ret.add(new Pair<>(f, r));
-			r++;
 		}
-		f = file;
-		r = rank - 1;
-		while (r >= 0) {
-			if (hasPieceAt(f, r)) {
-				if (pieceAt(f, r).getColor() != pieceAt(file, rank).getColor()) {
-					ret.add(new Pair<>(f, r));
-				}
-				break;
+		legalPawnChecker = checker;
+		int horse = opp << 3 | Piece.HORSE_CODE;
+		byte[] attackers = LeapTables.HORSE_ATTACKERS[king];
+		byte[] legs = LeapTables.HORSE_ATTACKER_LEGS[king];
+		int pinned = 0;
+		for (int j = 0; j < attackers.length; j++) {
+			if (squares[attackers[j]] == horse && squares[legs[j]] != Piece.EMPTY_CODE) {
+				pinned |= 1 << j;
 			}
-			ret.add(new Pair<>(f, r));
-			r--;
 		}
-		return ret;
+		legalPinnedLegs = pinned;
 	}
 	
 	/**
-	 * Get a list of horse moves starting from a given square.
-	 * @param file The file of the horse.
-	 * @param rank The rank of the horse.
-	 * @return The moves available to a horse at the given square.
+	 * Determine whether a pseudo-legal move for the side last passed to
+	 * {@link #prepareLegality} leaves its king safe. Moves which do not touch
+	 * the king's rank or file or a pinned horse leg are accepted straight
+	 * away when the king is not in check. Other moves are tested by looking
+	 * up what the king's rank and file would hold after the move, without
+	 * making it.
+	 * @param move The packed move.
+	 * @return True if the move is legal.
 	 */
-	private ArrayList<Pair<Integer, Integer>> getHorseMoves(int file, int rank) {
-		ArrayList<Pair<Integer, Integer>> ret = new ArrayList<>();
-		// Check if there is room too move and the horse isn't blocked
-		if (file < 7 && !hasPieceAt(file + 1, rank)) {
-			// Check that there is room to move and the piece at the target
-			// square is empty or opponents.
-			if (rank < 9 && (!hasPieceAt(file + 2, rank + 1) ||
-					pieceAt(file + 2, rank + 1).getColor() !=
-					pieceAt(file, rank).getColor())) {
-				ret.add(new Pair<>(file + 2, rank + 1));
-			}
-			if (rank > 0 && (!hasPieceAt(file + 2, rank - 1) ||
-					pieceAt(file + 2, rank - 1).getColor() !=
-					pieceAt(file, rank).getColor())) {
-				ret.add(new Pair<>(file + 2, rank - 1));
-			}
+	private boolean isLegal(int move) {
+		int king = legalKing;
+		if (king < 0) {
+			return true;
+		}
+		int from = PackedMove.from(move);
+		int to = PackedMove.to(move);
+		if (legalSlow) {
+			doMove(from, to);
+			boolean legal = !inCheck(legalSide == 0 ? Piece.Color.RED : Piece.Color.BLACK);
+			undoMove();
+			return legal;
+		}
+		if (from == king) {
+			return kingSafeAt(king, to);
+		}
+		if (legalPawnChecker != -1 && to != legalPawnChecker) {
+			return false;
 		}
-		if (file > 1 && !hasPieceAt(file - 1, rank)) {
-			if (rank < 9 && (!hasPieceAt(file - 2, rank + 1) ||
-					pieceAt(file - 2, rank + 1).getColor() !=
-					pieceAt(file, rank).getColor())) {
-				ret.add(new Pair<>(file - 2, rank + 1));
+		int kf = fileOf(king);
+		int kr = rankOf(king);
+		boolean onLines = fileOf(from) == kf || rankOf(from) == kr ||
+				fileOf(to) == kf || rankOf(to) == kr;
+		if (!legalCheck && !onLines && !isPinnedLeg(from)) {
+			return true;
+		}
+		return !horseChecksAfter(from, to) && !lineChecksAfter(from, to);
+	}
+	
+	/**
+	 * Determine whether a square is the leg of an enemy horse which would
+	 * otherwise check the king.
+	 * @param sq The square to test.
+	 * @return True if the piece on the square is pinned by a horse.
+	 */
+	private boolean isPinnedLeg(int sq) {
+		byte[] legs = LeapTables.HORSE_ATTACKER_LEGS[legalKing];
+		for (int m = legalPinnedLegs; m != 0; m &= m - 1) {
+			if (legs[Integer.numberOfTrailingZeros(m)] == sq) {
+				return true;
 			}
-			if (rank > 0 && (!hasPieceAt(file - 2, rank - 1) ||
-					pieceAt(file - 2, rank - 1).getColor() !=
-					pieceAt(file, rank).getColor())) {
-				ret.add(new Pair<>(file - 2, rank - 1));
+		}
+		return false;
+	}
+	
+	/**
+	 * Determine whether an enemy horse would check the king after a move by
+	 * another piece.
+	 * @param from The square the piece moves from.
+	 * @param to The square the piece moves to.
+	 * @return True if a horse which is not captured would have a free leg.
+	 */
+	private boolean horseChecksAfter(int from, int to) {
+		int horse = (1 - legalSide) << 3 | Piece.HORSE_CODE;
+		byte[] attackers = LeapTables.HORSE_ATTACKERS[legalKing];
+		byte[] legs = LeapTables.HORSE_ATTACKER_LEGS[legalKing];
+		for (int j = 0; j < attackers.length; j++) {
+			int leg = legs[j];
+			if (squares[attackers[j]] == horse && attackers[j] != to && leg != to &&
+					(leg == from || squares[leg] == Piece.EMPTY_CODE)) {
+				return true;
 			}
 		}
-		if (rank < 8 && !hasPieceAt(file, rank + 1)) {
-			if (file < 8 && (!hasPieceAt(file + 1, rank + 2) ||
-					pieceAt(file + 1, rank + 2).getColor() !=
-					pieceAt(file, rank).getColor())) {
-				ret.add(new Pair<>(file + 1, rank + 2));
+		return false;
+	}
+	
+	/**
+	 * Determine whether an enemy rook, cannon or king would attack the king
+	 * along its rank or file after a move by another piece.
+	 * @param from The square the piece moves from.
+	 * @param to The square the piece moves to.
+	 * @return True if the king would be attacked along a line.
+	 */
+	private boolean lineChecksAfter(int from, int to) {
+		int king = legalKing;
+		int kf = fileOf(king);
+		int kr = rankOf(king);
+		int flag = (1 - legalSide) << 3;
+		int rook = flag | Piece.ROOK_CODE;
+		int cannon = flag | Piece.CANNON_CODE;
+		int enemyKing = flag | Piece.KING_CODE;
+		int rankOcc = rankOccupancy[kr];
+		if (rankOf(from) == kr) {
+			rankOcc &= ~(1 << fileOf(from));
+		}
+		if (rankOf(to) == kr) {
+			rankOcc |= 1 << fileOf(to);
+		}
+		int fileOcc = fileOccupancy[kf];
+		if (fileOf(from) == kf) {
+			fileOcc &= ~(1 << rankOf(from));
+		}
+		if (fileOf(to) == kf) {
+			fileOcc |= 1 << rankOf(to);
+		}
+		// The piece on the to square afterwards is the mover's own, so it
+		// never attacks.
+		int rankIndex = SliderTables.rankIndex(kf, rankOcc);
+		int fileIndex = SliderTables.fileIndex(kr, fileOcc);
+		int rankStart = kr * FILES;
+		for (int m = SliderTables.RANK_ROOK_CAPTURES[rankIndex]; m != 0; m &= m - 1) {
+			int sq = rankStart + Integer.numberOfTrailingZeros(m);
+			if (sq != to && squares[sq] == rook) {
+				return true;
 			}
-			if (file > 0 && (!hasPieceAt(file - 1, rank + 2) ||
-					pieceAt(file - 1, rank + 2).getColor() !=
-					pieceAt(file, rank).getColor())) {
-				ret.add(new Pair<>(file - 1, rank + 2));
+		}
+		for (int m = SliderTables.FILE_ROOK_CAPTURES[fileIndex]; m != 0; m &= m - 1) {
+			int sq = kf + FILES * Integer.numberOfTrailingZeros(m);
+			if (sq != to && (squares[sq] == rook || squares[sq] == enemyKing)) {
+				return true;
 			}
 		}
-		if (rank > 1 && !hasPieceAt(file, rank - 1)) {
-			if (file < 8 && (!hasPieceAt(file + 1, rank - 2) ||
-					pieceAt(file + 1, rank - 2).getColor() !=
-					pieceAt(file, rank).getColor())) {
-				ret.add(new Pair<>(file + 1, rank - 2));
+		for (int m = SliderTables.RANK_CANNON_CAPTURES[rankIndex]; m != 0; m &= m - 1) {
+			int sq = rankStart + Integer.numberOfTrailingZeros(m);
+			if (sq != to && squares[sq] == cannon) {
+				return true;
 			}
-			if (file > 0 && (!hasPieceAt(file - 1, rank - 2) ||
-					pieceAt(file - 1, rank - 2).getColor() !=
-					pieceAt(file, rank).getColor())) {
-				ret.add(new Pair<>(file - 1, rank - 2));
+		}
+		for (int m = SliderTables.FILE_CANNON_CAPTURES[fileIndex]; m != 0; m &= m - 1) {
+			int sq = kf + FILES * Integer.numberOfTrailingZeros(m);
+			if (sq != to && squares[sq] == cannon) {
+				return true;
 			}
 		}
-		return ret;
+		return false;
 	}
 	
 	/**
-	 * Get a list of moves for an elephant at the given position.
-	 * @param file The file of the elephant.
-	 * @param rank The rank of the elephant.
-	 * @return The list of moves for the elephant.
-	 */
-	private ArrayList<Pair<Integer, Integer>> getElephantMoves(int file, int rank) {
-		ArrayList<Pair<Integer, Integer>> ret = new ArrayList<>();
-		// Check if the target square is on the board and empty or has an
-		// opponents piece.
-		if (file < 7 && rank < 8 && !hasPieceAt(file + 1, rank + 1) &&
-				(!hasPieceAt(file + 2, rank + 2) ||
-						pieceAt(file + 2, rank + 2).getColor() !=
-						pieceAt(file, rank).getColor()) &&
-				// Check if the target square is on the right side of the river.
-				(pieceAt(file, rank).getColor() == Piece.Color.RED || rank < 3)) {
-			ret.add(new Pair<>(file + 2, rank + 2));
-		}
-		if (file > 1 && rank < 8 && !hasPieceAt(file - 1, rank + 1) &&
-				(!hasPieceAt(file - 2, rank + 2) ||
-						pieceAt(file - 2, rank + 2).getColor() !=
-						pieceAt(file, rank).getColor()) &&
-				(pieceAt(file, rank).getColor() == Piece.Color.RED || rank < 3)) {
-			ret.add(new Pair<>(file - 2, rank + 2));
-		}
-		if (file < 7 && rank > 1 && !hasPieceAt(file + 1, rank - 1) &&
-				(!hasPieceAt(file + 2, rank - 2) ||
-						pieceAt(file + 2, rank - 2).getColor() !=
-						pieceAt(file, rank).getColor()) &&
-				(pieceAt(file, rank).getColor() == Piece.Color.BLACK || rank > 6)) {
-			ret.add(new Pair<>(file + 2, rank - 2));
-		}
-		if (file > 1 && rank > 1 && !hasPieceAt(file - 1, rank - 1) &&
-				(!hasPieceAt(file - 2, rank - 2) ||
-						pieceAt(file - 2, rank - 2).getColor() !=
-						pieceAt(file, rank).getColor()) &&
-				(pieceAt(file, rank).getColor() == Piece.Color.BLACK || rank > 6)) {
-			ret.add(new Pair<>(file - 2, rank - 2));
+	 * Determine whether the king would be safe after moving to a square. The
+	 * king is lifted off its square while testing so that pieces it blocked
+	 * (rooks behind it, cannons using it as a screen, horses using it as a
+	 * leg) are seen.
+	 * @param king The square of the king.
+	 * @param to The square the king moves to.
+	 * @return True if the king is neither attacked nor facing the other king
+	 * on its new square.
+	 */
+	private boolean kingSafeAt(int king, int to) {
+		int opp = 1 - legalSide;
+		byte code = squares[king];
+		squares[king] = Piece.EMPTY_CODE;
+		rankOccupancy[rankOf(king)] &= ~(1 << fileOf(king));
+		fileOccupancy[fileOf(king)] &= ~(1 << rankOf(king));
+		boolean safe = !isAttacked(to, opp);
+		int other = kingSquare[opp];
+		if (safe && other >= 0 && fileOf(other) == fileOf(to)) {
+			safe = (fileOccupancy[fileOf(to)] &
+					SliderTables.between(rankOf(to), rankOf(other))) != 0;
 		}
-		return ret;
+		squares[king] = code;
+		rankOccupancy[rankOf(king)] |= 1 << fileOf(king);
+		fileOccupancy[fileOf(king)] |= 1 << rankOf(king);
+		return safe;
 	}
 	
 	/**
-	 * Get a list of moves for an advisor at a given position.
-	 * @param file The file of the advisor.
-	 * @param rank The rank of the advisor.
-	 * @return A list of moves for the advisor.
+	 * Remove the moves which leave the mover's king in check from the end of
+	 * a move list. The moves must all be by one side. Checks and pins are
+	 * worked out once (see {@link #prepareLegality}), so most moves are
+	 * kept without being made.
+	 * @param moves The list to filter.
+	 * @param start The index of the first move to check.
 	 */
-	private ArrayList<Pair<Integer, Integer>> getAdvisorMoves(int file, int rank) {
-		ArrayList<Pair<Integer, Integer>> ret = new ArrayList<>();
-		Piece.Color color = pieceAt(file, rank).getColor();
-		if (file < 5 && rank < 9 && (!hasPieceAt(file + 1, rank + 1) ||
-				pieceAt(file + 1, rank + 1).getColor() != color) &&
-				(color == Piece.Color.RED || rank < 2)) {
-			ret.add(new Pair<>(file + 1, rank + 1));
+	private void removeIllegal(MoveList moves, int start) {
+		if (start == moves.size()) {
+			return;
 		}
-		if (file > 3 && rank < 9 && (!hasPieceAt(file - 1, rank + 1) ||
-				pieceAt(file - 1, rank + 1).getColor() != color) &&
-				(color == Piece.Color.RED || rank < 2)) {
-			ret.add(new Pair<>(file - 1, rank + 1));
+		prepareLegality(PackedMove.movedCode(moves.get(start)) >> 3);
+		int kept = start;
+		for (int i = start; i < moves.size(); i++) {
+			int move = moves.get(i);
+			if (isLegal(move)) {
+				moves.set(kept++, move);
+			}
 		}
-		if (file < 5 && rank > 0 && (!hasPieceAt(file + 1, rank - 1) ||
-				pieceAt(file + 1, rank - 1).getColor() != color) &&
-				(color == Piece.Color.BLACK || rank > 7)) {
-			ret.add(new Pair<>(file + 1, rank - 1));
+		moves.truncate(kept);
+	}
+	
+	/**
+	 * Determine whether a move is a chase: the moved piece newly threatens to
+	 * legally capture an enemy piece which cannot be recaptured, or threatens
+	 * a rook with a horse or cannon whether or not it is protected. Kings and
+	 * pawns may chase freely, and threats against the king or against pawns
+	 * which have not crossed the river do not count. Threats uncovered by
+	 * moving another piece out of the way are not considered.
+	 * @param move A legal packed move for this position.
+	 * @return True if the move chases an enemy piece.
+	 */
+	public boolean isChase(int move) {
+		int from = PackedMove.from(move);
+		int to = PackedMove.to(move);
+		int mover = PackedMove.movedCode(move);
+		int moverType = mover & Piece.TYPE_MASK;
+		if (moverType == Piece.KING_CODE || moverType == Piece.PAWN_CODE) {
+			return false;
 		}
-		if (file > 3 && rank > 0 && (!hasPieceAt(file - 1, rank - 1) ||
-				pieceAt(file - 1, rank - 1).getColor() != color) &&
-				(color == Piece.Color.BLACK || rank > 7)) {
-			ret.add(new Pair<>(file - 1, rank - 1));
+		int side = mover >> 3;
+		if (scratch == null) {
+			scratch = new MoveList();
 		}
-		return ret;
+		MoveList moves = scratch;
+		// The squares the piece could already capture on before moving.
+		moves.clear();
+		generatePseudoLegal(from, moves);
+		long threatenedLow = 0;
+		long threatenedHigh = 0;
+		for (int i = 0; i < moves.size(); i++) {
+			int target = PackedMove.to(moves.get(i));
+			if (PackedMove.isCapture(moves.get(i))) {
+				if (target < 64) {
+					threatenedLow |= 1L << target;
+				} else {
+					threatenedHigh |= 1L << (target - 64);
+				}
+			}
+		}
+		doMove(from, to);
+		moves.clear();
+		generatePseudoLegal(to, moves);
+		removeIllegal(moves, 0);
+		boolean chase = false;
+		for (int i = 0; i < moves.size() && !chase; i++) {
+			int capture = moves.get(i);
+			int target = PackedMove.to(capture);
+			int victim = PackedMove.capturedCode(capture);
+			int victimType = victim & Piece.TYPE_MASK;
+			boolean before = target < 64 ? (threatenedLow >> target & 1) != 0
+					: (threatenedHigh >> (target - 64) & 1) != 0;
+			if (!PackedMove.isCapture(capture) || before || victimType == Piece.KING_CODE ||
+					victimType == Piece.PAWN_CODE && LeapTables.HOME[1 - side][target]) {
+				continue;
+			}
+			if (victimType == Piece.ROOK_CODE &&
+					(moverType == Piece.HORSE_CODE || moverType == Piece.CANNON_CODE)) {
+				chase = true;
+			} else {
+				doMove(to, target);
+				chase = !isAttacked(target, 1 - side);
+				undoMove();
+			}
+		}
+		undoMove();
+		return chase;
 	}
 	
 	/**
-	 * Get a list of king moves from a given square.
-	 * @param file The file of the king.
-	 * @param rank The rank of the king.
-	 * @return A list of moves for the king.
+	 * Add the moves of the piece at the given point to a move list.
+	 * @param file The file of the starting square for the moves.
+	 * @param rank The rank of the starting square for the moves.
+	 * @param checkLegal If false, also add moves that end in check.
+	 * @param moves The list to add packed moves to.
 	 */
-	private ArrayList<Pair<Integer, Integer>> getKingMoves(int file, int rank) {
-		ArrayList<Pair<Integer, Integer>> ret = new ArrayList<>();
-		Piece.Color color = pieceAt(file, rank).getColor();
-		if (file < 5 && (!hasPieceAt(file + 1, rank) ||
-				pieceAt(file + 1, rank).getColor() != color)) {
-			ret.add(new Pair<>(file + 1, rank));
-		}
-		if (file > 3 && (!hasPieceAt(file - 1, rank) ||
-				pieceAt(file - 1, rank).getColor() != color)) {
-			ret.add(new Pair<>(file - 1, rank));
+	public void generateMovesFrom(int file, int rank, boolean checkLegal, MoveList moves) {
+		int start = moves.size();
+		generatePseudoLegal(toSquare(file, rank), moves);
+		if (checkLegal) {
+			removeIllegal(moves, start);
 		}
-		if (rank < 9 && (!hasPieceAt(file, rank + 1) ||
-				pieceAt(file, rank + 1).getColor() != color) &&
-				(color == Piece.Color.RED || rank < 2)) {
-			ret.add(new Pair<>(file, rank + 1));
+	}
+	
+	/**
+	 * Add the pseudo-legal moves of every piece of one side to a move list.
+	 * @param side The color ordinal of the side to move.
+	 * @param moves The list to add moves to.
+	 */
+	void generatePseudoLegalMoves(int side, MoveList moves) {
+		byte[] list = pieceList[side];
+		for (int i = 0; i < pieceCount[side]; i++) {
+			generatePseudoLegal(list[i], moves);
 		}
-		if (rank > 0 && (!hasPieceAt(file, rank - 1) ||
-				pieceAt(file, rank - 1).getColor() != color) &&
-				(color == Piece.Color.BLACK || rank > 7)) {
-			ret.add(new Pair<>(file, rank - 1));
+	}
+	
+	/**
+	 * Add every legal move for one side to a move list.
+	 * @param color The side to generate moves for.
+	 * @param moves The list to add packed moves to.
+	 */
+	public void generateLegalMoves(Piece.Color color, MoveList moves) {
+		int start = moves.size();
+		generatePseudoLegalMoves(color.ordinal(), moves);
+		removeIllegal(moves, start);
+	}
+	
+	/**
+	 * Add every legal capture for one side to a move list.
+	 * @param color The side to generate captures for.
+	 * @param moves The list to add packed moves to.
+	 */
+	public void generateLegalCaptures(Piece.Color color, MoveList moves) {
+		int start = moves.size();
+		generatePseudoLegalMoves(color.ordinal(), moves);
+		int kept = start;
+		for (int i = start; i < moves.size(); i++) {
+			int move = moves.get(i);
+			if (PackedMove.isCapture(move)) {
+				moves.set(kept++, move);
+			}
 		}
-		return ret;
+		moves.truncate(kept);
+		removeIllegal(moves, start);
 	}
 	
 	/**
@@ -594,37 +1684,14 @@ public class Position {
 	 * @return A list of legal moves from the given square.
 	 */
 	public ArrayList<Pair<Integer, Integer>> getMovesFrom(int file, int rank, boolean checkLegal) {
-		ArrayList<Pair<Integer, Integer>> pseudoLegal;
-		switch (pieceAt(file, rank).getType()) {
-		case PAWN:
-			pseudoLegal = getPawnMoves(file, rank);
-			break;
-		case CANNON:
-			pseudoLegal = getCannonMoves(file, rank);
-			break;
-		case ROOK:
-			pseudoLegal = getRookMoves(file, rank);
-			break;
-		case HORSE:
-			pseudoLegal = getHorseMoves(file, rank);
-			break;
-		case ELEPHANT:
-			pseudoLegal = getElephantMoves(file, rank);
-			break;
-		case ADVISOR:
-			pseudoLegal = getAdvisorMoves(file, rank);
-			break;
-		case KING:
-			pseudoLegal = getKingMoves(file, rank);
-			break;
-		default:
-			pseudoLegal = new ArrayList<>();
+		MoveList moves = new MoveList();
+		generateMovesFrom(file, rank, checkLegal, moves);
+		ArrayList<Pair<Integer, Integer>> ret = new ArrayList<>(moves.size());
+		for (int i = 0; i < moves.size(); i++) {
+			int move = moves.get(i);
+			ret.add(new Pair<>(PackedMove.toFile(move), PackedMove.toRank(move)));
 		}
-		if (checkLegal) {
-			Piece.Color thisSideColor = pieceAt(file, rank).getColor();
-			pseudoLegal.removeIf(sq -> inCheck(thisSideColor, file, rank, sq.getKey(), sq.getValue()));
-		}
-		return pseudoLegal;
+		return ret;
 	}
 	
 	/**
@@ -691,15 +1758,17 @@ public class Position {
 	 * Parse a string in algebraic format.
 	 * @param move The move to parse.
 	 * @param color The player who made the move.
+	 * @param legal The legal moves for color in this position.
 	 * @return The move represented by the given string.
 	 * @throws ParseException If the given string is malformed.
 	 */
-	private Move interpretMoveAlgebraic(String move, Piece.Color color) throws ParseException {
+	private Move interpretMoveAlgebraic(String move, Piece.Color color, MoveList legal)
+			throws ParseException {
 		int startFile = -1;
 		int endFile = -1;
 		int startRank = -1;
 		int endRank = -1;
-		Piece.Type pieceType = new Piece(move.charAt(0)).getType();
+		Piece.Type pieceType = Piece.of(move.charAt(0)).getType();
 		int index = -1;
 		if (Character.isDigit(move.charAt(move.length() - 2))) {
 			// This should only happen if a piece moved to the tenth rank.
@@ -723,48 +1792,99 @@ public class Position {
 		endFile = move.charAt(index) - 'a';
 		// Find the start square.
 		ArrayList<Pair<Integer, Integer>> start = new ArrayList<>();
-		for (int f = 0; f < 9; f++) {
-			for (int r = 0; r < 10; r++) {
-				if (pieceAt(f, r).getType() == pieceType) {
-					ArrayList<Pair<Integer, Integer>> tmp =
-							getMovesFrom(f, r);
-					for (Pair<Integer, Integer> p : tmp) {
-						if (endFile == p.getKey() && endRank == p.getValue()) {
-							start.add(new Pair<>(f, r));
-						}
-					}
-				}
+		int endSquare = toSquare(endFile, endRank);
+		for (int i = 0; i < legal.size(); i++) {
+			int m = legal.get(i);
+			if (PackedMove.to(m) == endSquare &&
+					Piece.typeOf(PackedMove.movedCode(m)) == pieceType) {
+				start.add(new Pair<>(PackedMove.fromFile(m), PackedMove.fromRank(m)));
 			}
 		}
 		if (start.isEmpty()) {
 			throw new ParseException("Unparsable move: " + move, 0);
 		} else if (start.size() > 1) {
 			// Figure out which of the potential starting moves is
-			// the correct one.
+			// the correct one from the rank or file given after the piece.
+			int clarRank = -1;
+			int clarFile = -1;
 			if (Character.isDigit(move.charAt(1))) {
-				startFile = start.get(0).getKey();
-				startRank = Character.getNumericValue(move.charAt(1));
-				if (startRank < 1) {
+				clarRank = Character.getNumericValue(move.charAt(1));
+				if (clarRank == 1 && move.charAt(2) == '0') {
+					clarRank = 10;
+				}
+				if (clarRank < 1) {
 					throw new ParseException("Unparsable move: " + move, 1);
 				}
-				startRank = 10 - startRank;
+				clarRank = 10 - clarRank;
+			} else if (move.charAt(1) < 'a' || move.charAt(1) > 'i') {
+				throw new ParseException("Unparsable move: " + move, 1);
 			} else {
-				startRank = start.get(0).getValue();
-				if (move.charAt(1) < 'a' || move.charAt(1) > 'i') {
-					throw new ParseException("Unparsable move: " + move, 1);
-				} else {
-					startFile = move.charAt(1) - 'a';
+				clarFile = move.charAt(1) - 'a';
+			}
+			for (Pair<Integer, Integer> sq : start) {
+				if (sq.getKey() == clarFile || sq.getValue() == clarRank) {
+					startFile = sq.getKey();
+					startRank = sq.getValue();
 				}
 			}
+			if (startFile < 0) {
+				throw new ParseException("Unparsable move: " + move, 1);
+			}
 		} else {
 			startFile = start.get(0).getKey();
 			startRank = start.get(0).getValue();
 		}
 		
-		return new Move(new Piece(color, pieceType),
+		return new Move(Piece.of(color, pieceType),
 				new Pair<>(startFile, startRank), new Pair<>(endFile, endRank));
 	}
 	
+	/**
+	 * Count the pieces of one kind on the same file as, and in front of, a
+	 * given square. In front means toward the opponent.
+	 * @param code The compact code of the pieces to count.
+	 * @param sq The square to count from.
+	 * @param color The side the pieces belong to.
+	 * @return The number of such pieces ahead of the square.
+	 */
+	private int countAhead(int code, int sq, Piece.Color color) {
+		int ahead = 0;
+		for (int i = 0; i < typeCount[code]; i++) {
+			int other = typeList[code][i];
+			if (fileOf(other) == fileOf(sq) && (color == Piece.Color.RED ?
+					rankOf(other) < rankOf(sq) : rankOf(other) > rankOf(sq))) {
+				ahead++;
+			}
+		}
+		return ahead;
+	}
+	
+	/**
+	 * Find the front or rear piece of a pair of pieces of one kind standing
+	 * in tandem (on the same file).
+	 * @param code The compact code of the pieces.
+	 * @param color The side the pieces belong to.
+	 * @param front True for the front piece, false for the rear one.
+	 * @return The square of the requested piece, or -1 if no two pieces of
+	 * that kind share a file.
+	 */
+	private int findTandem(int code, Piece.Color color, boolean front) {
+		for (int i = 0; i < typeCount[code]; i++) {
+			int sq = typeList[code][i];
+			for (int j = 0; j < typeCount[code]; j++) {
+				int other = typeList[code][j];
+				if (i == j || fileOf(other) != fileOf(sq)) {
+					continue;
+				}
+				boolean isFront = countAhead(code, sq, color) == 0;
+				if (isFront == front) {
+					return sq;
+				}
+			}
+		}
+		return -1;
+	}
+	
 	/**
 	 * Parse a string in WXF/relative format.
 	 * @param move The move to parse.
@@ -788,87 +1908,49 @@ public class Position {
 					throw new ParseException("Unparsable move: " + move, 0);
 				}
 				startFile = Character.getNumericValue(move.charAt(1)) - 1;
-				if (startFile < 0) {
+				if (startFile < 0 || startFile > 8) {
 					throw new ParseException("Unparsable move: " + move, 1);
 				}
-				int start = color == Piece.Color.RED ? 0 : 9;
-				int diff = color == Piece.Color.RED ? 1 : -1;
-				int i = 0;
-				boolean found = false;
-				for (int r = start; r >= 0 && r < 10; r += diff) {
-					if (pieceAt(startFile, r).equals(new Piece(color, Piece.Type.PAWN))) {
-						i++;
-						if (i == index) {
-							startRank = r;
-							found = true;
-							break;
-						}
+				if (color == Piece.Color.RED) {
+					startFile = 8 - startFile;
+				}
+				// Pawns are numbered from the front, so the index'th pawn has
+				// index - 1 pawns on the file ahead of it.
+				int pawn = Piece.toCode(color, Piece.Type.PAWN);
+				for (int i = 0; i < typeCount[pawn]; i++) {
+					int sq = typeList[pawn][i];
+					if (fileOf(sq) == startFile &&
+							countAhead(pawn, sq, color) == index - 1) {
+						startRank = rankOf(sq);
 					}
 				}
-				if (!found) {
+				if (startRank < 0) {
 					throw new ParseException("Unparsable move: " + move, 0);
 				}
 			} else if (move.charAt(0) == '+' || move.charAt(0) == '-') {
-				pieceType = new Piece(move.charAt(1)).getType();
-				boolean foundOne = false;
-				boolean foundTwo = false;
-				for (int f = 0; f < 9; f++) {
-					for (int r = 0; r < 10; r++) {
-						if (pieceAt(f, r).equals(new Piece(color, pieceType))) {
-							startFile = f;
-							if (move.charAt(0) == '+' && color == Piece.Color.RED ||
-									move.charAt(0) == '-' && color == Piece.Color.BLACK) {
-								startRank = r;
-								foundTwo = true;
-								break;
-							} else if (foundOne) {
-								startRank = r;
-								foundTwo = true;
-								break;
-							} else {
-								foundOne = true;
-							}
-						}
-					}
-					if (foundTwo) {
-						break;
-					}
-				}
-				if (!foundTwo) {
+				pieceType = Piece.of(move.charAt(1)).getType();
+				int tandem = findTandem(Piece.toCode(color, pieceType), color,
+						move.charAt(0) == '+');
+				if (tandem < 0) {
 					throw new ParseException("Unparsable move: " + move, 0);
 				}
+				startFile = fileOf(tandem);
+				startRank = rankOf(tandem);
 			} else {
 				throw new ParseException("Unparsable move: " + move, 0);
 			}
 		} else {
-			pieceType = new Piece(move.charAt(0)).getType();
+			pieceType = Piece.of(move.charAt(0)).getType();
 			if ("+-".indexOf(move.charAt(1)) != -1) {
 				// This is the same as the above case but with the
 				// first two characters transposed
-				boolean foundOne = false;
-				boolean foundTwo = false;
-				for (int f = 0; f < 9; f++) {
-					for (int r = 0; r < 10; r++) {
-						if (pieceAt(f, r).equals(new Piece(color, pieceType))) {
-							startFile = f;
-							if (move.charAt(1) == '+' && color == Piece.Color.RED ||
-									move.charAt(1) == '-' && color == Piece.Color.BLACK) {
-								startRank = r;
-								foundTwo = true;
-								break;
-							} else if (foundOne) {
-								startRank = r;
-								foundTwo = true;
-								break;
-							} else {
-								foundOne = true;
-							}
-						}
-					}
-					if (foundTwo) {
-						break;
-					}
+				int tandem = findTandem(Piece.toCode(color, pieceType), color,
+						move.charAt(1) == '+');
+				if (tandem < 0) {
+					throw new ParseException("Unparsable move: " + move, 0);
 				}
+				startFile = fileOf(tandem);
+				startRank = rankOf(tandem);
 			} else if (Character.isDigit(move.charAt(1))) {
 				startFile = Character.getNumericValue(move.charAt(1)) - 1;
 				if (startFile < 0) {
@@ -877,18 +1959,30 @@ public class Position {
 				if (color == Piece.Color.RED) {
 					startFile = 8 - startFile;
 				}
-				boolean found = false;
-				for (int r = 0; r < 10; r++) {
-					if (pieceAt(startFile, r).equals(new Piece(color, pieceType))) {
-						if (found) {
-							throw new ParseException("Unparsable move: " + move, 0);
-						} else {
-							found = true;
-							startRank = r;
+				int code = Piece.toCode(color, pieceType);
+				boolean diagonal = pieceType == Piece.Type.ADVISOR ||
+						pieceType == Piece.Type.ELEPHANT;
+				for (int i = 0; i < typeCount[code]; i++) {
+					int sq = typeList[code][i];
+					if (fileOf(sq) != startFile) {
+						continue;
+					}
+					if (startRank < 0) {
+						startRank = rankOf(sq);
+					} else if (diagonal) {
+						// Tandem advisors and elephants are told apart by
+						// direction: only the rear one can advance and only
+						// the front one can retreat.
+						boolean front = countAhead(code, sq, color) == 0;
+						if (front == (move.charAt(2) == '-')) {
+							startRank = rankOf(sq);
 						}
+					} else {
+						// Other tandem pieces must be written with + or -.
+						throw new ParseException("Unparsable move: " + move, 0);
 					}
 				}
-				if (!found) {
+				if (startRank < 0) {
 					throw new ParseException("Unparsable move: " + move, 0);
 				}
 			} else {
@@ -902,6 +1996,9 @@ public class Position {
 			if (endFile < 0 || endFile > 8) {
 				throw new ParseException("Unparsable move: " + move, 3);
 			}
+			if (color == Piece.Color.RED) {
+				endFile = 8 - endFile;
+			}
 		} else {
 			if (pieceType == Piece.Type.PAWN ||
 					pieceType == Piece.Type.ROOK ||
@@ -963,7 +2060,7 @@ public class Position {
 					if (endFile == startFile - 2 || endFile == startFile + 2) {
 						endRank = startRank - 1;
 					} else if (endFile == startFile - 1 || endFile == startFile + 1) {
-						endRank = startRank + 2;
+						endRank = startRank - 2;
 					} else {
 						throw new ParseException("Unparsable move: " + move, 0);
 					}
@@ -990,7 +2087,7 @@ public class Position {
 				throw new ParseException("Unknown piece type", 0);
 			}
 		}
-		return new Move(new Piece(color, pieceType),
+		return new Move(Piece.of(color, pieceType),
 				new Pair<>(startFile, startRank), new Pair<>(endFile, endRank));
 	}
 	
@@ -1004,6 +2101,23 @@ public class Position {
 	 * @throws An exception if the string does not represent a legal move.
 	 */
 	public Move interpretMove(String move, Piece.Color color) throws ParseException {
+		MoveList legal = new MoveList();
+		generateLegalMoves(color, legal);
+		return interpretMove(move, color, legal);
+	}
+	
+	/**
+	 * Convert a string representation of a move to a Move object using legal
+	 * moves which have already been generated, e.g., by
+	 * {@link GameTree#getLegalMoves()}.
+	 * @param move A string representation of the move.
+	 * @param color The color whose turn it is.
+	 * @param legal The legal moves for color in this position.
+	 * @return The move represented by the given string
+	 * @throws An exception if the string does not represent a legal move.
+	 */
+	public Move interpretMove(String move, Piece.Color color, MoveList legal)
+			throws ParseException {
 		if (move.length() < 3) {
 			throw new ParseException("Unparsable move: " + move, 0);
 		}
@@ -1020,7 +2134,7 @@ public class Position {
 			for (int i = 0; i < move.length(); i++)  {
 				// Algebraic moves always include a file letter.
 				if ('a' <= move.charAt(i) && move.charAt(i) <= 'i') {
-					parsed = interpretMoveAlgebraic(move, color);
+					parsed = interpretMoveAlgebraic(move, color, legal);
 					break;
 				}
 			}
@@ -1034,10 +2148,16 @@ public class Position {
 		int endFile = parsed.getToSquare().getKey();
 		int endRank = parsed.getToSquare().getValue();
 		
-		ArrayList<Pair<Integer, Integer>> legal = getMovesFrom(startFile, startRank);
-		for (Pair<Integer, Integer> m : legal) {
-			if (endFile == m.getKey() && endRank == m.getValue()) {
-				return new Move(pieceAt(startFile, startRank), new Pair<>(startFile, startRank), m);
+		if (startFile < 0 || startFile > 8 || startRank < 0 || startRank > 9 ||
+				endFile < 0 || endFile > 8 || endRank < 0 || endRank > 9) {
+			throw new ParseException("Illegal move: " + move, 0);
+		}
+		int from = toSquare(startFile, startRank);
+		int to = toSquare(endFile, endRank);
+		for (int i = 0; i < legal.size(); i++) {
+			int m = legal.get(i);
+			if (PackedMove.from(m) == from && PackedMove.to(m) == to) {
+				return PackedMove.toMove(m);
 			}
 		}
 		throw new ParseException("Illegal move: " + move, 0);
@@ -1048,28 +2168,7 @@ public class Position {
 	 */
 	@Override
 	public String toString() {
-		StringBuilder sb = new StringBuilder();
-		for (int r = 0; r < 10; r++) {
-			int skip = 0;
-			for (int f = 0; f < 9; f++) {
-				if (hasPieceAt(f, r)) {
-					if (skip > 0) {
-						sb.append(skip);
-						skip = 0;
-					}
-					sb.append(pieceAt(f, r).getCode());
-				} else {
-					skip++;
-				}
-			}
-			if (skip > 0) {
-				sb.append(skip);
-			}
-			if (r < 9) {
-				sb.append('/');
-			}
-		}
-		return sb.toString();
+		return Fen.write(this, Fen.Letters.WXF, new StringBuilder(Fen.MAX_LENGTH)).toString();
 	}
 	
 }
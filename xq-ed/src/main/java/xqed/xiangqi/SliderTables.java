@@ -0,0 +1,113 @@
+package xqed.xiangqi;
+
+/**
+ * Precomputed rook and cannon targets along a single rank or file. A rank has
+ * 9 points and a file has 10, so the occupancy of a line fits in a 9- or
+ * 10-bit mask (bit i set if the i'th point on the line is occupied) and every
+ * slide can be answered with one table lookup. The tables are indexed by
+ * {@link #rankIndex} or {@link #fileIndex} and return a mask of points on
+ * the same line.
+ */
+final class SliderTables {
+
+	/** The number of occupancy bits in a rank. */
+	private static final int RANK_BITS = Position.FILES;
+	/** The number of occupancy bits in a file. */
+	private static final int FILE_BITS = Position.RANKS;
+
+	/** Empty points a rook or cannon can move to along a rank. */
+	static final short[] RANK_MOVES = new short[RANK_BITS << RANK_BITS];
+	/** The first occupied point in each direction along a rank. */
+	static final short[] RANK_ROOK_CAPTURES = new short[RANK_BITS << RANK_BITS];
+	/** The first occupied point beyond a screen in each direction along a rank. */
+	static final short[] RANK_CANNON_CAPTURES = new short[RANK_BITS << RANK_BITS];
+
+	/** Empty points a rook or cannon can move to along a file. */
+	static final short[] FILE_MOVES = new short[FILE_BITS << FILE_BITS];
+	/** The first occupied point in each direction along a file. */
+	static final short[] FILE_ROOK_CAPTURES = new short[FILE_BITS << FILE_BITS];
+	/** The first occupied point beyond a screen in each direction along a file. */
+	static final short[] FILE_CANNON_CAPTURES = new short[FILE_BITS << FILE_BITS];
+
+	static {
+		fill(RANK_BITS, RANK_MOVES, RANK_ROOK_CAPTURES, RANK_CANNON_CAPTURES);
+		fill(FILE_BITS, FILE_MOVES, FILE_ROOK_CAPTURES, FILE_CANNON_CAPTURES);
+	}
+
+	private SliderTables() {}
+
+	/**
+	 * Get the table index for a piece on a rank.
+	 * @param file The file of the piece, which is its position on the rank.
+	 * @param occupancy The occupancy mask of the rank.
+	 * @return The index into the RANK tables.
+	 */
+	static int rankIndex(int file, int occupancy) {
+		return file << RANK_BITS | occupancy;
+	}
+
+	/**
+	 * Get the table index for a piece on a file.
+	 * @param rank The rank of the piece, which is its position on the file.
+	 * @param occupancy The occupancy mask of the file.
+	 * @return The index into the FILE tables.
+	 */
+	static int fileIndex(int rank, int occupancy) {
+		return rank << FILE_BITS | occupancy;
+	}
+
+	/**
+	 * Get a mask of the points strictly between two points on a line.
+	 * @param a One point on the line.
+	 * @param b The other point on the line.
+	 * @return A mask with the bits between a and b set.
+	 */
+	static int between(int a, int b) {
+		int low = Math.min(a, b);
+		int high = Math.max(a, b);
+		return (1 << high) - (1 << (low + 1));
+	}
+
+	/**
+	 * Fill the tables for lines of a given length. The bit for the moving
+	 * piece itself is ignored, so the occupancy may include it or not.
+	 * @param n The number of points on the line.
+	 * @param moves The table of empty targets.
+	 * @param rookCaptures The table of first blockers.
+	 * @param cannonCaptures The table of second blockers.
+	 */
+	private static void fill(int n, short[] moves, short[] rookCaptures,
+			short[] cannonCaptures) {
+		for (int p = 0; p < n; p++) {
+			for (int occ = 0; occ < 1 << n; occ++) {
+				int quiet = 0;
+				int rook = 0;
+				int cannon = 0;
+				for (int dir = -1; dir <= 1; dir += 2) {
+					int i = p + dir;
+					while (i >= 0 && i < n && (occ & 1 << i) == 0) {
+						quiet |= 1 << i;
+						i += dir;
+					}
+					if (i < 0 || i >= n) {
+						continue;
+					}
+					// i is the first piece: a rook target or a cannon screen.
+					rook |= 1 << i;
+					i += dir;
+					while (i >= 0 && i < n && (occ & 1 << i) == 0) {
+						i += dir;
+					}
+					if (i >= 0 && i < n) {
+						cannon |= 1 << i;
+					}
+				}
+				int index = p << n | occ;
+				moves[index] = (short) quiet;
+				rookCaptures[index] = (short) rook;
+				cannonCaptures[index] = (short) cannon;
+			}
+		}
+	}
+
+}
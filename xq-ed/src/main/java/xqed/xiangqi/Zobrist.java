@@ -0,0 +1,46 @@
+package xqed.xiangqi;
+
+/**
+ * Random keys for Zobrist hashing of positions. The hash of a position is the
+ * XOR of the key for each piece on its square, with {@link #BLACK_TO_MOVE}
+ * XORed in when Black is to move. The keys come from a fixed seed so hashes
+ * are the same across runs and can be stored.
+ */
+final class Zobrist {
+
+	/** The key for each piece code on each square, indexed [code][square]. */
+	static final long[][] PIECE = new long[16][Position.SQUARES];
+
+	/** The key XORed in when Black is to move. */
+	static final long BLACK_TO_MOVE;
+
+	static {
+		long seed = 0x7871656420786171L;
+		for (int code = 0; code < PIECE.length; code++) {
+			// Code 0 is an empty square and keeps all zero keys.
+			if ((code & Piece.TYPE_MASK) == Piece.EMPTY_CODE) {
+				continue;
+			}
+			for (int sq = 0; sq < Position.SQUARES; sq++) {
+				seed += 0x9e3779b97f4a7c15L;
+				PIECE[code][sq] = mix(seed);
+			}
+		}
+		seed += 0x9e3779b97f4a7c15L;
+		BLACK_TO_MOVE = mix(seed);
+	}
+
+	private Zobrist() {}
+
+	/**
+	 * Scramble a counter into a random-looking value (the SplitMix64 finalizer).
+	 * @param z The value to scramble.
+	 * @return The scrambled value.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -0,0 +1,109 @@
+package xqed;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.text.ParseException;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import xqed.xiangqi.Piece;
+import xqed.xiangqi.Position;
+
+class MateSolverTest {
+
+	@Test
+	void testMateInOne() {
+		MateSolver solver = new MateSolver(1);
+		try {
+			Position pos = new Position("4k4/R8/9/9/9/8R/9/9/9/3K5");
+			MateSolver.Result result = solver.solve(pos, Piece.Color.RED, 3, 0);
+			assertEquals(result.getStatus(), MateSolver.Result.Status.MATE);
+			assertEquals(result.getMoves(), 1);
+			assertEquals(result.getLine().strip(), "i5i10");
+			// The solver works on a copy.
+			assertEquals(pos.getHash(), new Position("4k4/R8/9/9/9/8R/9/9/9/3K5").getHash());
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+	}
+
+	@Test
+	void testChecksOnly() {
+		MateSolver solver = new MateSolver(1);
+		// With only checks the rooks need three moves to drive the king up the
+		// board, but with quiet moves too, such as b2b9, they need only two.
+		try {
+			Position pos = new Position("4k4/9/9/9/9/9/9/9/1R7/R2K5");
+			MateSolver.Result result = solver.solve(pos, Piece.Color.RED, 2, 0);
+			assertEquals(result.getStatus(), MateSolver.Result.Status.NO_MATE);
+			result = solver.solve(pos, Piece.Color.RED, 5, 0);
+			assertEquals(result.getStatus(), MateSolver.Result.Status.MATE);
+			assertEquals(result.getMoves(), 3);
+			// Both attacking moves and defences are in the line, ending in mate.
+			assertEquals(result.getLine().strip().split(" ").length, 5);
+
+			solver = new MateSolver(1);
+			solver.setChecksOnly(false);
+			assertFalse(solver.isChecksOnly());
+			result = solver.solve(pos, Piece.Color.RED, 5, 0);
+			assertEquals(result.getStatus(), MateSolver.Result.Status.MATE);
+			assertEquals(result.getMoves(), 2);
+			assertEquals(result.getLine().strip().split(" ").length, 3);
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+	}
+
+	@Test
+	void testStalemate() {
+		MateSolver solver = new MateSolver(1);
+		solver.setChecksOnly(false);
+		// The rook on a9 takes d9 and the kings may not face each other, so
+		// Black has no move. That loses, though the king is not in check, and
+		// the pawn stops the rook checking down the d file.
+		try {
+			Position pos = new Position("3k5/9/9/9/9/9/3P5/9/R8/4K4");
+			MateSolver.Result result = solver.solve(pos, Piece.Color.RED, 3, 0);
+			assertEquals(result.getStatus(), MateSolver.Result.Status.MATE);
+			assertEquals(result.getMoves(), 1);
+			assertEquals(result.getLine().strip(), "a2a9");
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+	}
+
+	@Test
+	void testTimeLimit() {
+		MateSolver solver = new MateSolver(1);
+		solver.setChecksOnly(false);
+		long begin = System.nanoTime();
+		MateSolver.Result result = solver.solve(new Position(), Piece.Color.RED, 5, 20);
+		double elapsed = (System.nanoTime() - begin) / 1e9;
+		assertEquals(result.getStatus(), MateSolver.Result.Status.TIMEOUT);
+		assertTrue(elapsed < 5, "solver took " + elapsed + " s");
+	}
+
+	@Test
+	void testSolveAll() {
+		List<String> problems = List.of(
+				"4k4/R8/9/9/9/8R/9/9/9/3K5 w",
+				"rheakaehr/9/1c5c1/p1p1p1p1p/9/9/P1P1P1P1P/1C5C1/9/RHEAKAEHR",
+				"3k5/9/9/9/9/9/9/9/9/R3K3R b",
+				"r2k5/1r7/9/9/9/9/9/9/9/4K4 b");
+		try {
+			List<MateSolver.Result> results = MateSolver.solveAll(problems, 3, 0, 2,
+					new TranspositionTable(1), true);
+			assertEquals(results.size(), 4);
+			assertEquals(results.get(0).getMoves(), 1);
+			assertEquals(results.get(1).getStatus(), MateSolver.Result.Status.NO_MATE);
+			assertEquals(results.get(2).getStatus(), MateSolver.Result.Status.NO_MATE);
+			// The problem from testChecksOnly with the colours swapped.
+			assertEquals(results.get(3).getStatus(), MateSolver.Result.Status.MATE);
+			assertEquals(results.get(3).getMoves(), 3);
+		} catch (ParseException e) {
+			fail("Unable to parse problems");
+		}
+		assertThrows(ParseException.class, () -> MateSolver.solveAll(List.of("xyz"), 1, 0, 1,
+				new TranspositionTable(1), true));
+	}
+
+}
@@ -0,0 +1,104 @@
+package xqed;
+
+import java.text.ParseException;
+
+import xqed.xiangqi.Piece;
+import xqed.xiangqi.Position;
+
+/**
+ * Measures how the time {@link Search} takes to reach a fixed depth scales
+ * with the number of threads. Each thread count searches the same positions
+ * with a fresh transposition table, and the total time spent searching is
+ * compared with the time for one thread. It lives with the tests so that it
+ * is not shipped with the application; run it from the test classes on the
+ * class path.
+ */
+public final class SearchBenchmark {
+
+	/** The thread counts to try, up to the limit given. */
+	private static final int[] THREADS = { 1, 2, 4, 8, 16 };
+
+	/** Positions from the opening, middlegame and endgame, Red to move. */
+	private static final String[] POSITIONS = {
+		"rheakaehr/9/1c5c1/p1p1p1p1p/9/9/P1P1P1P1P/1C5C1/9/RHEAKAEHR",
+		"r1eakaehr/9/1ch4c1/p1p1p3p/6p2/2P6/P3P1P1P/1C2C1H2/9/RHEAKAE1R",
+		"2eakae2/4r4/4c4/p3p3p/2p6/6P2/P1P1P3P/4C1H2/4A4/2E1KAE2",
+		"3ak4/4a4/4e4/4P4/2h6/9/9/4E4/4A4/3AK4"
+	};
+
+	private SearchBenchmark() {}
+
+	/**
+	 * Run the benchmark.
+	 * @param args The depth to search to (default 6), the most threads to try
+	 * (default 16) and the size of the transposition table in megabytes
+	 * (default 64).
+	 */
+	public static void main(String[] args) {
+		int depth = 6;
+		int maxThreads = 16;
+		int hash = 64;
+		try {
+			if (args.length > 0) {
+				depth = Integer.parseInt(args[0]);
+			}
+			if (args.length > 1) {
+				maxThreads = Integer.parseInt(args[1]);
+			}
+			if (args.length > 2) {
+				hash = Integer.parseInt(args[2]);
+			}
+		} catch (NumberFormatException e) {
+			depth = 0;
+		}
+		if (depth < 1 || maxThreads < 1 || hash < 1) {
+			System.err.println("Usage: SearchBenchmark [depth] [max threads] [hash MB]");
+			System.exit(1);
+		}
+		Position[] positions = new Position[POSITIONS.length];
+		try {
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] = new Position(POSITIONS[i]);
+			}
+		} catch (ParseException e) {
+			throw new IllegalStateException("Bad benchmark position: " + e.getMessage());
+		}
+
+		Search search = new Search();
+		search.setNumPV(1);
+		search.setHashSize(hash);
+		// Warm up the JIT compiler so the first thread count is not penalized.
+		for (Position pos : positions) {
+			search.search(pos, Piece.Color.RED, Integer.min(depth, 4), 0, null);
+		}
+
+		System.out.println(String.format("Depth %d, %d positions, %d MB hash, %d processors",
+				depth, positions.length, search.getHashMegabytes(),
+				Runtime.getRuntime().availableProcessors()));
+		System.out.println("Threads     Time (s)       Nodes    Nodes/s  Speedup");
+		double baseline = 0;
+		for (int threads : THREADS) {
+			if (threads > maxThreads) {
+				break;
+			}
+			search.setThreads(threads);
+			long nodes = 0;
+			long elapsed = 0;
+			for (Position pos : positions) {
+				// Clearing the table takes the same time whatever the thread
+				// count, so only the searches are timed.
+				search.clearHash();
+				long start = System.nanoTime();
+				nodes += search.search(pos, Piece.Color.RED, depth, 0, null).getNodes();
+				elapsed += System.nanoTime() - start;
+			}
+			double seconds = elapsed / 1e9;
+			if (threads == 1) {
+				baseline = seconds;
+			}
+			System.out.println(String.format("%7d %12.3f %11d %10.0f %8.2f", threads, seconds,
+					nodes, nodes / seconds, baseline / seconds));
+		}
+	}
+
+}
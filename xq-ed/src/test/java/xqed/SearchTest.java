@@ -0,0 +1,273 @@
+package xqed;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import org.junit.jupiter.api.Test;
+import xqed.xiangqi.GameTree;
+import xqed.xiangqi.History;
+import xqed.xiangqi.Move;
+import xqed.xiangqi.Piece;
+import xqed.xiangqi.Position;
+
+class SearchTest {
+
+	@Test
+	void testMate() {
+		Search search = new Search();
+		// The rook on i5 mates along the back rank: the other rook covers the
+		// second rank and the kings may not face each other on the d file.
+		try {
+			Position pos = new Position("4k4/R8/9/9/9/8R/9/9/9/3K5");
+			Engine.EngineInfo info = search.search(pos, Piece.Color.RED, 4, 0, null);
+			assertEquals(info.getScore(0), (Search.MATE - 1) / 100.0);
+			assertEquals(info.getLine(0).strip(),
+					Move.pointToString(8, 5) + Move.pointToString(8, 0));
+			// The mate is found at depth 1 and searching deeper cannot improve it.
+			assertEquals(info.getDepth(), 1);
+
+			// Once mated there is nothing to search.
+			pos.clearPiece(8, 5);
+			pos.setPiece(8, 0, Piece.of(Piece.Color.RED, Piece.Type.ROOK));
+			info = search.search(pos, Piece.Color.BLACK, 4, 0, null);
+			assertEquals(info.getScore(0), -Search.MATE / 100.0);
+			assertEquals(info.getDepth(), 0);
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+	}
+
+	@Test
+	void testQuiescence() {
+		Search search = new Search();
+		// Taking the horse on e5 wins a horse at depth 1, but the quiescence
+		// search sees the black rook take back the red rook, with nothing left
+		// to screen the cannon, so the capture loses material.
+		try {
+			Position pos = new Position("3k5/9/4r4/9/9/4h4/9/9/4R4/4CK3");
+			search.setNumPV(Search.MAX_PLY);
+			Engine.EngineInfo info = search.search(pos, Piece.Color.RED, 1, 0, null);
+			String capture = Move.pointToString(4, 8) + Move.pointToString(4, 5);
+			int found = -1;
+			for (int i = 0; i < info.getLines().length; i++) {
+				if (info.getLine(i).strip().startsWith(capture)) {
+					found = i;
+				}
+			}
+			assertTrue(found > 0);
+			assertTrue(info.getScore(found) < 0);
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+	}
+
+	@Test
+	void testIterativeDeepening() {
+		Search search = new Search();
+		Position start = new Position();
+		ArrayList<Engine.EngineInfo> reports = new ArrayList<>();
+		Engine.EngineInfo info = search.search(start, Piece.Color.RED, 3, 0, reports::add);
+		assertEquals(reports.size(), 3);
+		assertSame(reports.get(2), info);
+		for (int i = 0; i < reports.size(); i++) {
+			assertEquals(reports.get(i).getDepth(), i + 1);
+		}
+		assertTrue(info.getNodes() > 0);
+		// Three different lines, best first, each three plies long.
+		String[] lines = info.getLines();
+		assertEquals(lines.length, 3);
+		for (int i = 0; i < lines.length; i++) {
+			assertEquals(lines[i].strip().split(" ").length, 3);
+			if (i > 0) {
+				assertTrue(info.getScore(i) <= info.getScore(i - 1));
+				assertNotEquals(lines[i].strip().split(" ")[0],
+						lines[i - 1].strip().split(" ")[0]);
+			}
+		}
+		// The search works on a copy.
+		assertEquals(start.getHash(), new Position().getHash());
+
+		// Asking for fewer lines gives the same best score.
+		search.setNumPV(1);
+		Engine.EngineInfo single = search.search(start, Piece.Color.RED, 3, 0, null);
+		assertEquals(single.getScore(0), info.getScore(0));
+		assertEquals(single.getLines().length, 1);
+	}
+
+	@Test
+	void testThreads() {
+		Search search = new Search();
+		search.setThreads(4);
+		assertEquals(search.getThreads(), 4);
+		try {
+			Position pos = new Position("4k4/R8/9/9/9/8R/9/9/9/3K5");
+			Engine.EngineInfo info = search.search(pos, Piece.Color.RED, 4, 0, null);
+			assertEquals(info.getScore(0), (Search.MATE - 1) / 100.0);
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+		// The helpers only share the table, so the main thread reports every
+		// depth and a full line from the start position as before.
+		ArrayList<Engine.EngineInfo> reports = new ArrayList<>();
+		Engine.EngineInfo info = search.search(new Position(), Piece.Color.RED, 4, 0,
+				reports::add);
+		assertEquals(reports.size(), 4);
+		assertEquals(info.getDepth(), 4);
+		assertFalse(info.getLine(0).isBlank());
+		search.setThreads(1);
+		assertEquals(search.getThreads(), 1);
+	}
+
+	@Test
+	void testOneSearchAtATime() {
+		Search search = new Search();
+		search.startEngine();
+		assertTrue(search.isRunning());
+		assertThrows(IllegalStateException.class,
+				() -> search.search(new Position(), Piece.Color.RED, 1, 0, null));
+		search.stopEngine();
+		assertFalse(search.isRunning());
+		Engine.EngineInfo info = search.search(new Position(), Piece.Color.RED, 1, 0, null);
+		assertEquals(info.getDepth(), 1);
+	}
+
+	@Test
+	void testAnalysisEnds() {
+		Search search = new Search();
+		// Black is mated, so analysis has nothing to do and stops by itself.
+		try {
+			Position pos = new Position("4k3R/R8/9/9/9/9/9/9/9/3K5");
+			search.setPosition(pos, false, 1, null);
+			search.startEngine();
+			long deadline = System.nanoTime() + 5000000000L;
+			while (search.isRunning() && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			assertFalse(search.isRunning());
+			// Analysis was not stopped, so it starts again on a new position.
+			search.setPosition(new Position(), true, 2, null);
+			assertTrue(search.isRunning());
+			search.stopEngine();
+			assertFalse(search.isRunning());
+			search.setPosition(pos, false, 1, null);
+			assertFalse(search.isRunning());
+			assertEquals(search.stopEngine(), "");
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		} catch (InterruptedException e) {
+			fail("Interrupted");
+		}
+	}
+
+	/**
+	 * Start a game from a position with Red to move.
+	 * @param fen The position.
+	 * @return The root of the game.
+	 */
+	private static GameTree gameFrom(String fen) {
+		Position pos = null;
+		try {
+			pos = new Position(fen);
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+		GameTree root = new GameTree();
+		for (int file = 0; file < 9; file++) {
+			for (int rank = 0; rank < 10; rank++) {
+				root.getPosition().clearPiece(file, rank);
+				if (pos.hasPieceAt(file, rank)) {
+					root.getPosition().setPiece(file, rank, pos.pieceAt(file, rank));
+				}
+			}
+		}
+		root.positionChanged();
+		return root;
+	}
+
+	/**
+	 * Add moves to the end of a game.
+	 * @param node The node to move from.
+	 * @param moves The moves in UCCI format.
+	 * @return The node after the last move.
+	 */
+	private static GameTree play(GameTree node, String... moves) {
+		for (String move : moves) {
+			Move m = null;
+			try {
+				m = node.interpretMove(move);
+			} catch (ParseException e) {
+				fail(e.getMessage());
+			}
+			GameTree child = new GameTree(node.getPosition().makeMove(m), node, m,
+					node.getMoveNum() + 1);
+			node.addVariation(child);
+			node = child;
+		}
+		return node;
+	}
+
+	@Test
+	void testPerpetualCheck() {
+		Search search = new Search();
+		// Black threatens mate with the rook on b6. Red can only hold it off
+		// by checking with the rook while the king steps between d10 and d9,
+		// and perpetual check loses.
+		try {
+			Position pos = new Position("3k5/9/3a5/9/1r7/8R/9/9/r8/4K4");
+			Engine.EngineInfo info = search.search(pos, Piece.Color.RED, 6, 0, null);
+			assertEquals(info.getScore(0), -Search.PERPETUAL / 100.0);
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+	}
+
+	@Test
+	void testPerpetualChase() {
+		Search search = new Search();
+		// The rook on h1 threatens to take the pinned elephant with mate, and
+		// only the horse on h3 covers g1. In the game the horse has gone back
+		// and forth between h3 and i5 chasing the cannon between f4 and g4,
+		// so going back to h3 repeats the position by chasing, which loses.
+		GameTree node = play(gameFrom("4k4/9/9/9/9/8H/5c3/9/r8/5KEr1"),
+				"i5h3", "f4g4", "h3i5", "g4f4");
+		Position pos = node.getPosition();
+		History history = node.getHistory();
+		Engine.EngineInfo info = search.search(pos, Piece.Color.RED, history, 4, 0, null);
+		assertEquals(info.getScore(0), -Search.PERPETUAL / 100.0);
+		assertEquals(info.getLine(0).strip(), "i5h3");
+		assertEquals(history.size(), 5);
+
+		// Without the game the horse can go to h3 again, and Red is mated.
+		search.clearHash();
+		info = search.search(pos, Piece.Color.RED, 4, 0, null);
+		assertTrue(info.getScore(0) < -Search.WIN / 100.0);
+	}
+
+	@Test
+	void testMutualRepetition() {
+		Search search = new Search();
+		// Red is a rook down, and both horses have gone out and come back.
+		// Going out again repeats the position with no checks or chases,
+		// which is a draw.
+		GameTree node = play(gameFrom("rheakaehr/9/1c5c1/p1p1p1p1p/9/9/P1P1P1P1P/1C5C1/9/1HEAKAEHR"),
+				"b1c3", "b10c8", "c3b1", "c8b10");
+		Engine.EngineInfo info = search.search(node.getPosition(), Piece.Color.RED,
+				node.getHistory(), 3, 0, null);
+		assertEquals(info.getScore(0), 0.0);
+		assertEquals(info.getLine(0).strip(), "b1c3");
+	}
+
+	@Test
+	void testTimeLimit() {
+		Search search = new Search();
+		long begin = System.nanoTime();
+		Engine.EngineInfo info = search.search(new Position(), Piece.Color.RED,
+				Search.MAX_PLY, 200, null);
+		double elapsed = (System.nanoTime() - begin) / 1e9;
+		assertTrue(elapsed < 5, "search took " + elapsed + " s");
+		assertTrue(info.getDepth() >= 1);
+		assertFalse(info.getLine(0).isBlank());
+	}
+
+}
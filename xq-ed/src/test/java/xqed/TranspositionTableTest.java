@@ -0,0 +1,67 @@
+package xqed;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class TranspositionTableTest {
+
+	/** The number of clusters in a 1 MB table: 64 bytes each. */
+	private static final long CLUSTERS = (1 << 20) / 64;
+
+	@Test
+	void testStoreAndProbe() {
+		TranspositionTable table = new TranspositionTable(1);
+		assertEquals(table.getMegabytes(), 1);
+		long key = 0x123456789abcdefL;
+		assertEquals(table.probe(key), 0);
+
+		table.store(key, 0x2abcde, -1234, 7, TranspositionTable.LOWER);
+		long data = table.probe(key);
+		assertNotEquals(data, 0);
+		assertEquals(TranspositionTable.move(data), 0x2abcde);
+		assertEquals(TranspositionTable.score(data), -1234);
+		assertEquals(TranspositionTable.depth(data), 7);
+		assertEquals(TranspositionTable.bound(data), TranspositionTable.LOWER);
+		// A key in the same cluster is not confused with it.
+		assertEquals(table.probe(key + CLUSTERS), 0);
+
+		// Storing the same key again replaces the entry.
+		table.store(key, 0, Search.MATE, 3, TranspositionTable.EXACT);
+		data = table.probe(key);
+		assertEquals(TranspositionTable.score(data), Search.MATE);
+		assertEquals(TranspositionTable.depth(data), 3);
+
+		table.clear();
+		assertEquals(table.probe(key), 0);
+
+		// Sizes are rounded down to a power of two.
+		assertEquals(new TranspositionTable(3).getMegabytes(), 2);
+		assertThrows(IllegalArgumentException.class, () -> new TranspositionTable(0));
+	}
+
+	@Test
+	void testReplacement() {
+		TranspositionTable table = new TranspositionTable(1);
+		// Fill one cluster with entries of depths 4, 2, 6 and 5.
+		int[] depths = { 4, 2, 6, 5 };
+		for (int i = 0; i < depths.length; i++) {
+			table.store(i * CLUSTERS, i + 1, 0, depths[i], TranspositionTable.EXACT);
+		}
+		// The shallowest entry makes way for a new one.
+		table.store(4 * CLUSTERS, 5, 0, 1, TranspositionTable.EXACT);
+		assertEquals(table.probe(1 * CLUSTERS), 0);
+		assertNotEquals(table.probe(4 * CLUSTERS), 0);
+
+		// Entries from an earlier search count as shallower than new ones.
+		table.newSearch();
+		table.store(5 * CLUSTERS, 6, 0, 3, TranspositionTable.EXACT);
+		assertEquals(table.probe(4 * CLUSTERS), 0);
+		table.store(6 * CLUSTERS, 7, 0, 3, TranspositionTable.EXACT);
+		assertEquals(table.probe(0), 0);
+		assertNotEquals(table.probe(5 * CLUSTERS), 0);
+		assertNotEquals(table.probe(6 * CLUSTERS), 0);
+		assertNotEquals(table.probe(2 * CLUSTERS), 0);
+	}
+
+}
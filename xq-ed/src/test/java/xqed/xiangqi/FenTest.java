@@ -0,0 +1,67 @@
+package xqed.xiangqi;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import org.junit.jupiter.api.Test;
+
+class FenTest {
+
+	private static final String START = "rheakaehr/9/1c5c1/p1p1p1p1p/9/9/P1P1P1P1P/1C5C1/9/RHEAKAEHR";
+	private static final String START_UCCI = "rnbakabnr/9/1c5c1/p1p1p1p1p/9/9/P1P1P1P1P/1C5C1/9/RNBAKABNR";
+
+	@Test
+	void testWrite() {
+		Position start = new Position();
+		assertEquals(start.toString(), START);
+		StringBuilder sb = new StringBuilder("fen ");
+		assertSame(Fen.write(start, Fen.Letters.UCCI, sb), sb);
+		assertEquals(sb.toString(), "fen " + START_UCCI);
+
+		byte[] buf = new byte[Fen.MAX_LENGTH + 2];
+		int end = Fen.write(start, Fen.Letters.WXF, buf, 2);
+		assertEquals(new String(buf, 2, end - 2, StandardCharsets.US_ASCII), START);
+	}
+
+	@Test
+	void testParse() {
+		Position start = new Position();
+		Position pos = null;
+		try {
+			pos = Fen.parse(START_UCCI + " w - - 0 1");
+		} catch (ParseException e) {
+			fail(e.getMessage());
+		}
+		assertEquals(pos.toString(), START);
+		assertEquals(pos.getHash(), start.getHash());
+
+		// Reusing a position replaces everything on it.
+		byte[] line = ("4k4/9/9/9/9/9/9/9/9/4K4 b\n" + START).getBytes(StandardCharsets.US_ASCII);
+		try {
+			int end = Fen.parseBoard(line, 0, line.length, pos);
+			assertEquals(end, 23);
+			assertEquals(pos.toString(), "4k4/9/9/9/9/9/9/9/9/4K4");
+			assertEquals(Fen.parseBoard(line, 26, line.length, pos), line.length);
+		} catch (ParseException e) {
+			fail(e.getMessage());
+		}
+		assertEquals(pos.getHash(), start.getHash());
+		assertEquals(Perft.perft(pos, Piece.Color.RED, 2), 1920);
+
+		String[] bad = {
+			"",
+			"rheakaehr/9/1c5c1/p1p1p1p1p/9/9/P1P1P1P1P/1C5C1/9",
+			"rheakaehr/9/1c5c1/p1p1p1p1p/9/9/P1P1P1P1P/1C5C1/9/RHEAKAEHR/9",
+			"rheakaehr/9/1c5c1/p1p1p1p1p/9/9/P1P1P1P1P/1C5C1/9/RHEAKAEHRR",
+			"rheakaehr/9/1c5c1/p1p1p1p1p/9/9/P1P1P1P1P/1C5C1/9/RHEAKAEH",
+			"rheakaehr/9/1c6c1/p1p1p1p1p/9/9/P1P1P1P1P/1C5C1/9/RHEAKAEHR",
+			"rheakaehr/9/1c5x1/p1p1p1p1p/9/9/P1P1P1P1P/1C5C1/9/RHEAKAEHR",
+			"rheakaehr/PPPPPPPPP/PPPPPPPPP/9/9/9/9/9/9/4K4"
+		};
+		for (String fen : bad) {
+			assertThrows(ParseException.class, () -> new Position(fen), fen);
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package xqed.xiangqi;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.text.ParseException;
+import javafx.util.Pair;
+import org.junit.jupiter.api.Test;
+
+class GameTreeTest {
+
+	@Test
+	void testLegalMoveCache() {
+		GameTree root = new GameTree();
+		MoveList moves = root.getLegalMoves();
+		assertEquals(moves.size(), 44);
+		assertSame(root.getLegalMoves(), moves);
+		assertEquals(root.getMovesFrom(3, 9).size(), 1);
+		assertEquals(root.getMovesFrom(3, 9).get(0), new Pair<>(4, 8));
+		// Black pieces cannot move when Red is to move.
+		assertTrue(root.getMovesFrom(3, 0).isEmpty());
+
+		Move m = null;
+		try {
+			m = root.interpretMove("C2=5");
+		} catch (ParseException e) {
+			fail(e.getMessage());
+		}
+		assertEquals(m, new Move(Piece.of(Piece.Color.RED, Piece.Type.CANNON),
+				new Pair<>(7, 7), new Pair<>(4, 7)));
+		assertThrows(ParseException.class, () -> root.interpretMove("C2=9"));
+
+		// Editing the position and signalling the change drops the cache.
+		root.getPosition().clearPiece(3, 9);
+		root.positionChanged();
+		assertNotSame(root.getLegalMoves(), moves);
+		assertTrue(root.getMovesFrom(3, 9).isEmpty());
+	}
+
+	@Test
+	void testMoveTextCache() {
+		GameTree root = new GameTree();
+		Move m = new Move(Piece.of(Piece.Color.RED, Piece.Type.CANNON),
+				new Pair<>(7, 7), new Pair<>(4, 7));
+		GameTree child = new GameTree(root.getPosition().makeMove(m), root, m, 1);
+		root.addVariation(child);
+		assertEquals(child.getMoveText(Move.MoveFormat.RELATIVE), "C2=5");
+		assertEquals(child.getMoveText(Move.MoveFormat.ALGEBRAIC), "Che3");
+		String text = child.getMoveText(Move.MoveFormat.UCCI);
+		assertEquals(text, "h3e3");
+		assertSame(child.getMoveText(Move.MoveFormat.UCCI), text);
+
+		// Moving a black pawn to e3 turns the move into a capture the other cannon
+		// cannot make, but only once the parent reports the change.
+		root.getPosition().clearPiece(0, 3);
+		root.getPosition().setPiece(4, 7, Piece.of(Piece.Color.BLACK, Piece.Type.PAWN));
+		assertEquals(child.getMoveText(Move.MoveFormat.ALGEBRAIC), "Che3");
+		root.positionChanged();
+		assertEquals(child.getMoveText(Move.MoveFormat.ALGEBRAIC), "Cxe3");
+		assertEquals(child.getMoveText(Move.MoveFormat.RELATIVE), "C2=5");
+	}
+
+}
@@ -0,0 +1,117 @@
+package xqed.xiangqi;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.text.ParseException;
+import org.junit.jupiter.api.Test;
+
+class HistoryTest {
+
+	@Test
+	void testRepetitions() {
+		History history = new History(Piece.Color.RED);
+		history.push(1, false, false);
+		history.push(2, true, false);
+		history.push(3, false, false);
+		history.push(4, true, false);
+		assertEquals(history.verdict(), History.Verdict.NONE);
+		// Back to the first position, with every red move a check.
+		history.push(1, false, false);
+		assertEquals(history.repetitions(), 1);
+		assertEquals(history.lastOccurrence(), 0);
+		assertTrue(history.perpetualCheck(Piece.Color.RED));
+		assertFalse(history.perpetualCheck(Piece.Color.BLACK));
+		assertEquals(history.verdict(), History.Verdict.RED_PERPETUAL_CHECK);
+
+		// A copy goes its own way.
+		History copy = history.clone();
+		copy.pop();
+		assertEquals(copy.currentHash(), 4);
+		assertEquals(history.currentHash(), 1);
+		assertEquals(history.verdict(), History.Verdict.RED_PERPETUAL_CHECK);
+
+		// Taking moves back forgets the repetition.
+		history.pop();
+		history.pop();
+		assertEquals(history.size(), 3);
+		assertEquals(history.verdict(), History.Verdict.NONE);
+		history.push(7, false, false);
+		history.push(8, false, true);
+		history.push(9, false, false);
+		history.push(3, false, true);
+		assertEquals(history.repetitions(), 1);
+		assertEquals(history.verdict(), History.Verdict.BLACK_PERPETUAL_CHASE);
+		history.push(7, false, false);
+		history.push(8, false, false);
+		assertEquals(history.repetitions(), 1);
+		assertEquals(history.verdict(), History.Verdict.REPETITION);
+
+		// Long paths grow the table without losing earlier positions.
+		history = new History(Piece.Color.BLACK);
+		for (int i = 0; i < 1000; i++) {
+			history.push(i % 4, true, false);
+		}
+		assertEquals(history.repetitions(), 249);
+		assertEquals(history.lastOccurrence(), 995);
+		assertEquals(history.verdict(), History.Verdict.REPETITION);
+	}
+
+	/**
+	 * Add a move to the end of a game tree.
+	 * @param node The node to move from.
+	 * @param move The move in UCCI format.
+	 * @return The new node.
+	 */
+	private static GameTree play(GameTree node, String move) {
+		Move m = null;
+		try {
+			m = node.interpretMove(move);
+		} catch (ParseException e) {
+			fail(e.getMessage());
+		}
+		GameTree child = new GameTree(node.getPosition().makeMove(m), node, m,
+				node.getMoveNum() + 1);
+		node.addVariation(child);
+		return child;
+	}
+
+	@Test
+	void testGameTreeHistory() {
+		GameTree root = new GameTree();
+		GameTree node = root;
+		// Both horses go out and come back.
+		for (String move : new String[] { "b1c3", "b10c8", "c3b1", "c8b10" }) {
+			node = play(node, move);
+		}
+		History history = node.getHistory();
+		assertEquals(history.size(), 5);
+		assertEquals(history.repetitions(), 1);
+		assertEquals(history.verdict(), History.Verdict.REPETITION);
+
+		// A rook checks the king back and forth between d10 and d9.
+		Position pos = null;
+		try {
+			pos = new Position("3k5/9/9/9/9/9/9/9/9/R4K3");
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+		root = new GameTree();
+		root.getPosition().clear();
+		for (int sq = 0; sq < Position.SQUARES; sq++) {
+			if (pos.codeAt(sq) != Piece.EMPTY_CODE) {
+				root.getPosition().setPiece(Position.fileOf(sq), Position.rankOf(sq),
+						Piece.fromCode(pos.codeAt(sq)));
+			}
+		}
+		root.positionChanged();
+		node = root;
+		for (String move : new String[] { "a1a10", "d10d9", "a10a9", "d9d10", "a9a10", "d10d9" }) {
+			node = play(node, move);
+		}
+		history = node.getHistory();
+		assertEquals(history.repetitions(), 1);
+		assertTrue(history.perpetualCheck(Piece.Color.RED));
+		assertEquals(history.verdict(), History.Verdict.RED_PERPETUAL_CHECK);
+	}
+
+}
@@ -22,6 +22,30 @@ class MoveTest {
 				"(4, 4) should represent e6");
 	}
 
+	@Test
+	void testPackedMove() {
+		Position start = new Position();
+		MoveList moves = new MoveList();
+		start.generateMovesFrom(7, 7, true, moves);
+		// The h-file cannon has 12 moves in the starting position, one of
+		// which captures the horse.
+		assertEquals(moves.size(), 12);
+		int captures = 0;
+		for (int i = 0; i < moves.size(); i++) {
+			int packed = moves.get(i);
+			Move m = PackedMove.toMove(packed);
+			assertEquals(m.getPiece(), Piece.of(Piece.Color.RED, Piece.Type.CANNON));
+			assertEquals(PackedMove.fromMove(m, start), packed);
+			if (PackedMove.isCapture(packed)) {
+				captures++;
+				assertEquals(PackedMove.toString(packed), "h3h10");
+				assertEquals(PackedMove.getCaptured(packed),
+						Piece.of(Piece.Color.BLACK, Piece.Type.HORSE));
+			}
+		}
+		assertEquals(captures, 1);
+	}
+
 	@Test
 	void testWrite() {
 		
@@ -29,7 +53,7 @@ class MoveTest {
 		Position start = new Position();
 		
 		// Basic moves + file ambiguity
-		Move centralCannon = new Move(new Piece(
+		Move centralCannon = new Move(Piece.of(
 				Piece.Color.RED, Piece.Type.CANNON), new Pair<>(7, 7), new Pair<>(4, 7));
 		assertEquals(centralCannon.write(start, Move.MoveFormat.RELATIVE), "C2=5",
 				"The central cannon opening should be written R2=5");
@@ -38,7 +62,7 @@ class MoveTest {
 		assertEquals(centralCannon.write(start, Move.MoveFormat.UCCI), "h3e3",
 				"The central cannon opening should be written h3e3");
 		start = start.makeMove(centralCannon);
-		Move screenHorse = new Move(new Piece(
+		Move screenHorse = new Move(Piece.of(
 				Piece.Color.BLACK, Piece.Type.HORSE), new Pair<>(7, 0), new Pair<>(6, 2));
 		assertEquals(screenHorse.write(start, Move.MoveFormat.RELATIVE), "H8+7",
 				"The screen horse should be written H8+7");
@@ -62,40 +86,40 @@ class MoveTest {
 		// . . . K . . . . .
 		Position testPos = null;
 		try {
-			testPos = new Position("4k4/R6p1/9/7p1/R8/9/7p1/9/9/3K5");
+			testPos = new Position("4k4/R6p1/9/7p1/R8/9/7p1/9/7p1/3K5");
 		} catch (ParseException e) {
 			fail("Unable to parse position");
 		}
 		
 		// Tandem pieces
-		Move frontRook = new Move(new Piece(Piece.Color.RED, Piece.Type.ROOK),
+		Move frontRook = new Move(Piece.of(Piece.Color.RED, Piece.Type.ROOK),
 				new Pair<>(0, 1), new Pair<>(1, 1));
 		assertEquals(frontRook.write(testPos, Move.MoveFormat.RELATIVE), "+R=8",
 				"Tandem rooks should be indicated with + and -");
 		assertEquals(frontRook.write(testPos, Move.MoveFormat.ALGEBRAIC), "Rb9",
 				"Tandem rooks don't always need clarification");
-		Move backRook = new Move(new Piece(Piece.Color.RED, Piece.Type.ROOK),
+		Move backRook = new Move(Piece.of(Piece.Color.RED, Piece.Type.ROOK),
 				new Pair<>(0, 4), new Pair<>(0, 3));
 		assertEquals(backRook.write(testPos, Move.MoveFormat.RELATIVE), "-R+1",
 				"Tandem rooks should be indicated with + and -");
 		assertEquals(backRook.write(testPos, Move.MoveFormat.ALGEBRAIC), "R6a7",
 				"Tandem pieces can be clarified by row number");
-		assertEquals(new Move(new Piece(Piece.Color.RED, Piece.Type.ROOK),
+		assertEquals(new Move(Piece.of(Piece.Color.RED, Piece.Type.ROOK),
 				new Pair<>(0, 1), new Pair<>(0, 3)).write(testPos,
 						Move.MoveFormat.RELATIVE), "+R-2");
 		
 		// Pawns in tandem
-		Move frontPawn = new Move(new Piece(Piece.Color.BLACK, Piece.Type.PAWN),
+		Move frontPawn = new Move(Piece.of(Piece.Color.BLACK, Piece.Type.PAWN),
 				new Pair<>(7, 8), new Pair<>(6, 8));
 		assertEquals(frontPawn.write(testPos, Move.MoveFormat.RELATIVE), "18=7",
 				"Tandem pawns should be numbered");
 		assertEquals(frontPawn.write(testPos, Move.MoveFormat.ALGEBRAIC), "Pg2",
 				"Tandem pawns don't need to be differentiated in algebraic");
-		Move centerPawn = new Move(new Piece(Piece.Color.BLACK, Piece.Type.PAWN),
+		Move centerPawn = new Move(Piece.of(Piece.Color.BLACK, Piece.Type.PAWN),
 				new Pair<>(7, 6), new Pair<>(7, 7));
 		assertEquals(centerPawn.write(testPos, Move.MoveFormat.RELATIVE), "28+1",
 				"Tandem pawns should be numbered");
-		Move backPawn = new Move(new Piece(Piece.Color.BLACK, Piece.Type.PAWN),
+		Move backPawn = new Move(Piece.of(Piece.Color.BLACK, Piece.Type.PAWN),
 				new Pair<>(7, 3), new Pair<>(7, 4));
 		assertEquals(backPawn.write(testPos, Move.MoveFormat.RELATIVE), "38+1",
 				"Tandem pawns should be numbered");
@@ -120,35 +144,71 @@ class MoveTest {
 		}
 
 		// Captures
-		Move capture = new Move(new Piece(Piece.Color.BLACK, Piece.Type.ROOK),
+		Move capture = new Move(Piece.of(Piece.Color.BLACK, Piece.Type.ROOK),
 				new Pair<>(0, 7), new Pair<>(0, 5));
 		assertEquals(capture.write(testPos, Move.MoveFormat.ALGEBRAIC), "Rxa5",
 				"Captures are indicated with x");
 		
 		// Checks
-		Move check = new Move(new Piece(Piece.Color.BLACK, Piece.Type.ROOK),
+		Move check = new Move(Piece.of(Piece.Color.BLACK, Piece.Type.ROOK),
 				new Pair<>(0, 7), new Pair<>(0, 9));
 		assertEquals(check.write(testPos, Move.MoveFormat.ALGEBRAIC), "Ra1+",
 				"Checks are indicted with +");
 		
 		// Capture with check
-		Move chCapt = new Move(new Piece(Piece.Color.BLACK, Piece.Type.HORSE),
+		Move chCapt = new Move(Piece.of(Piece.Color.BLACK, Piece.Type.HORSE),
 				new Pair<>(8, 6), new Pair<>(6, 7));
 		assertEquals(chCapt.write(testPos, Move.MoveFormat.ALGEBRAIC), "Hxg3+",
 				"Checks and captures can be combined");
 		
 		// Checkmate
-		Move chMate = new Move(new Piece(Piece.Color.BLACK, Piece.Type.ROOK),
+		Move chMate = new Move(Piece.of(Piece.Color.BLACK, Piece.Type.ROOK),
 				new Pair<>(0, 7), new Pair<>(5, 7));
 		assertEquals(chMate.write(testPos, Move.MoveFormat.ALGEBRAIC), "Rf3#",
 				"Checkmate is indicated with #");
 		
 		// Capture with checkmate
-		Move captMate = new Move(new Piece(Piece.Color.BLACK, Piece.Type.ELEPHANT),
+		Move captMate = new Move(Piece.of(Piece.Color.BLACK, Piece.Type.ELEPHANT),
 				new Pair<>(5, 2), new Pair<>(7, 4));
 		assertEquals(captMate.write(testPos, Move.MoveFormat.ALGEBRAIC), "Exh6#",
 				"Checkmate and captures can be combined");
 		
 	}
 
+	@Test
+	void testRoundTrip() {
+		// Tandem cannons and horses on both sides, with pieces that can jump
+		// or step past each other.
+		String[] fens = {
+			"2e1k1rh1/5c1c1/7Cr/4p1p2/2P3e1p/p6C1/4P3P/6H2/H3A4/R1EK1AE1R",
+			"1reak1e2/9/2h1Ha3/2P3h1r/p3c3p/2C5R/P3H2p1/4E4/R3K4/3A1A3",
+			"4k4/R6p1/9/7p1/R8/9/7p1/9/7p1/3K5"
+		};
+		MoveList moves = new MoveList();
+		for (String fen : fens) {
+			Position pos = null;
+			try {
+				pos = new Position(fen);
+			} catch (ParseException e) {
+				fail("Unable to parse position");
+			}
+			for (Piece.Color color : Piece.Color.values()) {
+				moves.clear();
+				pos.generateLegalMoves(color, moves);
+				for (int i = 0; i < moves.size(); i++) {
+					Move m = PackedMove.toMove(moves.get(i));
+					for (Move.MoveFormat format : Move.MoveFormat.values()) {
+						String text = m.write(pos, format);
+						try {
+							assertEquals(pos.interpretMove(text, color), m,
+									text + " should read back as " + m);
+						} catch (ParseException e) {
+							fail("Unable to read back " + text);
+						}
+					}
+				}
+			}
+		}
+	}
+
 }
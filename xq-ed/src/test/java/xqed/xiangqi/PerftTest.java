@@ -0,0 +1,40 @@
+package xqed.xiangqi;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+
+class PerftTest {
+
+	@Test
+	void testStartPosition() {
+		Position start = new Position();
+		assertEquals(Perft.perft(start, Piece.Color.RED, 1), 44);
+		assertEquals(Perft.perft(start, Piece.Color.RED, 2), 1920);
+		assertEquals(Perft.perft(start, Piece.Color.RED, 3), 79666);
+		// The position must be left untouched.
+		assertEquals(start.toString(), new Position().toString());
+	}
+
+	@Test
+	void testParallel() {
+		Position start = new Position();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertEquals(Perft.perft(start, Piece.Color.RED, 3, pool), 79666);
+			Map<String, Long> divide = Perft.divide(start, Piece.Color.RED, 2, pool);
+			assertEquals(divide.size(), 44);
+			long total = 0;
+			for (long n : divide.values()) {
+				total += n;
+			}
+			assertEquals(total, 1920);
+			assertEquals(divide, Perft.divide(start, Piece.Color.RED, 2, null));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+}
@@ -4,6 +4,9 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
 import javafx.util.Pair;
 import org.junit.jupiter.api.Test;
 
@@ -69,6 +72,33 @@ class PositionTest {
 		assertFalse(pos.inCheck(Piece.Color.BLACK, 0, 6, 0, 9));
 	}
 
+	@Test
+	void testIsAttacked() {
+		Position pos = null;
+		try {
+			// Black cannon on the e file screened by a red pawn, a red horse
+			// with a blocked leg, and a black pawn across the river.
+			pos = new Position("3k5/9/9/9/4c4/9/4P4/2H6/3p5/4K4");
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+		assertTrue(pos.isAttacked(4, 9, Piece.Color.BLACK));
+		assertTrue(pos.inCheck(Piece.Color.RED));
+		assertFalse(pos.inCheck(Piece.Color.BLACK));
+		// The black pawn attacks sideways and forward but not backward.
+		assertTrue(pos.isAttacked(2, 8, Piece.Color.BLACK));
+		assertTrue(pos.isAttacked(3, 9, Piece.Color.BLACK));
+		assertFalse(pos.isAttacked(3, 7, Piece.Color.BLACK));
+		// The red horse only attacks through an open leg.
+		assertTrue(pos.isAttacked(3, 5, Piece.Color.RED));
+		assertTrue(pos.isAttacked(0, 8, Piece.Color.RED));
+		pos.setPiece(2, 6, Piece.of(Piece.Color.BLACK, Piece.Type.PAWN));
+		assertFalse(pos.isAttacked(3, 5, Piece.Color.RED));
+		assertTrue(pos.isAttacked(0, 8, Piece.Color.RED));
+		// Moving the screen off the file removes the check.
+		assertFalse(pos.inCheck(Piece.Color.RED, 4, 6, 3, 6));
+	}
+
 	@Test
 	void testGetMovesFromIntIntBoolean() {
 		// Many cases are also covered by other tests which rely on the inCheck
@@ -79,6 +109,476 @@ class PositionTest {
 		assertEquals(moves.get(0), new Pair<>(4, 1));
 	}
 
+	@Test
+	void testSetPieceAndClone() {
+		Position pos = new Position();
+		Position copy = pos.clone();
+		copy.clearPiece(0, 9);
+		copy.setPiece(4, 4, Piece.of(Piece.Color.RED, Piece.Type.ROOK));
+		assertTrue(pos.hasPieceAt(0, 9));
+		assertFalse(pos.hasPieceAt(4, 4));
+		assertFalse(copy.hasPieceAt(0, 9));
+		assertEquals(copy.pieceAt(4, 4), Piece.of(Piece.Color.RED, Piece.Type.ROOK));
+		assertSame(copy.pieceAt(4, 4), Piece.of(Piece.Color.RED, Piece.Type.ROOK));
+		assertSame(copy.pieceAt(0, 9), Piece.EMPTY);
+		assertEquals(copy.pieceCount(Piece.Color.RED), 16);
+		// A full side can only replace its own pieces.
+		assertThrows(IllegalArgumentException.class,
+				() -> copy.setPiece(4, 5, Piece.of(Piece.Color.RED, Piece.Type.PAWN)));
+		assertFalse(copy.hasPieceAt(4, 5));
+		assertThrows(IllegalArgumentException.class,
+				() -> copy.setPiece(0, 0, Piece.of(Piece.Color.RED, Piece.Type.PAWN)));
+		assertSame(copy.pieceAt(0, 0), Piece.of(Piece.Color.BLACK, Piece.Type.ROOK));
+		copy.setPiece(4, 4, Piece.of(Piece.Color.RED, Piece.Type.CANNON));
+		assertEquals(copy.pieceCount(Piece.Color.RED), 16);
+		copy.setPiece(4, 4, Piece.EMPTY);
+		assertEquals(copy.pieceCount(Piece.Color.RED), 15);
+		
+		// A crossed pawn on the edge file must not step off the board.
+		try {
+			pos = new Position("3k5/9/9/8P/9/9/9/9/9/4K4");
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+		ArrayList<Pair<Integer, Integer>> moves = pos.getMovesFrom(8, 3);
+		assertEquals(moves.size(), 2);
+		assertTrue(moves.contains(new Pair<>(8, 2)));
+		assertTrue(moves.contains(new Pair<>(7, 3)));
+	}
+
+	@Test
+	void testDoUndoMove() {
+		Position pos = new Position();
+		String start = pos.toString();
+		// Cannon takes horse, then the rook recaptures.
+		pos.doMove(new Move(Piece.of(Piece.Color.RED, Piece.Type.CANNON),
+				new Pair<>(7, 7), new Pair<>(7, 0)));
+		pos.doMove(new Move(Piece.of(Piece.Color.BLACK, Piece.Type.ROOK),
+				new Pair<>(8, 0), new Pair<>(7, 0)));
+		assertEquals(pos.toString(),
+				"rheakaer1/9/1c5c1/p1p1p1p1p/9/9/P1P1P1P1P/1C7/9/RHEAKAEHR");
+		assertEquals(pos.pieceCount(Piece.Color.RED), 15);
+		assertEquals(pos.pieceCount(Piece.Color.BLACK), 15);
+		pos.undoMove();
+		pos.undoMove();
+		assertEquals(pos.toString(), start);
+		assertEquals(pos.pieceCount(Piece.Color.RED), 16);
+		assertEquals(pos.pieceCount(Piece.Color.BLACK), 16);
+		assertThrows(IllegalStateException.class, () -> pos.undoMove());
+	}
+
+	@Test
+	void testHash() {
+		Position pos = new Position();
+		long start = pos.getHash();
+		Position parsed = null;
+		try {
+			parsed = new Position("rheakaehr/9/1c5c1/p1p1p1p1p/9/9/P1P1P1P1P/1C5C1/9/RHEAKAEHR");
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+		assertEquals(parsed.getHash(), start);
+		assertEquals(pos.clone().getHash(), start);
+		assertNotEquals(pos.getHash(Piece.Color.BLACK), pos.getHash(Piece.Color.RED));
+
+		// The same position reached in two move orders has the same hash.
+		Position other = pos.clone();
+		pos.doMove(new Move(Piece.of(Piece.Color.RED, Piece.Type.CANNON),
+				new Pair<>(7, 7), new Pair<>(4, 7)));
+		pos.doMove(new Move(Piece.of(Piece.Color.BLACK, Piece.Type.HORSE),
+				new Pair<>(7, 0), new Pair<>(6, 2)));
+		pos.doMove(new Move(Piece.of(Piece.Color.RED, Piece.Type.HORSE),
+				new Pair<>(7, 9), new Pair<>(6, 7)));
+		other.doMove(new Move(Piece.of(Piece.Color.RED, Piece.Type.HORSE),
+				new Pair<>(7, 9), new Pair<>(6, 7)));
+		other.doMove(new Move(Piece.of(Piece.Color.BLACK, Piece.Type.HORSE),
+				new Pair<>(7, 0), new Pair<>(6, 2)));
+		other.doMove(new Move(Piece.of(Piece.Color.RED, Piece.Type.CANNON),
+				new Pair<>(7, 7), new Pair<>(4, 7)));
+		assertEquals(pos.getHash(), other.getHash());
+		assertNotEquals(pos.getHash(), start);
+
+		// Captures, set and clear all keep the hash in step with the board.
+		pos.doMove(new Move(Piece.of(Piece.Color.RED, Piece.Type.CANNON),
+				new Pair<>(4, 7), new Pair<>(4, 3)));
+		pos.clearPiece(0, 0);
+		pos.setPiece(0, 0, Piece.of(Piece.Color.BLACK, Piece.Type.ROOK));
+		try {
+			assertEquals(pos.getHash(), new Position(pos.toString()).getHash());
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+		pos.undoMove();
+		pos.undoMove();
+		pos.undoMove();
+		pos.undoMove();
+		assertEquals(pos.getHash(), start);
+	}
+
+	@Test
+	void testGenerateLegalMoves() {
+		Position pos = new Position();
+		MoveList moves = new MoveList();
+		pos.generateLegalMoves(Piece.Color.RED, moves);
+		assertEquals(moves.size(), 44);
+		moves.clear();
+		pos.generateLegalCaptures(Piece.Color.BLACK, moves);
+		assertEquals(moves.size(), 2);
+		
+		// In check from a rook, the king must step aside but not onto the
+		// black king's file.
+		try {
+			pos = new Position("3k5/9/9/9/9/9/9/4r4/9/4K4");
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+		moves.clear();
+		pos.generateLegalMoves(Piece.Color.RED, moves);
+		assertEquals(moves.size(), 1);
+		assertEquals(PackedMove.toString(moves.get(0)), "e1f1");
+	}
+
+	/**
+	 * Check that the legal moves of a side are exactly the pseudo-legal moves
+	 * which do not leave its king in check once made.
+	 */
+	private static void assertLegalByMakeUnmake(Position pos, Piece.Color color) {
+		MoveList legal = new MoveList();
+		pos.generateLegalMoves(color, legal);
+		MoveList pseudo = new MoveList();
+		pos.generatePseudoLegalMoves(color.ordinal(), pseudo);
+		int count = 0;
+		for (int i = 0; i < pseudo.size(); i++) {
+			int move = pseudo.get(i);
+			pos.doMove(move);
+			if (!pos.inCheck(color)) {
+				assertEquals(legal.get(count++), move, PackedMove.toString(move));
+			}
+			pos.undoMove();
+		}
+		assertEquals(legal.size(), count);
+	}
+
+	@Test
+	void testLegalMovesWithPins() {
+		String[] fens = {
+			// The advisor and pawn both screen a cannon: only the pawn may
+			// move, and only along the file.
+			"4k4/4a4/9/4p4/9/9/9/4C4/9/3K5",
+			// The advisor blocks the leg of a horse aimed at the king.
+			"4k4/5aH2/9/9/9/9/9/9/9/3K5",
+			// Nothing stands between the cannon and the king, so the rook may
+			// not step onto the file.
+			"4k4/9/r8/9/9/4C4/9/9/9/3K5",
+			// The rook is the only piece between the kings.
+			"4k4/9/9/9/4r4/9/9/9/9/4K4",
+			// In check from a horse and a rook at once.
+			"3k5/9/4H4/9/9/9/9/9/9/3RK4"
+		};
+		for (String fen : fens) {
+			Position pos = null;
+			try {
+				pos = new Position(fen);
+			} catch (ParseException e) {
+				fail("Unable to parse position");
+			}
+			assertLegalByMakeUnmake(pos, Piece.Color.BLACK);
+			assertLegalByMakeUnmake(pos, Piece.Color.RED);
+		}
+		// Spot check the pins above.
+		try {
+			Position pos = new Position(fens[0]);
+			assertTrue(pos.getMovesFrom(4, 1).isEmpty());
+			assertEquals(pos.getMovesFrom(4, 3).size(), 1);
+			pos = new Position(fens[1]);
+			assertTrue(pos.getMovesFrom(5, 1).isEmpty());
+			pos = new Position(fens[3]);
+			assertEquals(pos.getMovesFrom(4, 4).size(), 8);
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+
+		// Along a random game, the quick tests agree with making each move.
+		Position pos = new Position();
+		Random rnd = new Random(1);
+		MoveList moves = new MoveList();
+		Piece.Color color = Piece.Color.RED;
+		for (int ply = 0; ply < 200; ply++) {
+			assertLegalByMakeUnmake(pos, color);
+			moves.clear();
+			pos.generateLegalMoves(color, moves);
+			if (moves.isEmpty()) {
+				break;
+			}
+			pos.doMove(moves.get(rnd.nextInt(moves.size())));
+			color = Piece.switchColor(color);
+		}
+	}
+
+	@Test
+	void testIsChase() {
+		// The horse moves to attack the cannon on d7.
+		Move horse = new Move(Piece.of(Piece.Color.RED, Piece.Type.HORSE),
+				new Pair<>(0, 6), new Pair<>(1, 4));
+		String[] fens = {
+			"4k4/9/9/3c5/9/9/H8/9/9/3K5",
+			"4k4/5e3/9/3c5/9/9/H8/9/9/3K5",
+			"4k4/5e3/9/3r5/9/9/H8/9/9/3K5"
+		};
+		// An unprotected cannon is chased, a protected one is not, and a
+		// rook is chased even when protected.
+		boolean[] chases = { true, false, true };
+		for (int i = 0; i < fens.length; i++) {
+			Position pos = null;
+			try {
+				pos = new Position(fens[i]);
+			} catch (ParseException e) {
+				fail("Unable to parse position");
+			}
+			assertEquals(pos.isChase(PackedMove.fromMove(horse, pos)), chases[i], fens[i]);
+		}
+		// Moving a piece which already attacked the target is not a chase.
+		Position pos = null;
+		try {
+			pos = new Position("4k4/9/9/3c5/9/9/9/3R5/9/4K4");
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+		Move rook = new Move(Piece.of(Piece.Color.RED, Piece.Type.ROOK),
+				new Pair<>(3, 7), new Pair<>(3, 6));
+		assertFalse(pos.isChase(PackedMove.fromMove(rook, pos)));
+
+		// The horse steps off the d file, uncovering the rook's attack on the
+		// unprotected horse on d7. Only threats by the moved piece count, so
+		// this is not a chase, though the rook moving onto the file is.
+		try {
+			pos = new Position("5k3/9/9/3h5/9/3H5/9/3R5/9/4K4");
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+		Move discovery = new Move(Piece.of(Piece.Color.RED, Piece.Type.HORSE),
+				new Pair<>(3, 5), new Pair<>(5, 6));
+		assertFalse(pos.isChase(PackedMove.fromMove(discovery, pos)));
+		try {
+			pos = new Position("5k3/9/9/3h5/9/9/9/2R6/9/4K4");
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+		rook = new Move(Piece.of(Piece.Color.RED, Piece.Type.ROOK),
+				new Pair<>(2, 7), new Pair<>(3, 7));
+		assertTrue(pos.isChase(PackedMove.fromMove(rook, pos)));
+	}
+
+	@Test
+	void testSee() {
+		// The red rook on e2 or e3 takes the black horse on e5, which the
+		// black rook on e8 defends.
+		String[] fens = {
+			// Undefended.
+			"9/9/9/9/9/4h4/9/9/4R4/4C4",
+			// Defended, and the rook is lost for a horse.
+			"9/9/4r4/9/9/4h4/9/9/4R4/4C4",
+			// Once the rook has moved, the cannon on e1 uses the pawn as a
+			// screen to win the black rook back.
+			"9/9/4r4/9/9/4h4/9/4R4/4P4/4C4",
+			// The rook and the advisor leave the cannon two screens, but once
+			// the rook has moved the advisor alone screens it.
+			"9/9/4r4/9/9/4h4/9/4R4/4A4/4C4"
+		};
+		int[] rookRank = { 8, 8, 7, 7 };
+		int[] values = { 400, -500, 400, 400 };
+		for (int i = 0; i < fens.length; i++) {
+			Position pos = null;
+			try {
+				pos = new Position(fens[i]);
+			} catch (ParseException e) {
+				fail("Unable to parse position");
+			}
+			long hash = pos.getHash();
+			Move m = new Move(Piece.of(Piece.Color.RED, Piece.Type.ROOK),
+					new Pair<>(4, rookRank[i]), new Pair<>(4, 5));
+			assertEquals(pos.see(PackedMove.fromMove(m, pos)), values[i], fens[i]);
+			assertEquals(pos.getHash(), hash);
+		}
+
+		// The rook on e5 takes the cannon on e9 and the advisor takes back.
+		// The advisor was blocking the leg of the horse on c10, so when the
+		// second rook takes the advisor the horse takes that rook too.
+		Position legs = null;
+		try {
+			legs = new Position("2ha5/4c4/9/9/9/4R4/4R4/9/9/9");
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+		Move first = new Move(Piece.of(Piece.Color.RED, Piece.Type.ROOK),
+				new Pair<>(4, 5), new Pair<>(4, 1));
+		assertEquals(legs.see(PackedMove.fromMove(first, legs)), -450);
+		// Without the horse the second rook wins the advisor back.
+		legs.clearPiece(2, 0);
+		assertEquals(legs.see(PackedMove.fromMove(first, legs)), -250);
+
+		// The horse is defended by a pawn, so the cannon is worth a little
+		// more than it wins. A quiet move to a safe point is even.
+		Position pos = null;
+		try {
+			pos = new Position("4k4/9/9/9/4p4/4h4/9/4C4/9/R3K4");
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+		Move cannon = new Move(Piece.of(Piece.Color.RED, Piece.Type.CANNON),
+				new Pair<>(4, 7), new Pair<>(4, 5));
+		assertEquals(pos.see(PackedMove.fromMove(cannon, pos)), -50);
+		Move rook = new Move(Piece.of(Piece.Color.RED, Piece.Type.ROOK),
+				new Pair<>(0, 9), new Pair<>(0, 5));
+		assertEquals(pos.see(PackedMove.fromMove(rook, pos)), 0);
+	}
+
+	@Test
+	void testEvaluate() {
+		Position pos = new Position();
+		assertEquals(pos.getMaterial(Piece.Color.RED), 4800);
+		assertEquals(pos.getMaterial(Piece.Color.BLACK), 4800);
+		assertEquals(pos.evaluate(Piece.Color.RED), 0);
+		assertEquals(pos.evaluate(Piece.Color.BLACK), 0);
+
+		// Along a random game the running totals match a position set up from
+		// scratch, and taking every move back restores the start.
+		Random rnd = new Random(2);
+		MoveList moves = new MoveList();
+		Piece.Color color = Piece.Color.RED;
+		int made = 0;
+		for (; made < 200; made++) {
+			moves.clear();
+			pos.generateLegalMoves(color, moves);
+			if (moves.isEmpty()) {
+				break;
+			}
+			pos.doMove(moves.get(rnd.nextInt(moves.size())));
+			color = Piece.switchColor(color);
+			try {
+				Position fresh = new Position(pos.toString());
+				assertEquals(pos.getMaterial(Piece.Color.RED), fresh.getMaterial(Piece.Color.RED));
+				assertEquals(pos.getMaterial(Piece.Color.BLACK),
+						fresh.getMaterial(Piece.Color.BLACK));
+				assertEquals(pos.evaluate(Piece.Color.RED), fresh.evaluate(Piece.Color.RED));
+				assertEquals(pos.clone().evaluate(Piece.Color.RED), fresh.evaluate(Piece.Color.RED));
+			} catch (ParseException e) {
+				fail("Unable to parse position");
+			}
+			assertEquals(pos.evaluate(Piece.Color.BLACK), -pos.evaluate(Piece.Color.RED));
+		}
+		for (; made > 0; made--) {
+			pos.undoMove();
+		}
+		assertEquals(pos.evaluate(Piece.Color.RED), 0);
+		assertEquals(pos.getMaterial(Piece.Color.RED), 4800);
+
+		// The same piece on mirrored squares scores the same for either side,
+		// and an advanced pawn is worth more than one at home.
+		try {
+			pos = new Position("3k5/9/2r6/9/2P6/6p2/9/6R2/9/5K3");
+			assertEquals(pos.evaluate(Piece.Color.RED), 0);
+			pos.clearPiece(2, 4);
+			pos.setPiece(2, 6, Piece.of(Piece.Color.RED, Piece.Type.PAWN));
+			assertTrue(pos.evaluate(Piece.Color.RED) < 0);
+			assertEquals(pos.getMaterial(Piece.Color.RED), 1000);
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+	}
+
+	@Test
+	void testMirror() {
+		Position pos = new Position();
+		assertEquals(pos.getMirrorHash(), pos.getHash());
+		assertFalse(pos.isMirrored());
+
+		// Along a random game the mirrored hash is the hash of the mirrored
+		// board, both share a canonical hash, and mirrored moves are exactly
+		// the moves of the mirrored board.
+		Random rnd = new Random(3);
+		MoveList moves = new MoveList();
+		MoveList mirrorMoves = new MoveList();
+		Piece.Color color = Piece.Color.RED;
+		for (int ply = 0; ply < 120; ply++) {
+			Position mirror = pos.mirror();
+			assertEquals(mirror.getHash(), pos.getMirrorHash());
+			assertEquals(mirror.getMirrorHash(), pos.getHash());
+			assertEquals(mirror.getCanonicalHash(color), pos.getCanonicalHash(color));
+			if (pos.getHash() != pos.getMirrorHash()) {
+				assertNotEquals(mirror.isMirrored(), pos.isMirrored());
+			}
+			moves.clear();
+			pos.generateLegalMoves(color, moves);
+			mirrorMoves.clear();
+			mirror.generateLegalMoves(color, mirrorMoves);
+			Set<Integer> expected = new HashSet<>();
+			for (int i = 0; i < moves.size(); i++) {
+				expected.add(PackedMove.mirror(moves.get(i)));
+			}
+			Set<Integer> actual = new HashSet<>();
+			for (int i = 0; i < mirrorMoves.size(); i++) {
+				actual.add(mirrorMoves.get(i));
+			}
+			assertEquals(actual, expected);
+			if (moves.isEmpty()) {
+				break;
+			}
+			pos.doMove(moves.get(rnd.nextInt(moves.size())));
+			color = Piece.switchColor(color);
+		}
+
+		Move m = new Move(Piece.of(Piece.Color.RED, Piece.Type.HORSE),
+				new Pair<>(1, 9), new Pair<>(2, 7));
+		assertEquals(m.mirror(), new Move(Piece.of(Piece.Color.RED, Piece.Type.HORSE),
+				new Pair<>(7, 9), new Pair<>(6, 7)));
+		assertEquals(m.mirror().mirror(), m);
+	}
+
+	@Test
+	void testHasAnyLegalMove() {
+		Position pos = new Position();
+		assertTrue(pos.hasAnyLegalMove(Piece.Color.RED));
+		assertTrue(pos.hasAnyLegalMove(Piece.Color.BLACK));
+
+		// Two rooks mate the black king.
+		try {
+			pos = new Position("3k5/9/9/9/9/9/9/9/4R4/3RK4");
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+		assertFalse(pos.hasAnyLegalMove(Piece.Color.BLACK));
+		// A black rook can take the checking rook.
+		pos.setPiece(0, 9, Piece.of(Piece.Color.BLACK, Piece.Type.ROOK));
+		assertTrue(pos.hasAnyLegalMove(Piece.Color.BLACK));
+		pos.clearPiece(0, 9);
+		// A black cannon can block on the d file.
+		pos.setPiece(8, 5, Piece.of(Piece.Color.BLACK, Piece.Type.CANNON));
+		assertTrue(pos.hasAnyLegalMove(Piece.Color.BLACK));
+
+		// A cannon check is answered by moving the screen away.
+		try {
+			pos = new Position("4k4/4a4/9/9/9/4C4/9/9/5R3/3K5");
+		} catch (ParseException e) {
+			fail("Unable to parse position");
+		}
+		assertTrue(pos.inCheck(Piece.Color.BLACK));
+		assertTrue(pos.hasAnyLegalMove(Piece.Color.BLACK));
+
+		// The answers agree with full generation along the perft tree.
+		pos = new Position();
+		MoveList moves = new MoveList();
+		MoveList replies = new MoveList();
+		pos.generateLegalMoves(Piece.Color.RED, moves);
+		for (int i = 0; i < moves.size(); i++) {
+			pos.doMove(moves.get(i));
+			replies.clear();
+			pos.generateLegalMoves(Piece.Color.BLACK, replies);
+			assertEquals(pos.hasAnyLegalMove(Piece.Color.BLACK), !replies.isEmpty());
+			pos.undoMove();
+		}
+	}
+
 	@Test
 	void testInterpretMove() {
 		Position pos = new Position();
@@ -90,7 +590,7 @@ class PositionTest {
 		assertThrows(ParseException.class,
 				() -> pos.interpretMove("", Piece.Color.RED));
 		
-		Move centerCannon = new Move(new Piece(Piece.Color.RED, Piece.Type.CANNON),
+		Move centerCannon = new Move(Piece.of(Piece.Color.RED, Piece.Type.CANNON),
 				new Pair<>(7, 7), new Pair<>(4, 7));
 		Move m = null;
 		try {
@@ -117,17 +617,17 @@ class PositionTest {
 		} catch (ParseException e) {
 			fail(e.getMessage());
 		}
-		assertEquals(m, new Move(new Piece(Piece.Color.BLACK, Piece.Type.ROOK),
+		assertEquals(m, new Move(Piece.of(Piece.Color.BLACK, Piece.Type.ROOK),
 				new Pair<>(8, 0), new Pair<>(8, 1)));
 		
-		Position newPos = pos.makeMove(new Move(new Piece(Piece.Color.BLACK, Piece.Type.HORSE),
+		Position newPos = pos.makeMove(new Move(Piece.of(Piece.Color.BLACK, Piece.Type.HORSE),
 				new Pair<>(7, 0), new Pair<>(6, 2)));
 		try {
 			m = newPos.interpretMove("i10h10", Piece.Color.BLACK);
 		} catch (ParseException e) {
 			fail(e.getMessage());
 		}
-		assertEquals(m, new Move(new Piece(Piece.Color.BLACK, Piece.Type.ROOK),
+		assertEquals(m, new Move(Piece.of(Piece.Color.BLACK, Piece.Type.ROOK),
 				new Pair<>(8, 0), new Pair<>(7, 0)));
 		
 		try {
@@ -135,7 +635,7 @@ class PositionTest {
 		} catch (ParseException e) {
 			fail("Unable to parse position");
 		}
-		Move rookTandem = new Move(new Piece(Piece.Color.RED, Piece.Type.ROOK),
+		Move rookTandem = new Move(Piece.of(Piece.Color.RED, Piece.Type.ROOK),
 				new Pair<>(0, 2), new Pair<>(0, 3));
 		try {
 			m = newPos.interpretMove("R8a7", Piece.Color.RED);
@@ -156,7 +656,7 @@ class PositionTest {
 		} catch (ParseException e) {
 			fail(e.getMessage());
 		}
-		assertEquals(m, new Move(new Piece(Piece.Color.RED, Piece.Type.ROOK),
+		assertEquals(m, new Move(Piece.of(Piece.Color.RED, Piece.Type.ROOK),
 				new Pair<>(0, 5), new Pair<>(0, 4)));
 		
 		try {
@@ -171,7 +671,7 @@ class PositionTest {
 		} catch (ParseException e) {
 			fail(e.getMessage());
 		}
-		assertEquals(m, new Move(new Piece(Piece.Color.BLACK, Piece.Type.PAWN),
+		assertEquals(m, new Move(Piece.of(Piece.Color.BLACK, Piece.Type.PAWN),
 				new Pair<>(0, 3), new Pair<>(0, 4)));
 		
 		// Elephant
@@ -180,7 +680,7 @@ class PositionTest {
 		} catch (ParseException e) {
 			fail(e.getMessage());
 		}
-		assertEquals(m, new Move(new Piece(Piece.Color.RED, Piece.Type.ELEPHANT),
+		assertEquals(m, new Move(Piece.of(Piece.Color.RED, Piece.Type.ELEPHANT),
 				new Pair<>(2, 9), new Pair<>(4, 7)));
 		
 		// Advisor
@@ -189,7 +689,7 @@ class PositionTest {
 		} catch (ParseException e) {
 			fail(e.getMessage());
 		}
-		assertEquals(m, new Move(new Piece(Piece.Color.BLACK, Piece.Type.ADVISOR),
+		assertEquals(m, new Move(Piece.of(Piece.Color.BLACK, Piece.Type.ADVISOR),
 				new Pair<>(5, 0), new Pair<>(4, 1)));
 		
 		// King
@@ -198,7 +698,7 @@ class PositionTest {
 		} catch (ParseException e) {
 			fail(e.getMessage());
 		}
-		assertEquals(m, new Move(new Piece(Piece.Color.RED, Piece.Type.KING),
+		assertEquals(m, new Move(Piece.of(Piece.Color.RED, Piece.Type.KING),
 				new Pair<>(5, 9), new Pair<>(5, 8)));
 		
 		// Horse
@@ -207,7 +707,7 @@ class PositionTest {
 		} catch (ParseException e) {
 			fail(e.getMessage());
 		}
-		assertEquals(m, new Move(new Piece(Piece.Color.BLACK, Piece.Type.HORSE),
+		assertEquals(m, new Move(Piece.of(Piece.Color.BLACK, Piece.Type.HORSE),
 				new Pair<>(1, 1), new Pair<>(2, 3)));
 		
 	}
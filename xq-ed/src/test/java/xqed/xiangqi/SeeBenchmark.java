@@ -0,0 +1,139 @@
+package xqed.xiangqi;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Times {@link Position#see} over the captures of positions from random
+ * games and reports how much the timed loop allocated, which should not
+ * grow with the number of calls. It lives with the tests so that the
+ * application does not need jdk.management; run it from the test classes on
+ * the class path.
+ */
+public final class SeeBenchmark {
+
+	private SeeBenchmark() {}
+
+	/**
+	 * Collect positions with captures by playing random games. Captures are
+	 * preferred so that the games reach the middlegame exchanges SEE is for.
+	 * @param games The number of games to play.
+	 * @param rnd The source of randomness.
+	 * @param positions The positions are added here.
+	 * @param captures The legal captures of each position are added here.
+	 */
+	private static void collect(int games, Random rnd, ArrayList<Position> positions,
+			ArrayList<MoveList> captures) {
+		MoveList moves = new MoveList();
+		for (int g = 0; g < games; g++) {
+			Position pos = new Position();
+			Piece.Color color = Piece.Color.RED;
+			for (int ply = 0; ply < 200; ply++) {
+				MoveList caps = new MoveList();
+				pos.generateLegalCaptures(color, caps);
+				if (!caps.isEmpty()) {
+					positions.add(pos.clone());
+					captures.add(caps);
+				}
+				moves.clear();
+				pos.generateLegalMoves(color, moves);
+				if (moves.isEmpty()) {
+					break;
+				}
+				int move = moves.get(rnd.nextInt(moves.size()));
+				if (!caps.isEmpty() && rnd.nextInt(4) == 0) {
+					move = caps.get(rnd.nextInt(caps.size()));
+				}
+				pos.doMove(move);
+				color = Piece.switchColor(color);
+			}
+		}
+	}
+
+	/**
+	 * Run SEE on every collected capture a number of times.
+	 * @param positions The positions.
+	 * @param captures The captures of each position.
+	 * @param rounds The number of passes over all captures.
+	 * @return A checksum of the results, so the work cannot be skipped.
+	 */
+	private static long run(ArrayList<Position> positions, ArrayList<MoveList> captures,
+			int rounds) {
+		long sum = 0;
+		for (int r = 0; r < rounds; r++) {
+			for (int i = 0; i < positions.size(); i++) {
+				Position pos = positions.get(i);
+				MoveList caps = captures.get(i);
+				for (int j = 0; j < caps.size(); j++) {
+					sum += pos.see(caps.get(j));
+				}
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Get the number of bytes the current thread has allocated, if the JVM
+	 * can tell.
+	 * @return The allocated bytes, or -1 if unknown.
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes();
+		}
+		return -1;
+	}
+
+	/**
+	 * Run the benchmark.
+	 * @param args The number of games to collect captures from (default 200)
+	 * and the number of timed passes (default 50).
+	 */
+	public static void main(String[] args) {
+		int games = 200;
+		int rounds = 50;
+		try {
+			if (args.length > 0) {
+				games = Integer.parseInt(args[0]);
+			}
+			if (args.length > 1) {
+				rounds = Integer.parseInt(args[1]);
+			}
+		} catch (NumberFormatException e) {
+			rounds = 0;
+		}
+		if (games < 1 || rounds < 1) {
+			System.err.println("Usage: SeeBenchmark [games] [rounds]");
+			System.exit(1);
+		}
+		ArrayList<Position> positions = new ArrayList<>();
+		ArrayList<MoveList> captures = new ArrayList<>();
+		collect(games, new Random(1), positions, captures);
+		long calls = 0;
+		for (MoveList caps : captures) {
+			calls += caps.size();
+		}
+		// Warm up, which also creates each position's exchange buffers.
+		long checksum = run(positions, captures, 5);
+
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		checksum += run(positions, captures, rounds);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		allocated = allocated < 0 ? -1 : allocatedBytes() - allocated;
+
+		calls *= rounds;
+		System.out.println("Captures: " + calls / rounds + " in " + positions.size() + " positions");
+		System.out.println("Calls: " + calls);
+		System.out.println(String.format("Time: %.3f s", seconds));
+		System.out.println(String.format("Speed: %.0f calls/s", seconds > 0 ? calls / seconds : 0.0));
+		// Reading the allocation counter costs about a kilobyte however long
+		// the run, so only the bytes per call are meaningful.
+		System.out.println("Allocated: " + (allocated < 0 ? "unknown" :
+				String.format("%d bytes (%.4f per call)", allocated, (double) allocated / calls)));
+		System.out.println("Checksum: " + checksum);
+	}
+
+}